@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import io.ordunaleon.lumios.data.LumiosContract.PriceEntry;
+import io.ordunaleon.lumios.utils.DateCodec;
+
+/**
+ * Helpers of the database benchmarks. They run on a device, against a scratch database of their
+ * own which is deleted afterwards, never against the database of the app. Results are logged
+ * with the {@link #LOG_TAG} tag.
+ */
+final class Benchmarks {
+
+    static final String LOG_TAG = "LumiosBenchmark";
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Create an empty database with the current schema of the app.
+     *
+     * @param context Context of the app under test.
+     * @param name    Name of the database, deleted first if it exists.
+     * @return The database, open for writing.
+     */
+    static SQLiteDatabase openScratchDatabase(Context context, String name) {
+        context.deleteDatabase(name);
+        SQLiteDatabase db = context.openOrCreateDatabase(name, Context.MODE_PRIVATE, null);
+        new LumiosDbHelper(context).onCreate(db);
+        return db;
+    }
+
+    /**
+     * Close and delete a database opened with {@link #openScratchDatabase}.
+     */
+    static void deleteScratchDatabase(Context context, SQLiteDatabase db, String name) {
+        if (db != null) {
+            db.close();
+        }
+        context.deleteDatabase(name);
+    }
+
+    /**
+     * Create the hourly prices of the given number of days in Spain, 23, 24 or 25 hours each,
+     * with random but repeatable prices.
+     *
+     * @param firstDay First day, in days since 1970-01-01.
+     * @param days     Number of days.
+     * @return Prices in ascending order of date.
+     */
+    static PriceBatch createPrices(long firstDay, int days) {
+        Random random = new Random(firstDay * 31 + days);
+        long end = DateCodec.getSpainMidnight(firstDay + days);
+
+        PriceBatch batch = new PriceBatch(days * 25);
+        for (long date = DateCodec.getSpainMidnight(firstDay); date < end;
+             date += DateCodec.MILLIS_PER_HOUR) {
+            double general = 0.08 + random.nextDouble() * 0.06;
+            batch.add(date, general, general * 0.6, general * 0.7);
+        }
+        return batch;
+    }
+
+    /**
+     * Write the given prices in one transaction and compute the stats of their days, as the
+     * provider does. Meant to fill a database before measuring, not to be measured itself.
+     */
+    static void insertPrices(SQLiteDatabase db, PriceBatch batch) {
+        SQLiteStatement statement = db.compileStatement("INSERT OR REPLACE INTO "
+                + PriceEntry.TABLE_NAME + " (" + PriceEntry.COLUMN_DATE + ", "
+                + PriceEntry.COLUMN_PRICE_GENERAL + ", " + PriceEntry.COLUMN_PRICE_NIGHT + ", "
+                + PriceEntry.COLUMN_PRICE_VEHICLE + ") VALUES (?, ?, ?, ?)");
+        DailyStatsUpdater updater = new DailyStatsUpdater();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                statement.bindLong(1, batch.getDate(i));
+                statement.bindDouble(2, batch.getPriceGeneral(i));
+                statement.bindDouble(3, batch.getPriceNight(i));
+                statement.bindDouble(4, batch.getPriceVehicle(i));
+                statement.executeInsert();
+                updater.addDate(batch.getDate(i));
+            }
+            updater.apply(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+    }
+
+    /**
+     * Log the throughput of a measured run.
+     *
+     * @param name  What has been measured.
+     * @param rows  Number of rows handled by the run.
+     * @param nanos Time of the run, in nanoseconds.
+     */
+    static void reportThroughput(String name, int rows, long nanos) {
+        Log.i(LOG_TAG, String.format(Locale.US, "%s: %d rows in %.1f ms, %.0f rows/s", name,
+                rows, nanos / 1e6, rows * 1e9 / nanos));
+    }
+
+    /**
+     * Log the median, the 99th percentile and the worst of the given latencies.
+     *
+     * @param name  What has been measured.
+     * @param nanos Time of every run, in nanoseconds. Sorted by this method.
+     */
+    static void reportLatency(String name, long[] nanos) {
+        Arrays.sort(nanos);
+        Log.i(LOG_TAG, String.format(Locale.US, "%s: %d runs, p50 %.2f ms, p99 %.2f ms, "
+                        + "max %.2f ms", name, nanos.length, getPercentile(nanos, 50) / 1e6,
+                getPercentile(nanos, 99) / 1e6, nanos[nanos.length - 1] / 1e6));
+    }
+
+    /**
+     * @param sorted     Values in ascending order.
+     * @param percentile Percentile to get, from 0 to 100.
+     * @return The value below which the given percentile of the values fall, nearest rank.
+     */
+    static long getPercentile(long[] sorted, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.ordunaleon.lumios.data.LumiosContract.PriceEntry;
+import io.ordunaleon.lumios.utils.DateCodec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the latency of the range queries of the UI while a download keeps writing, a day of
+ * prices per transaction. It runs once on a database opened by {@link LumiosDbHelper}, with
+ * write-ahead logging and its pragmas, and once on one opened with the defaults of SQLite, as
+ * the app did before: a single connection with a rollback journal, so every query waits for the
+ * transaction in progress to end.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ContentionBenchmark {
+
+    private static final String TUNED_DATABASE_NAME = "benchmark_contention_wal.db";
+    private static final String DEFAULT_DATABASE_NAME = "benchmark_contention_default.db";
+
+    // A year of prices from 2015-01-01, then the writer appends one day after another.
+    private static final long FIRST_DAY = DateCodec.daysFromCivil(2015, 1, 1);
+    private static final int DAYS = 365;
+
+    // The query of a week of prices, as the list shows.
+    private static final long QUERY_START = DateCodec.getSpainMidnight(
+            DateCodec.daysFromCivil(2015, 6, 1));
+    private static final long QUERY_END = DateCodec.getSpainMidnight(
+            DateCodec.daysFromCivil(2015, 6, 8));
+
+    private static final int WARM_UP_RUNS = 20;
+    private static final int RUNS = 500;
+
+    private static final String sRangeSelection = PriceEntry.COLUMN_DATE + " >= ? AND "
+            + PriceEntry.COLUMN_DATE + " < ?";
+
+    private Context mContext;
+    private SQLiteDatabase mDb;
+    private LumiosDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+    }
+
+    @After
+    public void tearDown() {
+        if (mHelper != null) {
+            mHelper.close();
+            mContext.deleteDatabase(TUNED_DATABASE_NAME);
+        }
+        if (mDb != null) {
+            Benchmarks.deleteScratchDatabase(mContext, mDb, DEFAULT_DATABASE_NAME);
+        }
+    }
+
+    @Test
+    public void tunedDatabase() throws InterruptedException {
+        mContext.deleteDatabase(TUNED_DATABASE_NAME);
+        mHelper = new LumiosDbHelper(mContext, TUNED_DATABASE_NAME);
+        measure("write-ahead logging", mHelper.getWritableDatabase());
+    }
+
+    @Test
+    public void defaultDatabase() throws InterruptedException {
+        mDb = Benchmarks.openScratchDatabase(mContext, DEFAULT_DATABASE_NAME);
+        measure("rollback journal", mDb);
+    }
+
+    private void measure(String name, final SQLiteDatabase db) throws InterruptedException {
+        Benchmarks.insertPrices(db, Benchmarks.createPrices(FIRST_DAY, DAYS));
+
+        final AtomicInteger writtenDays = new AtomicInteger();
+        final AtomicReference<Throwable> writerError = new AtomicReference<>();
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread("ContentionBenchmark writer") {
+            @Override
+            public void run() {
+                try {
+                    for (long day = FIRST_DAY + DAYS; !stop.get(); day++) {
+                        Benchmarks.insertPrices(db, Benchmarks.createPrices(day, 1));
+                        writtenDays.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    writerError.set(e);
+                }
+            }
+        };
+
+        String[] selectionArgs = {String.valueOf(QUERY_START), String.valueOf(QUERY_END)};
+        int hours = (int) ((QUERY_END - QUERY_START) / DateCodec.MILLIS_PER_HOUR);
+        long[] nanos = new long[RUNS];
+
+        writer.start();
+        try {
+            for (int run = -WARM_UP_RUNS; run < RUNS; run++) {
+                long start = System.nanoTime();
+                int rows = readAll(db, selectionArgs);
+                long time = System.nanoTime() - start;
+
+                assertEquals(hours, rows);
+                if (run >= 0) {
+                    nanos[run] = time;
+                }
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+
+        assertNull(writerError.get());
+        assertTrue(writtenDays.get() > 0);
+        Log.i(Benchmarks.LOG_TAG, name + ": " + writtenDays.get()
+                + " days written during the queries");
+        Benchmarks.reportLatency("week query while writing, " + name, nanos);
+    }
+
+    /**
+     * @return Number of rows of the week, every value of them read.
+     */
+    private static int readAll(SQLiteDatabase db, String[] selectionArgs) {
+        Cursor cursor = db.query(PriceEntry.VIEW_NAME, null, sRangeSelection, selectionArgs,
+                null, null, PriceEntry.COLUMN_DATE + " ASC");
+        try {
+            int columns = cursor.getColumnCount();
+            double sum = 0;
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < columns; i++) {
+                    sum += cursor.getDouble(i);
+                }
+            }
+            return sum > 0 ? cursor.getCount() : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
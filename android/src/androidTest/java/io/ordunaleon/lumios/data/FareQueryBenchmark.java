@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.ordunaleon.lumios.data.LumiosContract.PriceEntry;
+import io.ordunaleon.lumios.utils.DateCodec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures a year of a single fare read from its covering index, the way the fare uri reads it,
+ * against the same query forced to walk the full rows of the price table. The database holds
+ * three years, so the range is not the whole table.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FareQueryBenchmark {
+
+    private static final String DATABASE_NAME = "benchmark_fare.db";
+
+    // 2015-01-01 to 2017-12-31, the year queried being the middle one.
+    private static final long FIRST_DAY = DateCodec.daysFromCivil(2015, 1, 1);
+    private static final int DAYS = 3 * 365 + 1;
+    private static final long YEAR_START = DateCodec.getSpainMidnight(
+            DateCodec.daysFromCivil(2016, 1, 1));
+    private static final long YEAR_END = DateCodec.getSpainMidnight(
+            DateCodec.daysFromCivil(2017, 1, 1));
+
+    private static final int WARM_UP_RUNS = 5;
+    private static final int RUNS = 50;
+
+    private static final String FARE_INDEX =
+            PriceEntry.TABLE_NAME + "_" + LumiosContract.FARE_GENERAL + "_index";
+
+    private static final String sRangeSelection = " WHERE " + PriceEntry.COLUMN_DATE
+            + " >= ? AND " + PriceEntry.COLUMN_DATE + " < ? ORDER BY " + PriceEntry.COLUMN_DATE;
+
+    // Reads the index alone, as SQLite picks by itself for a query on one fare.
+    private static final String SQL_FARE_FROM_INDEX = "SELECT " + PriceEntry.COLUMN_DATE + ", "
+            + PriceEntry.COLUMN_PRICE_GENERAL + " FROM " + PriceEntry.TABLE_NAME
+            + " INDEXED BY " + FARE_INDEX + sRangeSelection;
+
+    // Reads the rows of the table, holding the three fares.
+    private static final String SQL_FARE_FROM_TABLE = "SELECT " + PriceEntry.COLUMN_DATE + ", "
+            + PriceEntry.COLUMN_PRICE_GENERAL + " FROM " + PriceEntry.TABLE_NAME
+            + " NOT INDEXED" + sRangeSelection;
+
+    private Context mContext;
+    private SQLiteDatabase mDb;
+    private String[] mSelectionArgs;
+    private int mYearHours;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDb = Benchmarks.openScratchDatabase(mContext, DATABASE_NAME);
+        Benchmarks.insertPrices(mDb, Benchmarks.createPrices(FIRST_DAY, DAYS));
+
+        mSelectionArgs = new String[]{String.valueOf(YEAR_START), String.valueOf(YEAR_END)};
+        mYearHours = (int) ((YEAR_END - YEAR_START) / DateCodec.MILLIS_PER_HOUR);
+    }
+
+    @After
+    public void tearDown() {
+        Benchmarks.deleteScratchDatabase(mContext, mDb, DATABASE_NAME);
+    }
+
+    @Test
+    public void singleFareQuery_usesTheCoveringIndex() {
+        String sql = "EXPLAIN QUERY PLAN SELECT " + PriceEntry.COLUMN_DATE + ", "
+                + PriceEntry.COLUMN_PRICE_GENERAL + " FROM " + PriceEntry.TABLE_NAME
+                + sRangeSelection;
+        Cursor cursor = mDb.rawQuery(sql, mSelectionArgs);
+        try {
+            StringBuilder plan = new StringBuilder();
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(cursor.getColumnCount() - 1)).append('\n');
+            }
+            assertTrue(plan.toString(), plan.indexOf("COVERING INDEX " + FARE_INDEX) >= 0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void yearOfOneFare() {
+        measure("one fare, one year, covering index", SQL_FARE_FROM_INDEX);
+        measure("one fare, one year, table rows", SQL_FARE_FROM_TABLE);
+    }
+
+    private void measure(String name, String sql) {
+        long[] nanos = new long[RUNS];
+        for (int run = -WARM_UP_RUNS; run < RUNS; run++) {
+            long start = System.nanoTime();
+            int rows = readAll(sql);
+            long time = System.nanoTime() - start;
+
+            assertEquals(mYearHours, rows);
+            if (run >= 0) {
+                nanos[run] = time;
+            }
+        }
+        Benchmarks.reportLatency(name, nanos);
+    }
+
+    /**
+     * Run the query and read every value, as the list of prices would.
+     *
+     * @return Number of rows read.
+     */
+    private int readAll(String sql) {
+        Cursor cursor = mDb.rawQuery(sql, mSelectionArgs);
+        try {
+            double sum = 0;
+            while (cursor.moveToNext()) {
+                sum += cursor.getLong(0) + cursor.getDouble(1);
+            }
+            assertTrue(sum > 0);
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import io.ordunaleon.lumios.data.LumiosContract.DailyStatsEntry;
+import io.ordunaleon.lumios.data.LumiosContract.PriceEntry;
+import io.ordunaleon.lumios.utils.DateCodec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Upgrades a database of version 2, the first one kept on upgrade, to the current version. The
+ * prices span a day of 24 hours and the two days of the year with 23 and 25 hours, whose ISO 8601
+ * dates in UTC do not start at a midnight in UTC.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LumiosDbHelperUpgradeTest {
+
+    private static final String DATABASE_NAME = "upgrade_test.db";
+
+    // The version 2 schema, as it was shipped.
+    private static final String SQL_CREATE_PRICE_TABLE_V2 =
+            "CREATE TABLE " + PriceEntry.TABLE_NAME + " (" +
+                    PriceEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    PriceEntry.COLUMN_DATE + " TEXT NOT NULL," +
+                    PriceEntry.COLUMN_PRICE_GENERAL + " DOUBLE NOT NULL," +
+                    PriceEntry.COLUMN_AVG_GENERAL + " DOUBLE NOT NULL," +
+                    PriceEntry.COLUMN_INCREASE_GENERAL + " DOUBLE NOT NULL," +
+                    PriceEntry.COLUMN_PRICE_NIGHT + " DOUBLE NOT NULL," +
+                    PriceEntry.COLUMN_AVG_NIGHT + " DOUBLE NOT NULL," +
+                    PriceEntry.COLUMN_INCREASE_NIGHT + " DOUBLE NOT NULL," +
+                    PriceEntry.COLUMN_PRICE_VEHICLE + " DOUBLE NOT NULL," +
+                    PriceEntry.COLUMN_AVG_VEHICLE + " DOUBLE NOT NULL," +
+                    PriceEntry.COLUMN_INCREASE_VEHICLE + " DOUBLE NOT NULL," +
+                    " UNIQUE (" + PriceEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+    // 2016-03-26, 2016-03-27 and 2016-10-30, of 24, 23 and 25 hours.
+    private static final long[] DAYS = {
+            DateCodec.daysFromCivil(2016, 3, 26),
+            DateCodec.daysFromCivil(2016, 3, 27),
+            DateCodec.daysFromCivil(2016, 10, 30)
+    };
+    private static final int[] HOURS = {24, 23, 25};
+
+    private Context mContext;
+    private List<Long> mDates;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+
+        mDates = new ArrayList<>();
+        for (long day : DAYS) {
+            long end = DateCodec.getSpainMidnight(day + 1);
+            for (long date = DateCodec.getSpainMidnight(day); date < end;
+                 date += DateCodec.MILLIS_PER_HOUR) {
+                mDates.add(date);
+            }
+        }
+        createVersion2();
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeFromVersion2_keepsPricesAndFillsDailyStats() {
+        LumiosDbHelper helper = new LumiosDbHelper(mContext, DATABASE_NAME);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            assertEquals(LumiosDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals(mDates.size(), DatabaseUtils.queryNumEntries(db, PriceEntry.TABLE_NAME));
+
+            Cursor cursor = db.query(PriceEntry.TABLE_NAME, new String[]{
+                    PriceEntry.COLUMN_DATE, PriceEntry.COLUMN_PRICE_GENERAL
+            }, null, null, null, null, PriceEntry.COLUMN_DATE + " ASC");
+            try {
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    assertEquals((long) mDates.get(i), cursor.getLong(0));
+                    assertEquals(getPrice(i), cursor.getDouble(1), 0);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            cursor = db.query(DailyStatsEntry.TABLE_NAME, new String[]{
+                    DailyStatsEntry.COLUMN_DAY,
+                    DailyStatsEntry.COLUMN_HOURS,
+                    DailyStatsEntry.COLUMN_HOUR_MASK
+            }, null, null, null, null, DailyStatsEntry.COLUMN_DAY + " ASC");
+            try {
+                assertEquals(DAYS.length, cursor.getCount());
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    assertEquals(DateCodec.getSpainMidnight(DAYS[i]), cursor.getLong(0));
+                    assertEquals(HOURS[i], cursor.getInt(1));
+                    assertEquals((1 << HOURS[i]) - 1, cursor.getInt(2));
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void upgradeWithMissingMigration_rollsBack() {
+        LumiosDbHelper helper = new LumiosDbHelper(mContext, DATABASE_NAME) {
+            @Override
+            Migration[] getMigrations() {
+                // Leave out version 5, so the chain stops at 4.
+                List<Migration> migrations = new ArrayList<>();
+                for (Migration migration : super.getMigrations()) {
+                    if (migration.getVersion() != 5) {
+                        migrations.add(migration);
+                    }
+                }
+                return migrations.toArray(new Migration[migrations.size()]);
+            }
+        };
+        try {
+            helper.getWritableDatabase();
+            fail("Upgrade without version 5 did not fail");
+        } catch (IllegalStateException e) {
+            // Expected.
+        } finally {
+            helper.close();
+        }
+
+        SQLiteDatabase db = mContext.openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE,
+                null);
+        try {
+            assertEquals(2, db.getVersion());
+            assertEquals(mDates.size(), DatabaseUtils.queryNumEntries(db, PriceEntry.TABLE_NAME));
+            assertEquals(0, DatabaseUtils.queryNumEntries(db, "sqlite_master",
+                    "name = ?", new String[]{DailyStatsEntry.TABLE_NAME}));
+
+            // Dates are still the ISO 8601 strings of version 2.
+            assertEquals(formatVersion2(mDates.get(0)), DatabaseUtils.stringForQuery(db,
+                    "SELECT MIN(" + PriceEntry.COLUMN_DATE + ") FROM " + PriceEntry.TABLE_NAME,
+                    null));
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Write the prices the way version 2 did, with made up averages and increases.
+     */
+    private void createVersion2() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE,
+                null);
+        try {
+            db.execSQL(SQL_CREATE_PRICE_TABLE_V2);
+            for (int i = 0; i < mDates.size(); i++) {
+                double price = getPrice(i);
+                ContentValues values = new ContentValues();
+                values.put(PriceEntry.COLUMN_DATE, formatVersion2(mDates.get(i)));
+                values.put(PriceEntry.COLUMN_PRICE_GENERAL, price);
+                values.put(PriceEntry.COLUMN_AVG_GENERAL, price);
+                values.put(PriceEntry.COLUMN_INCREASE_GENERAL, 100.0);
+                values.put(PriceEntry.COLUMN_PRICE_NIGHT, price / 2);
+                values.put(PriceEntry.COLUMN_AVG_NIGHT, price / 2);
+                values.put(PriceEntry.COLUMN_INCREASE_NIGHT, 100.0);
+                values.put(PriceEntry.COLUMN_PRICE_VEHICLE, price / 4);
+                values.put(PriceEntry.COLUMN_AVG_VEHICLE, price / 4);
+                values.put(PriceEntry.COLUMN_INCREASE_VEHICLE, 100.0);
+                db.insertOrThrow(PriceEntry.TABLE_NAME, null, values);
+            }
+            db.setVersion(2);
+        } finally {
+            db.close();
+        }
+    }
+
+    private static double getPrice(int i) {
+        return 0.1 + i / 1000.0;
+    }
+
+    private static String formatVersion2(long date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mmZ", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.ordunaleon.lumios.data.LumiosContract.PriceEntry;
+import io.ordunaleon.lumios.utils.DateCodec;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the two ways of writing prices: one {@link SQLiteDatabase#insert} per row, which
+ * builds its SQL and binds a {@link ContentValues} every time, against the single compiled INSERT
+ * OR REPLACE statement the provider uses. Both write inside one transaction, for a day, a month
+ * and a year of prices.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PriceInsertBenchmark {
+
+    private static final String DATABASE_NAME = "benchmark_insert.db";
+
+    // 2016-01-01
+    private static final long FIRST_DAY = DateCodec.daysFromCivil(2016, 1, 1);
+
+    private static final int[] DAYS = {1, 30, 365};
+
+    // Runs before the measured one, so the statement cache and the JIT are warm.
+    private static final int WARM_UP_RUNS = 2;
+
+    private static final String sInsertOrReplace = "INSERT OR REPLACE INTO "
+            + PriceEntry.TABLE_NAME + " (" + PriceEntry.COLUMN_DATE + ", "
+            + PriceEntry.COLUMN_PRICE_GENERAL + ", " + PriceEntry.COLUMN_PRICE_NIGHT + ", "
+            + PriceEntry.COLUMN_PRICE_VEHICLE + ") VALUES (?, ?, ?, ?)";
+
+    private Context mContext;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDb = Benchmarks.openScratchDatabase(mContext, DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        Benchmarks.deleteScratchDatabase(mContext, mDb, DATABASE_NAME);
+    }
+
+    @Test
+    public void insertPerRow() {
+        for (int days : DAYS) {
+            PriceBatch batch = Benchmarks.createPrices(FIRST_DAY, days);
+            for (int run = 0; run < WARM_UP_RUNS; run++) {
+                clear();
+                insertPerRow(batch);
+            }
+
+            clear();
+            long start = System.nanoTime();
+            insertPerRow(batch);
+            long nanos = System.nanoTime() - start;
+
+            assertEquals(batch.size(), countPrices());
+            Benchmarks.reportThroughput("insert per row, " + days + " days", batch.size(), nanos);
+        }
+    }
+
+    @Test
+    public void insertCompiled() {
+        for (int days : DAYS) {
+            PriceBatch batch = Benchmarks.createPrices(FIRST_DAY, days);
+            for (int run = 0; run < WARM_UP_RUNS; run++) {
+                clear();
+                insertCompiled(batch);
+            }
+
+            clear();
+            long start = System.nanoTime();
+            insertCompiled(batch);
+            long nanos = System.nanoTime() - start;
+
+            assertEquals(batch.size(), countPrices());
+            Benchmarks.reportThroughput("compiled insert, " + days + " days", batch.size(),
+                    nanos);
+        }
+    }
+
+    private void insertPerRow(PriceBatch batch) {
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                ContentValues values = new ContentValues();
+                values.put(PriceEntry.COLUMN_DATE, batch.getDate(i));
+                values.put(PriceEntry.COLUMN_PRICE_GENERAL, batch.getPriceGeneral(i));
+                values.put(PriceEntry.COLUMN_PRICE_NIGHT, batch.getPriceNight(i));
+                values.put(PriceEntry.COLUMN_PRICE_VEHICLE, batch.getPriceVehicle(i));
+                mDb.insertWithOnConflict(PriceEntry.TABLE_NAME, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    private void insertCompiled(PriceBatch batch) {
+        SQLiteStatement statement = mDb.compileStatement(sInsertOrReplace);
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                statement.bindLong(1, batch.getDate(i));
+                statement.bindDouble(2, batch.getPriceGeneral(i));
+                statement.bindDouble(3, batch.getPriceNight(i));
+                statement.bindDouble(4, batch.getPriceVehicle(i));
+                statement.executeInsert();
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            statement.close();
+        }
+    }
+
+    private void clear() {
+        mDb.delete(PriceEntry.TABLE_NAME, null, null);
+    }
+
+    private int countPrices() {
+        return (int) DatabaseUtils.queryNumEntries(mDb, PriceEntry.TABLE_NAME);
+    }
+}
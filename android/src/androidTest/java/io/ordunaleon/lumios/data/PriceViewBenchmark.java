@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+import io.ordunaleon.lumios.data.LumiosContract.PriceEntry;
+import io.ordunaleon.lumios.utils.DateCodec;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the price view, which computes averages and increases from the daily stats, with the
+ * layout it replaced, where every row stored them along with the prices, as of version 5 of the
+ * database. Both hold the same five years of prices; the size of each database is logged, and
+ * the latency of reading a day and a year of whole rows from each.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PriceViewBenchmark {
+
+    private static final String DATABASE_NAME = "benchmark_view.db";
+    private static final String STORED_DATABASE_NAME = "benchmark_stored.db";
+
+    // 2012-01-01 to 2016-12-31.
+    private static final long FIRST_DAY = DateCodec.daysFromCivil(2012, 1, 1);
+    private static final int DAYS = 5 * 365 + 2;
+
+    private static final int WARM_UP_RUNS = 5;
+    private static final int RUNS = 50;
+
+    private static final String[] VALUE_COLUMNS = {
+            PriceEntry.COLUMN_PRICE_GENERAL,
+            PriceEntry.COLUMN_AVG_GENERAL,
+            PriceEntry.COLUMN_INCREASE_GENERAL,
+            PriceEntry.COLUMN_PRICE_NIGHT,
+            PriceEntry.COLUMN_AVG_NIGHT,
+            PriceEntry.COLUMN_INCREASE_NIGHT,
+            PriceEntry.COLUMN_PRICE_VEHICLE,
+            PriceEntry.COLUMN_AVG_VEHICLE,
+            PriceEntry.COLUMN_INCREASE_VEHICLE
+    };
+
+    private static final String sColumns = PriceEntry.COLUMN_DATE + ", "
+            + join(VALUE_COLUMNS, ", ");
+
+    private static final String sRangeSelection = " WHERE " + PriceEntry.COLUMN_DATE
+            + " >= ? AND " + PriceEntry.COLUMN_DATE + " < ? ORDER BY " + PriceEntry.COLUMN_DATE;
+
+    private Context mContext;
+    private SQLiteDatabase mDb;
+    private SQLiteDatabase mStoredDb;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDb = Benchmarks.openScratchDatabase(mContext, DATABASE_NAME);
+        Benchmarks.insertPrices(mDb, Benchmarks.createPrices(FIRST_DAY, DAYS));
+
+        mContext.deleteDatabase(STORED_DATABASE_NAME);
+        mStoredDb = mContext.openOrCreateDatabase(STORED_DATABASE_NAME, Context.MODE_PRIVATE,
+                null);
+        createStored();
+    }
+
+    @After
+    public void tearDown() {
+        Benchmarks.deleteScratchDatabase(mContext, mStoredDb, STORED_DATABASE_NAME);
+        Benchmarks.deleteScratchDatabase(mContext, mDb, DATABASE_NAME);
+    }
+
+    @Test
+    public void size() {
+        long viewBytes = getSize(mDb);
+        long storedBytes = getSize(mStoredDb);
+        Log.i(Benchmarks.LOG_TAG, String.format(Locale.US, "five years, price view: %d KiB, "
+                        + "stored averages: %d KiB, %.0f%% smaller", viewBytes / 1024,
+                storedBytes / 1024, 100.0 - viewBytes * 100.0 / storedBytes));
+    }
+
+    @Test
+    public void readDay() {
+        long day = DateCodec.daysFromCivil(2016, 6, 15);
+        measure("one day", DateCodec.getSpainMidnight(day), DateCodec.getSpainMidnight(day + 1));
+    }
+
+    @Test
+    public void readYear() {
+        measure("one year", DateCodec.getSpainMidnight(DateCodec.daysFromCivil(2016, 1, 1)),
+                DateCodec.getSpainMidnight(DateCodec.daysFromCivil(2017, 1, 1)));
+    }
+
+    private void measure(String name, long start, long end) {
+        String[] selectionArgs = {String.valueOf(start), String.valueOf(end)};
+        int hours = (int) ((end - start) / DateCodec.MILLIS_PER_HOUR);
+
+        String viewSql = "SELECT " + sColumns + " FROM " + PriceEntry.VIEW_NAME
+                + sRangeSelection;
+        String storedSql = "SELECT " + sColumns + " FROM " + PriceEntry.TABLE_NAME
+                + sRangeSelection;
+
+        long[] viewNanos = new long[RUNS];
+        long[] storedNanos = new long[RUNS];
+        for (int run = -WARM_UP_RUNS; run < RUNS; run++) {
+            long viewStart = System.nanoTime();
+            assertEquals(hours, readAll(mDb, viewSql, selectionArgs));
+            long storedStart = System.nanoTime();
+            assertEquals(hours, readAll(mStoredDb, storedSql, selectionArgs));
+            long storedEnd = System.nanoTime();
+
+            if (run >= 0) {
+                viewNanos[run] = storedStart - viewStart;
+                storedNanos[run] = storedEnd - storedStart;
+            }
+        }
+        Benchmarks.reportLatency(name + ", price view", viewNanos);
+        Benchmarks.reportLatency(name + ", stored averages", storedNanos);
+    }
+
+    /**
+     * Create the table of version 5 and fill it from the price view, so both hold the same.
+     */
+    private void createStored() {
+        StringBuilder create = new StringBuilder("CREATE TABLE ").append(PriceEntry.TABLE_NAME)
+                .append(" (").append(PriceEntry.COLUMN_DATE)
+                .append(" INTEGER PRIMARY KEY ON CONFLICT REPLACE");
+        for (String column : VALUE_COLUMNS) {
+            create.append(", ").append(column).append(" DOUBLE NOT NULL");
+        }
+        mStoredDb.execSQL(create.append(")").toString());
+        for (int fare = 0; fare < 3; fare++) {
+            mStoredDb.execSQL("CREATE INDEX " + VALUE_COLUMNS[fare * 3] + "_index ON "
+                    + PriceEntry.TABLE_NAME + " (" + PriceEntry.COLUMN_DATE + ", "
+                    + join(VALUE_COLUMNS, fare * 3, fare * 3 + 3, ", ") + ")");
+        }
+
+        mDb.execSQL("ATTACH DATABASE ? AS stored", new Object[]{mStoredDb.getPath()});
+        try {
+            mDb.execSQL("INSERT INTO stored." + PriceEntry.TABLE_NAME + " SELECT " + sColumns
+                    + " FROM " + PriceEntry.VIEW_NAME);
+        } finally {
+            mDb.execSQL("DETACH DATABASE stored");
+        }
+        assertEquals(DatabaseUtils.queryNumEntries(mDb, PriceEntry.TABLE_NAME),
+                DatabaseUtils.queryNumEntries(mStoredDb, PriceEntry.TABLE_NAME));
+    }
+
+    /**
+     * @return Number of rows read, every value of them.
+     */
+    private static int readAll(SQLiteDatabase db, String sql, String[] selectionArgs) {
+        Cursor cursor = db.rawQuery(sql, selectionArgs);
+        try {
+            int columns = cursor.getColumnCount();
+            double sum = 0;
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < columns; i++) {
+                    sum += cursor.getDouble(i);
+                }
+            }
+            return sum > 0 ? cursor.getCount() : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long getSize(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null) * db.getPageSize();
+    }
+
+    private static String join(String[] values, String separator) {
+        return join(values, 0, values.length, separator);
+    }
+
+    private static String join(String[] values, int from, int to, String separator) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            builder.append(i > from ? separator : "").append(values[i]);
+        }
+        return builder.toString();
+    }
+}
@@ -18,74 +18,97 @@
 package io.ordunaleon.lumios.adapter;
 
 import android.content.Context;
-import android.database.Cursor;
-import android.support.v4.widget.CursorAdapter;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-import java.text.ParseException;
+import java.util.Collections;
+import java.util.List;
 
 import io.ordunaleon.lumios.R;
-import io.ordunaleon.lumios.ui.PriceListFragment;
-import io.ordunaleon.lumios.utils.DateUtils;
-import io.ordunaleon.lumios.utils.LogUtils;
 
-import static android.text.format.DateUtils.FORMAT_SHOW_TIME;
-import static io.ordunaleon.lumios.utils.LogUtils.LOGE;
+/**
+ * Adapter of the price list. Rows come already formatted from
+ * {@link io.ordunaleon.lumios.ui.PriceListLoader}, so binding a view only sets its texts, and
+ * each new snapshot comes with its {@link PriceListDiff}, so only the rows that changed are bound
+ * again.
+ */
+public class PriceListAdapter extends RecyclerView.Adapter<PriceListAdapter.ViewHolder> {
 
-public class PriceListAdapter extends CursorAdapter {
+    private final LayoutInflater mInflater;
 
-    private final String LOG_TAG = LogUtils.makeLogTag(this.getClass());
+    private List<PriceListItem> mItems = Collections.emptyList();
 
-    public PriceListAdapter(Context context, Cursor c, int flags) {
-        super(context, c, flags);
+    public PriceListAdapter(Context context) {
+        mInflater = LayoutInflater.from(context);
+        setHasStableIds(true);
     }
 
-    @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        View view = LayoutInflater.from(context).inflate(R.layout.item_price_list, parent, false);
+    /**
+     * Show the new snapshot of the given diff, notifying only the rows that changed. If the
+     * adapter does not show the old snapshot of the diff, every row is bound again.
+     *
+     * @param diff Changes to the new snapshot, or null to clear the adapter.
+     */
+    public void swapItems(PriceListDiff diff) {
+        if (diff == null) {
+            mItems = Collections.emptyList();
+            notifyDataSetChanged();
+            return;
+        }
+        if (diff.getNewItems() == mItems) {
+            // Same snapshot delivered again.
+            return;
+        }
 
-        ViewHolder viewHolder = new ViewHolder(view);
-        view.setTag(viewHolder);
+        boolean showsOldItems = diff.getOldItems() == mItems;
+        mItems = diff.getNewItems();
+        if (showsOldItems) {
+            diff.dispatchTo(this);
+        } else {
+            notifyDataSetChanged();
+        }
+    }
 
-        return view;
+    @Override
+    public int getItemCount() {
+        return mItems.size();
+    }
 
+    @Override
+    public long getItemId(int position) {
+        // The date is the key of a price.
+        return mItems.get(position).getDate();
     }
 
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-        ViewHolder viewHolder = (ViewHolder) view.getTag();
-
-        String dateStr = cursor.getString(PriceListFragment.COL_DATE);
-        String date = null;
-        try {
-            date = DateUtils.formatDateFromUtcIso(context, dateStr, FORMAT_SHOW_TIME);
-        } catch (ParseException e) {
-            LOGE(LOG_TAG, "error while getting field from ISO 8601 date in string format ", e);
-        }
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        return new ViewHolder(mInflater.inflate(R.layout.item_price_list, parent, false));
+    }
 
-        double price = cursor.getDouble(PriceListFragment.COL_PRICE);
-        double avg = cursor.getDouble(PriceListFragment.COL_AVG);
-        double increase = cursor.getDouble(PriceListFragment.COL_INCREASE);
+    @Override
+    public void onBindViewHolder(ViewHolder viewHolder, int position) {
+        PriceListItem item = mItems.get(position);
 
-        viewHolder.hourView.setText(date);
-        viewHolder.avgView.setText(context.getString(R.string.item_price_list_avg, avg));
-        viewHolder.priceView.setText(context.getString(R.string.item_price_list_price, price));
-        viewHolder.increaseView.setText(context.getString(R.string.item_price_list_increase, increase));
+        viewHolder.hourView.setText(item.getHour());
+        viewHolder.avgView.setText(item.getAvg());
+        viewHolder.priceView.setText(item.getPrice());
+        viewHolder.increaseView.setText(item.getIncrease());
     }
 
     /**
      * Cache of the children views for a price list item.
      */
-    public static class ViewHolder {
+    public static class ViewHolder extends RecyclerView.ViewHolder {
         public final TextView hourView;
         public final TextView avgView;
         public final TextView priceView;
         public final TextView increaseView;
 
         public ViewHolder(View view) {
+            super(view);
             hourView = (TextView) view.findViewById(R.id.item_price_list_hour);
             avgView = (TextView) view.findViewById(R.id.item_price_list_avg);
             priceView = (TextView) view.findViewById(R.id.item_price_list_price);
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.adapter;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Changes between two snapshots of the price list, as the ranges of rows removed, inserted and
+ * changed. Both snapshots are sorted by date and dates are unique, so a single merge pass over
+ * them finds the minimal set of changes, with no moves involved.
+ * <p/>
+ * Every range is relative to the list as left by the previous ones, so dispatching them in order
+ * takes a RecyclerView from the old snapshot to the new one.
+ */
+public class PriceListDiff {
+
+    private static final int OP_REMOVE = 0;
+    private static final int OP_INSERT = 1;
+    private static final int OP_CHANGE = 2;
+
+    private final List<PriceListItem> mOldItems;
+    private final List<PriceListItem> mNewItems;
+
+    // Operations packed three ints at a time: type, position and count.
+    private int[] mOps = new int[3 * 4];
+    private int mOpsSize;
+
+    private PriceListDiff(List<PriceListItem> oldItems, List<PriceListItem> newItems) {
+        mOldItems = oldItems;
+        mNewItems = newItems;
+    }
+
+    /**
+     * Compute the changes from one snapshot to another. It walks both of them once, so it can
+     * run on the thread that loaded the new snapshot.
+     *
+     * @param oldItems Snapshot currently shown, or null if there is none.
+     * @param newItems New snapshot.
+     * @return The changes.
+     */
+    public static PriceListDiff calculate(List<PriceListItem> oldItems,
+                                          List<PriceListItem> newItems) {
+        PriceListDiff diff = new PriceListDiff(oldItems, newItems);
+        if (oldItems == null) {
+            return diff;
+        }
+
+        int oldSize = oldItems.size();
+        int newSize = newItems.size();
+        int i = 0;
+        int j = 0;
+        int position = 0;
+        while (i < oldSize && j < newSize) {
+            PriceListItem oldItem = oldItems.get(i);
+            PriceListItem newItem = newItems.get(j);
+            if (oldItem.getDate() < newItem.getDate()) {
+                diff.add(OP_REMOVE, position);
+                i++;
+            } else if (oldItem.getDate() > newItem.getDate()) {
+                diff.add(OP_INSERT, position);
+                position++;
+                j++;
+            } else {
+                if (!oldItem.hasSameContent(newItem)) {
+                    diff.add(OP_CHANGE, position);
+                }
+                position++;
+                i++;
+                j++;
+            }
+        }
+        for (; i < oldSize; i++) {
+            diff.add(OP_REMOVE, position);
+        }
+        for (; j < newSize; j++) {
+            diff.add(OP_INSERT, position);
+            position++;
+        }
+
+        return diff;
+    }
+
+    public List<PriceListItem> getOldItems() {
+        return mOldItems;
+    }
+
+    public List<PriceListItem> getNewItems() {
+        return mNewItems;
+    }
+
+    /**
+     * @return True if the new snapshot shows exactly the same rows as the old one.
+     */
+    public boolean isEmpty() {
+        return mOldItems != null && mOpsSize == 0;
+    }
+
+    /**
+     * Notify the given adapter of the changes. The adapter must already hold the new snapshot.
+     * Without an old snapshot to compare to, the whole data set is reported as changed.
+     *
+     * @param adapter Adapter to notify.
+     */
+    public void dispatchTo(RecyclerView.Adapter adapter) {
+        if (mOldItems == null) {
+            adapter.notifyDataSetChanged();
+            return;
+        }
+
+        for (int k = 0; k < mOpsSize; k += 3) {
+            int position = mOps[k + 1];
+            int count = mOps[k + 2];
+            switch (mOps[k]) {
+                case OP_REMOVE:
+                    adapter.notifyItemRangeRemoved(position, count);
+                    break;
+                case OP_INSERT:
+                    adapter.notifyItemRangeInserted(position, count);
+                    break;
+                case OP_CHANGE:
+                    adapter.notifyItemRangeChanged(position, count);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Add a change of a single row, merging it into the last range when it continues it.
+     */
+    private void add(int type, int position) {
+        if (mOpsSize > 0 && mOps[mOpsSize - 3] == type) {
+            int lastPosition = mOps[mOpsSize - 2];
+            int lastCount = mOps[mOpsSize - 1];
+            // Removed rows leave the next one at the same position, the others move forward.
+            int next = type == OP_REMOVE ? lastPosition : lastPosition + lastCount;
+            if (position == next) {
+                mOps[mOpsSize - 1]++;
+                return;
+            }
+        }
+
+        if (mOpsSize == mOps.length) {
+            mOps = Arrays.copyOf(mOps, mOps.length * 2);
+        }
+        mOps[mOpsSize++] = type;
+        mOps[mOpsSize++] = position;
+        mOps[mOpsSize++] = 1;
+    }
+}
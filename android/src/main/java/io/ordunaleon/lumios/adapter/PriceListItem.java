@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.adapter;
+
+/**
+ * Row of the price list with every label already formatted, so binding it to a view only sets
+ * texts.
+ */
+public class PriceListItem {
+
+    private final long mDate;
+    private final String mHour;
+    private final String mPrice;
+    private final String mAvg;
+    private final String mIncrease;
+
+    /**
+     * Creates a PriceListItem.
+     *
+     * @param date     Start of the hour, in milliseconds since epoch.
+     * @param hour     Formatted hour.
+     * @param price    Formatted price.
+     * @param avg      Formatted average price.
+     * @param increase Formatted percentage of the price over the average.
+     */
+    public PriceListItem(long date, String hour, String price, String avg, String increase) {
+        mDate = date;
+        mHour = hour;
+        mPrice = price;
+        mAvg = avg;
+        mIncrease = increase;
+    }
+
+    public long getDate() {
+        return mDate;
+    }
+
+    public String getHour() {
+        return mHour;
+    }
+
+    public String getPrice() {
+        return mPrice;
+    }
+
+    public String getAvg() {
+        return mAvg;
+    }
+
+    public String getIncrease() {
+        return mIncrease;
+    }
+
+    /**
+     * @return True if both rows show the same labels, so a view bound to one of them does not
+     * need to be bound again to the other.
+     */
+    public boolean hasSameContent(PriceListItem other) {
+        return mHour.equals(other.mHour) && mPrice.equals(other.mPrice)
+                && mAvg.equals(other.mAvg) && mIncrease.equals(other.mIncrease);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.data;
+
+import java.util.Arrays;
+
+import io.ordunaleon.lumios.utils.DateCodec;
+
+/**
+ * Finds the cheapest hours of a series of hourly prices, to tell when to run a load: either a
+ * run of consecutive hours, for loads that cannot be paused, or any hours at all, for those that
+ * can. Both take linear time in the length of the series.
+ * <p/>
+ * Among hours of the same price the earliest ones are picked, so the answer does not depend on
+ * anything but the prices.
+ */
+final class CheapestFinder {
+
+    private CheapestFinder() {
+    }
+
+    /**
+     * Find the run of the given number of consecutive hours with the lowest total price. Hours
+     * are consecutive when they are one hour apart, so a run never spans an hour without price.
+     * The total of each run is kept as the sum of the previous one, plus the hour which enters
+     * it and minus the one which leaves it. Once every run length it is summed again from scratch,
+     * so the rounding errors of years of hours do not pile up, which keeps the time linear.
+     *
+     * @param dates  Hours of the series, in milliseconds since epoch and ascending order.
+     * @param prices Price of each hour.
+     * @param size   Number of hours of the series.
+     * @param hours  Length of the run.
+     * @return Position of the first hour of the cheapest run, or -1 if there is no such run.
+     */
+    static int findCheapestWindow(long[] dates, double[] prices, int size, int hours) {
+        if (hours <= 0) {
+            return -1;
+        }
+
+        int bestStart = -1;
+        double bestTotal = Double.POSITIVE_INFINITY;
+
+        // Start and total of the hours of the current run, up to the given length, and the
+        // hours taken out of the total since it was last summed from scratch.
+        int start = 0;
+        double total = 0;
+        int removed = 0;
+        for (int i = 0; i < size; i++) {
+            if (i > 0 && dates[i] - dates[i - 1] != DateCodec.MILLIS_PER_HOUR) {
+                // Gap in the series, start over after it.
+                start = i;
+                total = 0;
+                removed = 0;
+            }
+
+            total += prices[i];
+            if (i - start + 1 > hours) {
+                total -= prices[start];
+                start++;
+
+                if (++removed == hours) {
+                    total = sum(prices, start, i);
+                    removed = 0;
+                }
+            }
+
+            if (i - start + 1 == hours && total < bestTotal) {
+                bestTotal = total;
+                bestStart = start;
+            }
+        }
+        return bestStart;
+    }
+
+    /**
+     * @return Sum of the prices from first to last, both included.
+     */
+    private static double sum(double[] prices, int first, int last) {
+        double total = 0;
+        for (int i = first; i <= last; i++) {
+            total += prices[i];
+        }
+        return total;
+    }
+
+    /**
+     * Find the given number of hours with the lowest prices, consecutive or not. They are
+     * selected in place with quickselect, which takes linear time on average; only the selected
+     * hours are sorted afterwards.
+     *
+     * @param prices Price of each hour.
+     * @param size   Number of hours of the series.
+     * @param hours  Number of hours to find. Every hour is returned if there are not as many.
+     * @return Positions of the cheapest hours, in ascending order.
+     */
+    static int[] findCheapestHours(double[] prices, int size, int hours) {
+        int count = Math.max(Math.min(hours, size), 0);
+
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = i;
+        }
+
+        // Partition until the first count positions are the cheapest ones.
+        int left = 0;
+        int right = size - 1;
+        while (count > 0 && count < size && left < right) {
+            int pivot = partition(prices, positions, left, right, left + (right - left) / 2);
+            if (pivot == count - 1) {
+                break;
+            } else if (pivot < count - 1) {
+                left = pivot + 1;
+            } else {
+                right = pivot - 1;
+            }
+        }
+
+        int[] cheapest = Arrays.copyOf(positions, count);
+        Arrays.sort(cheapest);
+        return cheapest;
+    }
+
+    /**
+     * Partition the positions from left to right, both included, around the given pivot, so the
+     * cheaper ones go before it and the dearer ones after.
+     *
+     * @return New position of the pivot.
+     */
+    private static int partition(double[] prices, int[] positions, int left, int right,
+                                 int pivot) {
+        int pivotPosition = positions[pivot];
+        swap(positions, pivot, right);
+
+        int store = left;
+        for (int i = left; i < right; i++) {
+            if (isCheaper(prices, positions[i], pivotPosition)) {
+                swap(positions, i, store);
+                store++;
+            }
+        }
+        swap(positions, store, right);
+        return store;
+    }
+
+    /**
+     * Order of the hours: by price, and the earliest first among the same price.
+     */
+    private static boolean isCheaper(double[] prices, int a, int b) {
+        int compare = Double.compare(prices[a], prices[b]);
+        return compare < 0 || (compare == 0 && a < b);
+    }
+
+    private static void swap(int[] positions, int i, int j) {
+        int position = positions[i];
+        positions[i] = positions[j];
+        positions[j] = position;
+    }
+}
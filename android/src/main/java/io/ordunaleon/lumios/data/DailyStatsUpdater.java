@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import io.ordunaleon.lumios.data.LumiosContract.DailyStatsEntry;
+import io.ordunaleon.lumios.data.LumiosContract.PriceEntry;
+import io.ordunaleon.lumios.utils.DateCodec;
+import io.ordunaleon.lumios.utils.DateUtils;
+
+/**
+ * Keeps the daily stats table in sync with the price table. Writes to the price table report the
+ * dates they touch, and only the days containing those dates are computed again, reading the 23,
+ * 24 or 25 hourly rows of each one.
+ */
+final class DailyStatsUpdater {
+
+    private static final String[] PRICE_PROJECTION = {
+            PriceEntry.COLUMN_DATE,
+            PriceEntry.COLUMN_PRICE_GENERAL,
+            PriceEntry.COLUMN_PRICE_NIGHT,
+            PriceEntry.COLUMN_PRICE_VEHICLE
+    };
+
+    private static final int COL_DATE = 0;
+    private static final int COL_PRICE_GENERAL = 1;
+    private static final int COL_PRICE_NIGHT = 2;
+    private static final int COL_PRICE_VEHICLE = 3;
+
+    // date >= ? AND date < ?
+    private static final String sDaySelection =
+            PriceEntry.COLUMN_DATE + " >= ? AND " + PriceEntry.COLUMN_DATE + " < ? ";
+
+    private final SortedSet<Long> mDays = new TreeSet<>();
+
+    /**
+     * Mark the day containing the given date as changed.
+     *
+     * @param date Date of a written price, in milliseconds since epoch.
+     */
+    void addDate(long date) {
+        mDays.add(DateUtils.getDayStart(date));
+    }
+
+    /**
+     * Mark as changed the days of every price matching the given selection. Must be called
+     * before the rows are written, so deleted rows are taken into account too.
+     *
+     * @param db            The database.
+     * @param selection     Selection of the write.
+     * @param selectionArgs Arguments of the selection.
+     */
+    void addDates(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(PriceEntry.TABLE_NAME, new String[]{PriceEntry.COLUMN_DATE},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                addDate(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Compute again the stats of every changed day. Must be called inside the transaction that
+     * wrote the prices. The changed days are kept, so observers can be told about them once the
+     * transaction is committed.
+     *
+     * @param db The database.
+     */
+    void apply(SQLiteDatabase db) {
+        for (long day : mDays) {
+            update(db, day);
+        }
+    }
+
+    /**
+     * @return True if no day has changed.
+     */
+    boolean isEmpty() {
+        return mDays.isEmpty();
+    }
+
+    /**
+     * @return Start of the first changed day, in milliseconds since epoch.
+     */
+    long getFirstDay() {
+        return mDays.first();
+    }
+
+    /**
+     * @return Start of the last changed day, in milliseconds since epoch.
+     */
+    long getLastDay() {
+        return mDays.last();
+    }
+
+    /**
+     * Compute again the stats of every day in the price table.
+     *
+     * @param db The database.
+     */
+    static void rebuild(SQLiteDatabase db) {
+        db.delete(DailyStatsEntry.TABLE_NAME, null, null);
+
+        DailyStatsUpdater updater = new DailyStatsUpdater();
+        updater.addDates(db, null, null);
+        updater.apply(db);
+    }
+
+    private static void update(SQLiteDatabase db, long day) {
+        String[] selectionArgs = {
+                String.valueOf(day), String.valueOf(DateUtils.getNextDayStart(day))
+        };
+
+        Cursor cursor = db.query(PriceEntry.TABLE_NAME, PRICE_PROJECTION, sDaySelection,
+                selectionArgs, null, null, PriceEntry.COLUMN_DATE + " ASC");
+        try {
+            if (cursor.getCount() == 0) {
+                db.delete(DailyStatsEntry.TABLE_NAME, DailyStatsEntry.COLUMN_DAY + " = ?",
+                        new String[]{String.valueOf(day)});
+                return;
+            }
+
+            FareStats general = new FareStats();
+            FareStats night = new FareStats();
+            FareStats vehicle = new FareStats();
+            int hourMask = 0;
+            while (cursor.moveToNext()) {
+                long date = cursor.getLong(COL_DATE);
+                hourMask |= 1 << (int) ((date - day) / DateCodec.MILLIS_PER_HOUR);
+                general.add(date, cursor.getDouble(COL_PRICE_GENERAL));
+                night.add(date, cursor.getDouble(COL_PRICE_NIGHT));
+                vehicle.add(date, cursor.getDouble(COL_PRICE_VEHICLE));
+            }
+
+            ContentValues values = new ContentValues();
+            values.put(DailyStatsEntry.COLUMN_DAY, day);
+            values.put(DailyStatsEntry.COLUMN_HOURS, cursor.getCount());
+            values.put(DailyStatsEntry.COLUMN_HOUR_MASK, hourMask);
+            values.put(DailyStatsEntry.COLUMN_MIN_GENERAL, general.min);
+            values.put(DailyStatsEntry.COLUMN_MAX_GENERAL, general.max);
+            values.put(DailyStatsEntry.COLUMN_MEAN_GENERAL, general.getMean());
+            values.put(DailyStatsEntry.COLUMN_CHEAPEST_HOUR_GENERAL, general.cheapestHour);
+            values.put(DailyStatsEntry.COLUMN_PRICIEST_HOUR_GENERAL, general.priciestHour);
+            values.put(DailyStatsEntry.COLUMN_MIN_NIGHT, night.min);
+            values.put(DailyStatsEntry.COLUMN_MAX_NIGHT, night.max);
+            values.put(DailyStatsEntry.COLUMN_MEAN_NIGHT, night.getMean());
+            values.put(DailyStatsEntry.COLUMN_CHEAPEST_HOUR_NIGHT, night.cheapestHour);
+            values.put(DailyStatsEntry.COLUMN_PRICIEST_HOUR_NIGHT, night.priciestHour);
+            values.put(DailyStatsEntry.COLUMN_MIN_VEHICLE, vehicle.min);
+            values.put(DailyStatsEntry.COLUMN_MAX_VEHICLE, vehicle.max);
+            values.put(DailyStatsEntry.COLUMN_MEAN_VEHICLE, vehicle.getMean());
+            values.put(DailyStatsEntry.COLUMN_CHEAPEST_HOUR_VEHICLE, vehicle.cheapestHour);
+            values.put(DailyStatsEntry.COLUMN_PRICIEST_HOUR_VEHICLE, vehicle.priciestHour);
+
+            db.replace(DailyStatsEntry.TABLE_NAME, null, values);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Running stats of one fare over the hours of a day. On ties, the earliest hour wins.
+     */
+    private static class FareStats {
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        double sum;
+        int count;
+        long cheapestHour;
+        long priciestHour;
+
+        void add(long date, double price) {
+            if (price < min) {
+                min = price;
+                cheapestHour = date;
+            }
+            if (price > max) {
+                max = price;
+                priciestHour = date;
+            }
+            sum += price;
+            count++;
+        }
+
+        double getMean() {
+            return sum / count;
+        }
+    }
+}
@@ -23,19 +23,28 @@ import android.content.Context;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import io.ordunaleon.lumios.R;
+import io.ordunaleon.lumios.utils.DateCodec;
 
 public class LumiosContract {
 
     private static final String URI_QUERY_PARAM_DATE = "date";
     private static final String URI_QUERY_PARAM_START_DATE = "start_date";
     private static final String URI_QUERY_PARAM_END_DATE = "end_date";
+    private static final String URI_QUERY_PARAM_BUCKET = "bucket";
+    private static final String URI_QUERY_PARAM_AGGREGATE = "aggregate";
+    private static final String URI_QUERY_PARAM_HOURS = "hours";
 
     interface PriceColumns {
+        /**
+         * Start of the hour, in milliseconds since epoch.
+         */
         String COLUMN_DATE = "date";
+        /*
+         * Only the prices are stored. The average of each fare is the mean of its day in the
+         * daily stats table, and the increase is the percentage the price represents over that
+         * average; both are computed when read.
+         */
         String COLUMN_PRICE_GENERAL = "price_general";
         String COLUMN_AVG_GENERAL = "avg_general";
         String COLUMN_INCREASE_GENERAL = "increase_general";
@@ -47,10 +56,152 @@ public class LumiosContract {
         String COLUMN_INCREASE_VEHICLE = "increase_vehicle";
     }
 
+    interface DailyStatsColumns {
+        /**
+         * Start of the day in Spain, in milliseconds since epoch.
+         */
+        String COLUMN_DAY = "day";
+        /**
+         * Number of hours of the day with a price.
+         */
+        String COLUMN_HOURS = "hours";
+        /**
+         * Bitmap of the hours of the day with a price, the lowest bit being the first hour. A
+         * day in Spain has 23, 24 or 25 hours, depending on daylight saving time.
+         */
+        String COLUMN_HOUR_MASK = "hour_mask";
+        String COLUMN_MIN_GENERAL = "min_general";
+        String COLUMN_MAX_GENERAL = "max_general";
+        String COLUMN_MEAN_GENERAL = "mean_general";
+        String COLUMN_CHEAPEST_HOUR_GENERAL = "cheapest_hour_general";
+        String COLUMN_PRICIEST_HOUR_GENERAL = "priciest_hour_general";
+        String COLUMN_MIN_NIGHT = "min_night";
+        String COLUMN_MAX_NIGHT = "max_night";
+        String COLUMN_MEAN_NIGHT = "mean_night";
+        String COLUMN_CHEAPEST_HOUR_NIGHT = "cheapest_hour_night";
+        String COLUMN_PRICIEST_HOUR_NIGHT = "priciest_hour_night";
+        String COLUMN_MIN_VEHICLE = "min_vehicle";
+        String COLUMN_MAX_VEHICLE = "max_vehicle";
+        String COLUMN_MEAN_VEHICLE = "mean_vehicle";
+        String COLUMN_CHEAPEST_HOUR_VEHICLE = "cheapest_hour_vehicle";
+        String COLUMN_PRICIEST_HOUR_VEHICLE = "priciest_hour_vehicle";
+    }
+
     public static final String CONTENT_AUTHORITY = "io.ordunaleon.lumios";
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
 
     public static final String PATH_PRICE = "price";
+    public static final String PATH_FARE = "fare";
+    public static final String PATH_DATE = "date";
+    public static final String PATH_DAILY_STATS = "daily_stats";
+    public static final String PATH_COVERAGE = "coverage";
+    public static final String PATH_SYNC_METRICS = "sync_metrics";
+    public static final String PATH_CHEAPEST = "cheapest";
+    public static final String PATH_WINDOW = "window";
+    public static final String PATH_HOURS = "hours";
+
+    public static final String FARE_GENERAL = "general";
+    public static final String FARE_NIGHT = "night";
+    public static final String FARE_VEHICLE = "vehicle";
+
+    /**
+     * Build the uri to observe changes of the dates from startDate to endDate, both included.
+     * Changes are notified on a tree of uris by day in Spain, base/date/yyyy/MM/dd, so the
+     * returned uri is the narrowest node of the tree holding the whole range: a single day, a
+     * month, a year or every date.
+     */
+    private static Uri buildDateTreeUri(Uri baseUri, long startDate, long endDate) {
+        // Dates packed as yyyyMMdd.
+        int start = DateCodec.civilFromDays(DateCodec.getSpainDays(startDate));
+        int end = DateCodec.civilFromDays(DateCodec.getSpainDays(endDate));
+
+        Uri.Builder builder = baseUri.buildUpon().appendPath(PATH_DATE);
+        if (start / 10000 == end / 10000) {
+            builder.appendPath(String.valueOf(start / 10000));
+            if (start / 100 == end / 100) {
+                builder.appendPath(formatTwoDigits(start / 100 % 100));
+                if (start == end) {
+                    builder.appendPath(formatTwoDigits(start % 100));
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Return the uri to observe changes of the rows matched by the date parameters of the given
+     * uri. Without a closed range of dates, it is the base uri itself.
+     */
+    private static Uri getDateTreeUri(Uri baseUri, Uri uri) {
+        try {
+            String date = uri.getQueryParameter(URI_QUERY_PARAM_DATE);
+            String startDate = uri.getQueryParameter(URI_QUERY_PARAM_START_DATE);
+            String endDate = uri.getQueryParameter(URI_QUERY_PARAM_END_DATE);
+            if (date != null) {
+                long millis = Long.parseLong(date);
+                return buildDateTreeUri(baseUri, millis, millis);
+            } else if (startDate != null && endDate != null) {
+                return buildDateTreeUri(baseUri, Long.parseLong(startDate),
+                        Long.parseLong(endDate));
+            }
+        } catch (NumberFormatException e) {
+            // Fall back to observing every date.
+        }
+        return baseUri;
+    }
+
+    private static String formatTwoDigits(int value) {
+        return value < 10 ? "0" + value : String.valueOf(value);
+    }
+
+    interface SyncMetricsColumns {
+        /**
+         * End of the cycle, in milliseconds since epoch.
+         */
+        String COLUMN_TIME = "time";
+        /**
+         * Kind of cycle: {@link SyncMetricsEntry#KIND_SYNC} or
+         * {@link SyncMetricsEntry#KIND_BACKFILL}.
+         */
+        String COLUMN_KIND = "kind";
+        /**
+         * Number of URLs downloaded, and how many of them failed.
+         */
+        String COLUMN_URLS = "urls";
+        String COLUMN_FAILURES = "failures";
+        /**
+         * Bytes received from the network, and the same bytes once decompressed.
+         */
+        String COLUMN_WIRE_BYTES = "wire_bytes";
+        String COLUMN_DECODED_BYTES = "decoded_bytes";
+        /**
+         * Conditional downloads answered with 304 Not Modified by the server (hits), and
+         * downloads of the response cache which had to be made in full (misses).
+         */
+        String COLUMN_CACHE_HITS = "cache_hits";
+        String COLUMN_CACHE_MISSES = "cache_misses";
+        /*
+         * Time of each stage, in nanoseconds. URLs are downloaded in parallel, so connect, read,
+         * parse and normalize are summed over every URL and may add up to more than the total.
+         */
+        String COLUMN_CONNECT_NANOS = "connect_nanos";
+        String COLUMN_READ_NANOS = "read_nanos";
+        String COLUMN_PARSE_NANOS = "parse_nanos";
+        String COLUMN_NORMALIZE_NANOS = "normalize_nanos";
+        String COLUMN_STORE_NANOS = "store_nanos";
+        String COLUMN_TOTAL_NANOS = "total_nanos";
+        /**
+         * Rows of the price table written for the first time, rows written again because their
+         * prices changed, and rows downloaded again but left as they were.
+         */
+        String COLUMN_ROWS_INSERTED = "rows_inserted";
+        String COLUMN_ROWS_UPDATED = "rows_updated";
+        String COLUMN_ROWS_UNCHANGED = "rows_unchanged";
+        /**
+         * Last error of the cycle, or null if every URL succeeded.
+         */
+        String COLUMN_LAST_ERROR = "last_error";
+    }
 
     /* Inner class that defines the table contents of the price table */
     public static final class PriceEntry implements PriceColumns, BaseColumns {
@@ -65,35 +216,183 @@ public class LumiosContract {
 
         public static final String TABLE_NAME = "price";
 
+        /**
+         * View of the price table with the averages and increases computed.
+         */
+        public static final String VIEW_NAME = "price_view";
+
+        /**
+         * Method of {@link android.content.ContentResolver#call} to merge a {@link PriceBatch}
+         * packed with {@link PriceBatch#toBundle()} into the stored prices. The stored prices are
+         * compared with the batch first: hours not stored yet are inserted, hours whose prices
+         * differ are updated in place and identical hours are not written at all. No change is
+         * notified if nothing is written. The returned Bundle holds the count of each kind of row
+         * in {@link #EXTRA_INSERTED_COUNT}, {@link #EXTRA_UPDATED_COUNT} and
+         * {@link #EXTRA_UNCHANGED_COUNT}.
+         */
+        public static final String METHOD_MERGE_BATCH = "merge_batch";
+        public static final String EXTRA_INSERTED_COUNT = "inserted_count";
+        public static final String EXTRA_UPDATED_COUNT = "updated_count";
+        public static final String EXTRA_UNCHANGED_COUNT = "unchanged_count";
+
+        /**
+         * Method of {@link android.content.ContentResolver#call} to get the counters of the
+         * in-memory cache of today and tomorrow prices: queries answered from the cache
+         * (hits), answered from the cache after loading it (misses) and answered by the database
+         * (bypasses), and the total time spent on each kind, in nanoseconds.
+         */
+        public static final String METHOD_GET_CACHE_STATS = "get_cache_stats";
+        public static final String EXTRA_CACHE_HIT_COUNT = "cache_hit_count";
+        public static final String EXTRA_CACHE_MISS_COUNT = "cache_miss_count";
+        public static final String EXTRA_CACHE_BYPASS_COUNT = "cache_bypass_count";
+        public static final String EXTRA_CACHE_HIT_NANOS = "cache_hit_nanos";
+        public static final String EXTRA_CACHE_MISS_NANOS = "cache_miss_nanos";
+        public static final String EXTRA_CACHE_BYPASS_NANOS = "cache_bypass_nanos";
+
+        /**
+         * Columns of the uris built with {@link #buildUriWithFare}, which hold the prices of a
+         * single fare under the same names whatever the fare is.
+         */
+        public static final String COLUMN_FARE_PRICE = "price";
+        public static final String COLUMN_FARE_AVG = "avg";
+        public static final String COLUMN_FARE_INCREASE = "increase";
+
+        /**
+         * Buckets the prices of a query can be grouped into, see {@link #buildUriWithBucket}.
+         * Days, weeks (starting on Monday) and months are those of Spain.
+         */
+        public static final String BUCKET_HOUR = "hour";
+        public static final String BUCKET_DAY = "day";
+        public static final String BUCKET_WEEK = "week";
+        public static final String BUCKET_MONTH = "month";
+
+        /**
+         * Aggregations of the prices of a bucket: their mean, their minimum, their maximum, or
+         * the price of the first or the last hour of the bucket.
+         */
+        public static final String AGGREGATE_AVG = "avg";
+        public static final String AGGREGATE_MIN = "min";
+        public static final String AGGREGATE_MAX = "max";
+        public static final String AGGREGATE_FIRST = "first";
+        public static final String AGGREGATE_LAST = "last";
+
         public static Uri buildUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
-        public static Uri buildUriWithDate(String date) {
+        public static Uri buildUriWithDate(long date) {
             return CONTENT_URI.buildUpon()
-                    .appendQueryParameter(URI_QUERY_PARAM_DATE, date)
+                    .appendQueryParameter(URI_QUERY_PARAM_DATE, String.valueOf(date))
                     .build();
         }
 
-        public static Uri buildUriWithStartDate(String startDate) {
+        public static Uri buildUriWithStartDate(long startDate) {
             return CONTENT_URI.buildUpon()
-                    .appendQueryParameter(URI_QUERY_PARAM_START_DATE, startDate)
+                    .appendQueryParameter(URI_QUERY_PARAM_START_DATE, String.valueOf(startDate))
                     .build();
         }
 
-        public static Uri buildUriWithEndDate(String endDate) {
+        public static Uri buildUriWithEndDate(long endDate) {
             return CONTENT_URI.buildUpon()
-                    .appendQueryParameter(URI_QUERY_PARAM_END_DATE, endDate)
+                    .appendQueryParameter(URI_QUERY_PARAM_END_DATE, String.valueOf(endDate))
                     .build();
         }
 
-        public static Uri buildUriWithStartDateAndEndDate(String startDate, String endDate) {
+        public static Uri buildUriWithStartDateAndEndDate(long startDate, long endDate) {
             return CONTENT_URI.buildUpon()
-                    .appendQueryParameter(URI_QUERY_PARAM_START_DATE, startDate)
-                    .appendQueryParameter(URI_QUERY_PARAM_END_DATE, endDate)
+                    .appendQueryParameter(URI_QUERY_PARAM_START_DATE, String.valueOf(startDate))
+                    .appendQueryParameter(URI_QUERY_PARAM_END_DATE, String.valueOf(endDate))
+                    .build();
+        }
+
+        /**
+         * Build the uri of the prices of a single fare. Queries on it only read the storage of
+         * that fare instead of the whole rows of the price table.
+         *
+         * @param fare One of {@link #FARE_GENERAL}, {@link #FARE_NIGHT} or {@link #FARE_VEHICLE}.
+         */
+        public static Uri buildUriWithFare(String fare) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_FARE).appendPath(fare).build();
+        }
+
+        public static Uri buildUriWithFareAndStartDate(String fare, long startDate) {
+            return buildUriWithFare(fare).buildUpon()
+                    .appendQueryParameter(URI_QUERY_PARAM_START_DATE, String.valueOf(startDate))
                     .build();
         }
 
+        public static Uri buildUriWithFareAndStartDateAndEndDate(String fare, long startDate,
+                                                                 long endDate) {
+            return buildUriWithFare(fare).buildUpon()
+                    .appendQueryParameter(URI_QUERY_PARAM_START_DATE, String.valueOf(startDate))
+                    .appendQueryParameter(URI_QUERY_PARAM_END_DATE, String.valueOf(endDate))
+                    .build();
+        }
+
+        /**
+         * Add a bucket to the given price uri, so its query returns a row per bucket instead of
+         * a row per hour. The date of a row is the first hour of its bucket with a price, and
+         * its prices the aggregation of the prices of the bucket. The averages and increases are
+         * not available. Hourly buckets are the same as no bucket at all.
+         *
+         * @param uri       Uri of {@link #CONTENT_URI} or {@link #buildUriWithFare}, along with
+         *                  its dates.
+         * @param bucket    One of {@link #BUCKET_HOUR}, {@link #BUCKET_DAY}, {@link #BUCKET_WEEK}
+         *                  or {@link #BUCKET_MONTH}.
+         * @param aggregate One of {@link #AGGREGATE_AVG}, {@link #AGGREGATE_MIN},
+         *                  {@link #AGGREGATE_MAX}, {@link #AGGREGATE_FIRST} or
+         *                  {@link #AGGREGATE_LAST}.
+         */
+        public static Uri buildUriWithBucket(Uri uri, String bucket, String aggregate) {
+            return uri.buildUpon()
+                    .appendQueryParameter(URI_QUERY_PARAM_BUCKET, bucket)
+                    .appendQueryParameter(URI_QUERY_PARAM_AGGREGATE, aggregate)
+                    .build();
+        }
+
+        /**
+         * Return the smallest bucket which splits the given range of dates in no more than
+         * maxRows rows, or {@link #BUCKET_MONTH} if none does.
+         *
+         * @param startDate First date, in milliseconds since epoch.
+         * @param endDate   Last date, in milliseconds since epoch.
+         * @param maxRows   Maximum number of rows wanted.
+         */
+        public static String getBucketForRange(long startDate, long endDate, int maxRows) {
+            long span = endDate - startDate;
+            if (span / DateCodec.MILLIS_PER_HOUR < maxRows) {
+                return BUCKET_HOUR;
+            } else if (span / DateCodec.MILLIS_PER_DAY < maxRows) {
+                return BUCKET_DAY;
+            } else if (span / (7 * DateCodec.MILLIS_PER_DAY) < maxRows) {
+                return BUCKET_WEEK;
+            }
+            return BUCKET_MONTH;
+        }
+
+        /**
+         * Build the uri on which changes of the prices from startDate to endDate are notified.
+         * Every change is notified on the uri of its days, which also reaches the observers of
+         * the months, years and whole tree containing them.
+         *
+         * @param startDate First date, in milliseconds since epoch.
+         * @param endDate   Last date, in milliseconds since epoch.
+         */
+        public static Uri buildNotificationUri(long startDate, long endDate) {
+            return buildDateTreeUri(CONTENT_URI, startDate, endDate);
+        }
+
+        /**
+         * Return the uri to observe for changes of the prices queried by the given uri.
+         */
+        public static Uri getNotificationUri(Uri uri) {
+            return getDateTreeUri(CONTENT_URI, uri);
+        }
+
+        public static String getFareFromUri(Uri uri) {
+            return uri.getPathSegments().get(2);
+        }
+
         public static String getDateFromUri(Uri uri) {
             return uri.getQueryParameter(URI_QUERY_PARAM_DATE);
         }
@@ -106,28 +405,211 @@ public class LumiosContract {
             return uri.getQueryParameter(URI_QUERY_PARAM_END_DATE);
         }
 
-        public static String[] getColumns(Context context, String fareName) {
-            List<String> columnsList = new ArrayList<>();
+        public static String getBucketFromUri(Uri uri) {
+            return uri.getQueryParameter(URI_QUERY_PARAM_BUCKET);
+        }
+
+        public static String getAggregateFromUri(Uri uri) {
+            return uri.getQueryParameter(URI_QUERY_PARAM_AGGREGATE);
+        }
 
-            columnsList.add(_ID);
-            columnsList.add(COLUMN_DATE);
-            if (fareName.equals(context.getString(R.string.pref_fare_entries_general))) {
-                columnsList.add(COLUMN_PRICE_GENERAL);
-                columnsList.add(COLUMN_AVG_GENERAL);
-                columnsList.add(COLUMN_INCREASE_GENERAL);
-            } else if (fareName.equals(context.getString(R.string.pref_fare_entries_night))) {
-                columnsList.add(COLUMN_PRICE_NIGHT);
-                columnsList.add(COLUMN_AVG_NIGHT);
-                columnsList.add(COLUMN_INCREASE_NIGHT);
+        /**
+         * Return the fare of {@link #buildUriWithFare} matching the given fare name.
+         */
+        public static String getFare(Context context, String fareName) {
+            if (fareName.equals(context.getString(R.string.pref_fare_entries_night))) {
+                return FARE_NIGHT;
             } else if (fareName.equals(context.getString(R.string.pref_fare_entries_vehicles))) {
-                columnsList.add(COLUMN_PRICE_VEHICLE);
-                columnsList.add(COLUMN_AVG_VEHICLE);
-                columnsList.add(COLUMN_INCREASE_VEHICLE);
+                return FARE_VEHICLE;
             }
+            return FARE_GENERAL;
+        }
+
+        public static String[] getFareColumns() {
+            return new String[]{
+                    _ID, COLUMN_DATE, COLUMN_FARE_PRICE, COLUMN_FARE_AVG, COLUMN_FARE_INCREASE
+            };
+        }
+    }
+
+    /* Inner class that defines the table contents of the daily stats table */
+    public static final class DailyStatsEntry implements DailyStatsColumns, BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_DAILY_STATS).build();
+
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_DAILY_STATS;
+
+        public static final String TABLE_NAME = "daily_stats";
+
+        public static Uri buildUriWithDay(long day) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(URI_QUERY_PARAM_DATE, String.valueOf(day))
+                    .build();
+        }
+
+        public static Uri buildUriWithStartDayAndEndDay(long startDay, long endDay) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(URI_QUERY_PARAM_START_DATE, String.valueOf(startDay))
+                    .appendQueryParameter(URI_QUERY_PARAM_END_DATE, String.valueOf(endDay))
+                    .build();
+        }
+
+        /**
+         * Build the uri on which changes of the stats from startDay to endDay are notified.
+         *
+         * @see PriceEntry#buildNotificationUri
+         */
+        public static Uri buildNotificationUri(long startDay, long endDay) {
+            return buildDateTreeUri(CONTENT_URI, startDay, endDay);
+        }
+
+        /**
+         * Return the uri to observe for changes of the stats queried by the given uri.
+         */
+        public static Uri getNotificationUri(Uri uri) {
+            return getDateTreeUri(CONTENT_URI, uri);
+        }
+    }
+
+    /* Inner class that defines the contents of the coverage uri, built from the daily stats */
+    public static final class CoverageEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_COVERAGE).build();
+
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_COVERAGE;
+
+        /**
+         * Start of the day in Spain, in milliseconds since epoch. Every day of the queried range
+         * has a row, even the ones without any price.
+         */
+        public static final String COLUMN_DAY = "day";
+        /**
+         * Number of hours of the day: 23, 24 or 25, depending on daylight saving time.
+         */
+        public static final String COLUMN_EXPECTED_HOURS = "expected_hours";
+        /**
+         * Bitmap of the hours with a price, see {@link DailyStatsColumns#COLUMN_HOUR_MASK}.
+         */
+        public static final String COLUMN_HOUR_MASK = "hour_mask";
+        /**
+         * Bitmap of the hours without a price. Zero when the day is complete.
+         */
+        public static final String COLUMN_MISSING_MASK = "missing_mask";
+
+        /**
+         * Build the uri of the coverage of every day from startDay to endDay, both included. A
+         * range is required, since days without any price are returned too.
+         */
+        public static Uri buildUriWithStartDayAndEndDay(long startDay, long endDay) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(URI_QUERY_PARAM_START_DATE, String.valueOf(startDay))
+                    .appendQueryParameter(URI_QUERY_PARAM_END_DATE, String.valueOf(endDay))
+                    .build();
+        }
+
+        /**
+         * Return the uri to observe for changes of the coverage queried by the given uri. The
+         * coverage changes along with the daily stats it is built from.
+         */
+        public static Uri getNotificationUri(Uri uri) {
+            return getDateTreeUri(DailyStatsEntry.CONTENT_URI, uri);
+        }
+    }
+
+    /**
+     * Cheapest hours of a fare within a range of dates, to tell when to run a load. A window is
+     * the run of consecutive hours with the lowest total price, for loads which cannot be paused
+     * once started; otherwise, the cheapest hours are taken wherever they are. Either way, there
+     * is a row per hour found, in ascending order of date.
+     */
+    public static final class CheapestEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_CHEAPEST).build();
+
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_CHEAPEST;
+
+        /**
+         * Start of the hour, in milliseconds since epoch.
+         */
+        public static final String COLUMN_DATE = "date";
+        /**
+         * Price of the hour in the queried fare.
+         */
+        public static final String COLUMN_PRICE = "price";
+
+        /**
+         * Build the uri of the cheapest run of consecutive hours of a fare. A run never spans an
+         * hour without price, and there is no row at all if no run fits in the range.
+         *
+         * @param fare      One of {@link #FARE_GENERAL}, {@link #FARE_NIGHT} or
+         *                  {@link #FARE_VEHICLE}.
+         * @param startDate First date of the range, in milliseconds since epoch.
+         * @param endDate   Last date of the range, in milliseconds since epoch.
+         * @param hours     Length of the run.
+         */
+        public static Uri buildWindowUri(String fare, long startDate, long endDate, int hours) {
+            return buildUri(PATH_WINDOW, fare, startDate, endDate, hours);
+        }
+
+        /**
+         * Build the uri of the cheapest hours of a fare, consecutive or not. Every hour of the
+         * range is returned if there are not as many.
+         *
+         * @see #buildWindowUri
+         */
+        public static Uri buildHoursUri(String fare, long startDate, long endDate, int hours) {
+            return buildUri(PATH_HOURS, fare, startDate, endDate, hours);
+        }
+
+        private static Uri buildUri(String path, String fare, long startDate, long endDate,
+                                    int hours) {
+            return CONTENT_URI.buildUpon().appendPath(path).appendPath(fare)
+                    .appendQueryParameter(URI_QUERY_PARAM_START_DATE, String.valueOf(startDate))
+                    .appendQueryParameter(URI_QUERY_PARAM_END_DATE, String.valueOf(endDate))
+                    .appendQueryParameter(URI_QUERY_PARAM_HOURS, String.valueOf(hours))
+                    .build();
+        }
+
+        public static String getFareFromUri(Uri uri) {
+            return uri.getPathSegments().get(2);
+        }
 
-            String[] columnsArray = new String[columnsList.size()];
-            columnsList.toArray(columnsArray);
-            return columnsArray;
+        public static String getHoursFromUri(Uri uri) {
+            return uri.getQueryParameter(URI_QUERY_PARAM_HOURS);
         }
+
+        /**
+         * Return the uri to observe for changes of the hours queried by the given uri, which
+         * change along with the prices of its range.
+         */
+        public static Uri getNotificationUri(Uri uri) {
+            return getDateTreeUri(PriceEntry.CONTENT_URI, uri);
+        }
+    }
+
+    /* Inner class that defines the table contents of the sync metrics table */
+    public static final class SyncMetricsEntry implements SyncMetricsColumns, BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_METRICS).build();
+
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_SYNC_METRICS;
+
+        public static final String TABLE_NAME = "sync_metrics";
+
+        /**
+         * Number of cycles kept. Inserting a cycle drops the oldest ones beyond it.
+         */
+        public static final int MAX_ROWS = 100;
+
+        public static final int KIND_SYNC = 0;
+        public static final int KIND_BACKFILL = 1;
     }
 }
@@ -17,50 +17,424 @@
 
 package io.ordunaleon.lumios.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.res.Resources;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.SystemClock;
 
+import io.ordunaleon.lumios.R;
+import io.ordunaleon.lumios.data.LumiosContract.DailyStatsEntry;
 import io.ordunaleon.lumios.data.LumiosContract.PriceEntry;
+import io.ordunaleon.lumios.data.LumiosContract.SyncMetricsEntry;
+import io.ordunaleon.lumios.utils.LogUtils;
+
+import static io.ordunaleon.lumios.utils.LogUtils.LOGI;
 
 public class LumiosDbHelper extends SQLiteOpenHelper {
 
+    private static final String LOG_TAG = LogUtils.makeLogTag(LumiosDbHelper.class);
+
     static final String DATABASE_NAME = "lumios.db";
 
-    private static final int DATABASE_VERSION = 2;
+    static final int DATABASE_VERSION = 8;
 
+    // Databases older than this version are recreated instead of migrated.
+    private static final int OLDEST_MIGRATABLE_VERSION = 2;
+
+    // The start of the hour, in milliseconds since epoch, is the key of the table. Being an
+    // INTEGER PRIMARY KEY it is stored as the rowid, so rows are kept sorted by date and range
+    // queries walk the table itself, with no additional index. Only the prices are stored; the
+    // averages and increases derived from them are computed by the price view.
     private static final String SQL_CREATE_PRICE_TABLE =
             "CREATE TABLE " + PriceEntry.TABLE_NAME + " (" +
-                    PriceEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-                    PriceEntry.COLUMN_DATE + " TEXT NOT NULL," +
+                    PriceEntry.COLUMN_DATE + " INTEGER PRIMARY KEY ON CONFLICT REPLACE," +
                     PriceEntry.COLUMN_PRICE_GENERAL + " DOUBLE NOT NULL," +
-                    PriceEntry.COLUMN_AVG_GENERAL + " DOUBLE NOT NULL," +
-                    PriceEntry.COLUMN_INCREASE_GENERAL + " DOUBLE NOT NULL," +
                     PriceEntry.COLUMN_PRICE_NIGHT + " DOUBLE NOT NULL," +
-                    PriceEntry.COLUMN_AVG_NIGHT + " DOUBLE NOT NULL," +
-                    PriceEntry.COLUMN_INCREASE_NIGHT + " DOUBLE NOT NULL," +
-                    PriceEntry.COLUMN_PRICE_VEHICLE + " DOUBLE NOT NULL," +
-                    PriceEntry.COLUMN_AVG_VEHICLE + " DOUBLE NOT NULL," +
-                    PriceEntry.COLUMN_INCREASE_VEHICLE + " DOUBLE NOT NULL," +
+                    PriceEntry.COLUMN_PRICE_VEHICLE + " DOUBLE NOT NULL);";
+
+    // Each fare is also stored in an index holding only its price, sorted by date. A query on a
+    // single fare reads that index alone, which packs more hours per page than the full rows of
+    // the table. SQLite keeps the three of them in sync with the table.
+    private static final String INDEX_PRICE_GENERAL =
+            PriceEntry.TABLE_NAME + "_" + LumiosContract.FARE_GENERAL + "_index";
+    private static final String INDEX_PRICE_NIGHT =
+            PriceEntry.TABLE_NAME + "_" + LumiosContract.FARE_NIGHT + "_index";
+    private static final String INDEX_PRICE_VEHICLE =
+            PriceEntry.TABLE_NAME + "_" + LumiosContract.FARE_VEHICLE + "_index";
+
+    private static final String SQL_CREATE_PRICE_GENERAL_INDEX =
+            buildCreateFareIndex(INDEX_PRICE_GENERAL, PriceEntry.COLUMN_PRICE_GENERAL);
+    private static final String SQL_CREATE_PRICE_NIGHT_INDEX =
+            buildCreateFareIndex(INDEX_PRICE_NIGHT, PriceEntry.COLUMN_PRICE_NIGHT);
+    private static final String SQL_CREATE_PRICE_VEHICLE_INDEX =
+            buildCreateFareIndex(INDEX_PRICE_VEHICLE, PriceEntry.COLUMN_PRICE_VEHICLE);
+
+    private static String buildCreateFareIndex(String index, String price) {
+        return "CREATE INDEX " + index + " ON " + PriceEntry.TABLE_NAME + " (" +
+                PriceEntry.COLUMN_DATE + ", " + price + ");";
+    }
+
+    // Stats of each day, derived from the price table and kept in sync with it by
+    // DailyStatsUpdater. Hours are stored in milliseconds since epoch.
+    private static final String SQL_CREATE_DAILY_STATS_TABLE =
+            "CREATE TABLE " + DailyStatsEntry.TABLE_NAME + " (" +
+                    DailyStatsEntry.COLUMN_DAY + " INTEGER PRIMARY KEY ON CONFLICT REPLACE," +
+                    DailyStatsEntry.COLUMN_HOURS + " INTEGER NOT NULL," +
+                    DailyStatsEntry.COLUMN_MIN_GENERAL + " DOUBLE NOT NULL," +
+                    DailyStatsEntry.COLUMN_MAX_GENERAL + " DOUBLE NOT NULL," +
+                    DailyStatsEntry.COLUMN_MEAN_GENERAL + " DOUBLE NOT NULL," +
+                    DailyStatsEntry.COLUMN_CHEAPEST_HOUR_GENERAL + " INTEGER NOT NULL," +
+                    DailyStatsEntry.COLUMN_PRICIEST_HOUR_GENERAL + " INTEGER NOT NULL," +
+                    DailyStatsEntry.COLUMN_MIN_NIGHT + " DOUBLE NOT NULL," +
+                    DailyStatsEntry.COLUMN_MAX_NIGHT + " DOUBLE NOT NULL," +
+                    DailyStatsEntry.COLUMN_MEAN_NIGHT + " DOUBLE NOT NULL," +
+                    DailyStatsEntry.COLUMN_CHEAPEST_HOUR_NIGHT + " INTEGER NOT NULL," +
+                    DailyStatsEntry.COLUMN_PRICIEST_HOUR_NIGHT + " INTEGER NOT NULL," +
+                    DailyStatsEntry.COLUMN_MIN_VEHICLE + " DOUBLE NOT NULL," +
+                    DailyStatsEntry.COLUMN_MAX_VEHICLE + " DOUBLE NOT NULL," +
+                    DailyStatsEntry.COLUMN_MEAN_VEHICLE + " DOUBLE NOT NULL," +
+                    DailyStatsEntry.COLUMN_CHEAPEST_HOUR_VEHICLE + " INTEGER NOT NULL," +
+                    DailyStatsEntry.COLUMN_PRICIEST_HOUR_VEHICLE + " INTEGER NOT NULL," +
+                    DailyStatsEntry.COLUMN_HOUR_MASK + " INTEGER NOT NULL);";
 
-                    // To assure the application have just one price entry per date,
-                    // we create a UNIQUE constraint with REPLACE strategy.
-                    " UNIQUE (" + PriceEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+    // Metrics of the last download cycles, kept as a ring: the rowid grows with every cycle and
+    // LumiosProvider deletes the rows older than the last SyncMetricsEntry.MAX_ROWS.
+    private static final String SQL_CREATE_SYNC_METRICS_TABLE =
+            "CREATE TABLE " + SyncMetricsEntry.TABLE_NAME + " (" +
+                    SyncMetricsEntry._ID + " INTEGER PRIMARY KEY," +
+                    SyncMetricsEntry.COLUMN_TIME + " INTEGER NOT NULL," +
+                    SyncMetricsEntry.COLUMN_KIND + " INTEGER NOT NULL," +
+                    SyncMetricsEntry.COLUMN_URLS + " INTEGER NOT NULL," +
+                    SyncMetricsEntry.COLUMN_FAILURES + " INTEGER NOT NULL," +
+                    SyncMetricsEntry.COLUMN_WIRE_BYTES + " INTEGER NOT NULL," +
+                    SyncMetricsEntry.COLUMN_DECODED_BYTES + " INTEGER NOT NULL," +
+                    SyncMetricsEntry.COLUMN_CACHE_HITS + " INTEGER NOT NULL," +
+                    SyncMetricsEntry.COLUMN_CACHE_MISSES + " INTEGER NOT NULL," +
+                    SyncMetricsEntry.COLUMN_CONNECT_NANOS + " INTEGER NOT NULL," +
+                    SyncMetricsEntry.COLUMN_READ_NANOS + " INTEGER NOT NULL," +
+                    SyncMetricsEntry.COLUMN_PARSE_NANOS + " INTEGER NOT NULL," +
+                    SyncMetricsEntry.COLUMN_NORMALIZE_NANOS + " INTEGER NOT NULL," +
+                    SyncMetricsEntry.COLUMN_STORE_NANOS + " INTEGER NOT NULL," +
+                    SyncMetricsEntry.COLUMN_TOTAL_NANOS + " INTEGER NOT NULL," +
+                    SyncMetricsEntry.COLUMN_ROWS_INSERTED + " INTEGER NOT NULL," +
+                    SyncMetricsEntry.COLUMN_ROWS_UPDATED + " INTEGER NOT NULL," +
+                    SyncMetricsEntry.COLUMN_ROWS_UNCHANGED + " INTEGER NOT NULL," +
+                    SyncMetricsEntry.COLUMN_LAST_ERROR + " TEXT);";
+
+    // Prices along with the stats of their day, found as the last day starting at or before
+    // the price. Both lookups go through the primary key of the daily stats table. When the
+    // query only asks for one fare, SQLite reads the index of that fare instead of the table.
+    private static final String SQL_CREATE_PRICE_VIEW =
+            "CREATE VIEW " + PriceEntry.VIEW_NAME + " AS SELECT " +
+                    "p." + PriceEntry.COLUMN_DATE + " AS " + PriceEntry.COLUMN_DATE + ", " +
+                    buildFareViewColumns(PriceEntry.COLUMN_PRICE_GENERAL,
+                            DailyStatsEntry.COLUMN_MEAN_GENERAL, PriceEntry.COLUMN_AVG_GENERAL,
+                            PriceEntry.COLUMN_INCREASE_GENERAL) + ", " +
+                    buildFareViewColumns(PriceEntry.COLUMN_PRICE_NIGHT,
+                            DailyStatsEntry.COLUMN_MEAN_NIGHT, PriceEntry.COLUMN_AVG_NIGHT,
+                            PriceEntry.COLUMN_INCREASE_NIGHT) + ", " +
+                    buildFareViewColumns(PriceEntry.COLUMN_PRICE_VEHICLE,
+                            DailyStatsEntry.COLUMN_MEAN_VEHICLE, PriceEntry.COLUMN_AVG_VEHICLE,
+                            PriceEntry.COLUMN_INCREASE_VEHICLE) +
+                    " FROM " + PriceEntry.TABLE_NAME + " AS p" +
+                    " LEFT JOIN " + DailyStatsEntry.TABLE_NAME + " AS s" +
+                    " ON s." + DailyStatsEntry.COLUMN_DAY + " = (" +
+                    "SELECT d." + DailyStatsEntry.COLUMN_DAY +
+                    " FROM " + DailyStatsEntry.TABLE_NAME + " AS d" +
+                    " WHERE d." + DailyStatsEntry.COLUMN_DAY + " <= p." + PriceEntry.COLUMN_DATE +
+                    " ORDER BY d." + DailyStatsEntry.COLUMN_DAY + " DESC LIMIT 1);";
+
+    private static String buildFareViewColumns(String price, String mean, String avg,
+                                               String increase) {
+        return "p." + price + " AS " + price + ", " +
+                "s." + mean + " AS " + avg + ", " +
+                "p." + price + " * 100.0 / s." + mean + " AS " + increase;
+    }
+
+    // Pragmas of the database, from the integer resources.
+    private final int mPageSize;
+    private final int mCacheSizeKib;
+    private final int mSynchronous;
 
     public LumiosDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Creates a LumiosDbHelper on a database other than the one of the app, for tests.
+     *
+     * @param context Context of the app.
+     * @param name    Name of the database file.
+     */
+    LumiosDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+
+        Resources res = context.getResources();
+        mPageSize = res.getInteger(R.integer.db_page_size);
+        mCacheSizeKib = res.getInteger(R.integer.db_cache_size_kib);
+        mSynchronous = res.getInteger(R.integer.db_synchronous);
+    }
+
+    @Override
+    @TargetApi(16)
+    public void onConfigure(SQLiteDatabase db) {
+        configure(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+
+        // Older versions do not call onConfigure.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            configure(db);
+        }
+    }
+
+    /**
+     * Set the pragmas of the database and enable write-ahead logging, so the transaction of a
+     * download does not block the queries of the UI: readers see the last committed prices
+     * while the writer appends to the log. Write-ahead logging also lets SQLiteDatabase keep a
+     * pool of connections for reading, so several queries run at once.
+     * <p/>
+     * The page size only applies to a database which has not been written yet, so it is set
+     * before the journal mode. Before Jelly Bean the database is configured once opened, so
+     * its page size is the default one.
+     * <p/>
+     * The synchronous level and the cache size are only set on the primary connection, the one
+     * running every write and every transaction, such as the merge of a download. The pooled
+     * connections only read, and keep the defaults of SQLite.
+     */
+    private void configure(SQLiteDatabase db) {
+        db.setPageSize(mPageSize);
+        db.enableWriteAheadLogging();
+        db.execSQL("PRAGMA synchronous = " + mSynchronous);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // A negative cache size is in KiB instead of pages, since SQLite 3.7.10.
+            db.execSQL("PRAGMA cache_size = " + -mCacheSizeKib);
+        } else {
+            // Older versions bundle an older SQLite, which only takes a number of pages.
+            db.execSQL("PRAGMA cache_size = " + Math.max(1, mCacheSizeKib * 1024L
+                    / db.getPageSize()));
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(SQL_CREATE_PRICE_TABLE);
+        db.execSQL(SQL_CREATE_PRICE_GENERAL_INDEX);
+        db.execSQL(SQL_CREATE_PRICE_NIGHT_INDEX);
+        db.execSQL(SQL_CREATE_PRICE_VEHICLE_INDEX);
+        db.execSQL(SQL_CREATE_DAILY_STATS_TABLE);
+        db.execSQL(SQL_CREATE_PRICE_VIEW);
+        db.execSQL(SQL_CREATE_SYNC_METRICS_TABLE);
     }
 
+    /**
+     * Upgrade the database applying, in order, every migration between the old and the new
+     * version. {@link SQLiteOpenHelper} runs this method inside a transaction, so the upgrade
+     * either completes or leaves the database untouched.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        db.execSQL("DROP TABLE IF EXISTS " + PriceEntry.TABLE_NAME);
-        onCreate(db);
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION) {
+            // Nothing worth keeping from the first version, so discard the data and start over.
+            db.execSQL("DROP TABLE IF EXISTS " + PriceEntry.TABLE_NAME);
+            onCreate(db);
+            return;
+        }
+
+        int version = oldVersion;
+        for (Migration migration : getMigrations()) {
+            if (migration.getVersion() <= version) {
+                continue;
+            }
+            if (migration.getVersion() != version + 1 || migration.getVersion() > newVersion) {
+                break;
+            }
+
+            long start = SystemClock.elapsedRealtime();
+            migration.migrate(db);
+            version = migration.getVersion();
+
+            LOGI(LOG_TAG, "Database upgraded to version " + version + " in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms.");
+        }
+
+        if (version != newVersion) {
+            throw new IllegalStateException("No migration path from version " + oldVersion
+                    + " to " + newVersion + ", stuck at " + version);
+        }
+    }
+
+    /**
+     * @return Every migration, sorted by version. Tests override it to break the chain.
+     */
+    Migration[] getMigrations() {
+        return MIGRATIONS;
     }
+
+    /*
+     * Migrations must keep working after the schema has moved on. The ones using a SQL_CREATE_*
+     * statement rely on that table not having changed since; once it does, they get a copy of
+     * the statement they were written against.
+     */
+
+    /**
+     * Version 3 stores the date as milliseconds since epoch instead of an ISO 8601 string.
+     * Dates of version 2 are always in UTC ("yyyy-MM-dd'T'HH:mm+0000"), so the first 16
+     * characters are enough for SQLite to convert them.
+     */
+    private static final Migration MIGRATION_3 = new Migration(3) {
+        private static final String PRICE_VALUE_COLUMNS =
+                PriceEntry.COLUMN_PRICE_GENERAL + ", " +
+                        PriceEntry.COLUMN_AVG_GENERAL + ", " +
+                        PriceEntry.COLUMN_INCREASE_GENERAL + ", " +
+                        PriceEntry.COLUMN_PRICE_NIGHT + ", " +
+                        PriceEntry.COLUMN_AVG_NIGHT + ", " +
+                        PriceEntry.COLUMN_INCREASE_NIGHT + ", " +
+                        PriceEntry.COLUMN_PRICE_VEHICLE + ", " +
+                        PriceEntry.COLUMN_AVG_VEHICLE + ", " +
+                        PriceEntry.COLUMN_INCREASE_VEHICLE;
+
+        @Override
+        void migrate(SQLiteDatabase db) {
+            final String oldTable = PriceEntry.TABLE_NAME + "_v2";
+
+            db.execSQL("ALTER TABLE " + PriceEntry.TABLE_NAME + " RENAME TO " + oldTable);
+            db.execSQL("CREATE TABLE " + PriceEntry.TABLE_NAME + " (" +
+                    PriceEntry.COLUMN_DATE + " INTEGER PRIMARY KEY ON CONFLICT REPLACE," +
+                    PriceEntry.COLUMN_PRICE_GENERAL + " DOUBLE NOT NULL," +
+                    PriceEntry.COLUMN_AVG_GENERAL + " DOUBLE NOT NULL," +
+                    PriceEntry.COLUMN_INCREASE_GENERAL + " DOUBLE NOT NULL," +
+                    PriceEntry.COLUMN_PRICE_NIGHT + " DOUBLE NOT NULL," +
+                    PriceEntry.COLUMN_AVG_NIGHT + " DOUBLE NOT NULL," +
+                    PriceEntry.COLUMN_INCREASE_NIGHT + " DOUBLE NOT NULL," +
+                    PriceEntry.COLUMN_PRICE_VEHICLE + " DOUBLE NOT NULL," +
+                    PriceEntry.COLUMN_AVG_VEHICLE + " DOUBLE NOT NULL," +
+                    PriceEntry.COLUMN_INCREASE_VEHICLE + " DOUBLE NOT NULL);");
+            db.execSQL("INSERT INTO " + PriceEntry.TABLE_NAME +
+                    " (" + PriceEntry.COLUMN_DATE + ", " + PRICE_VALUE_COLUMNS + ")" +
+                    " SELECT CAST(strftime('%s', substr(" + PriceEntry.COLUMN_DATE + ", 1, 16))" +
+                    " AS INTEGER) * 1000, " + PRICE_VALUE_COLUMNS +
+                    " FROM " + oldTable);
+            db.execSQL("DROP TABLE " + oldTable);
+        }
+    };
+
+    /**
+     * Version 4 adds the daily stats table. It is left empty, to be filled by version 7 with the
+     * stats of every day, which DailyStatsUpdater computes along with the columns added since.
+     */
+    private static final Migration MIGRATION_4 = new Migration(4) {
+        @Override
+        void migrate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + DailyStatsEntry.TABLE_NAME + " (" +
+                    DailyStatsEntry.COLUMN_DAY + " INTEGER PRIMARY KEY ON CONFLICT REPLACE," +
+                    DailyStatsEntry.COLUMN_HOURS + " INTEGER NOT NULL," +
+                    DailyStatsEntry.COLUMN_MIN_GENERAL + " DOUBLE NOT NULL," +
+                    DailyStatsEntry.COLUMN_MAX_GENERAL + " DOUBLE NOT NULL," +
+                    DailyStatsEntry.COLUMN_MEAN_GENERAL + " DOUBLE NOT NULL," +
+                    DailyStatsEntry.COLUMN_CHEAPEST_HOUR_GENERAL + " INTEGER NOT NULL," +
+                    DailyStatsEntry.COLUMN_PRICIEST_HOUR_GENERAL + " INTEGER NOT NULL," +
+                    DailyStatsEntry.COLUMN_MIN_NIGHT + " DOUBLE NOT NULL," +
+                    DailyStatsEntry.COLUMN_MAX_NIGHT + " DOUBLE NOT NULL," +
+                    DailyStatsEntry.COLUMN_MEAN_NIGHT + " DOUBLE NOT NULL," +
+                    DailyStatsEntry.COLUMN_CHEAPEST_HOUR_NIGHT + " INTEGER NOT NULL," +
+                    DailyStatsEntry.COLUMN_PRICIEST_HOUR_NIGHT + " INTEGER NOT NULL," +
+                    DailyStatsEntry.COLUMN_MIN_VEHICLE + " DOUBLE NOT NULL," +
+                    DailyStatsEntry.COLUMN_MAX_VEHICLE + " DOUBLE NOT NULL," +
+                    DailyStatsEntry.COLUMN_MEAN_VEHICLE + " DOUBLE NOT NULL," +
+                    DailyStatsEntry.COLUMN_CHEAPEST_HOUR_VEHICLE + " INTEGER NOT NULL," +
+                    DailyStatsEntry.COLUMN_PRICIEST_HOUR_VEHICLE + " INTEGER NOT NULL);");
+        }
+    };
+
+    /**
+     * Version 5 adds an index per fare, so a single fare can be read without the whole rows.
+     */
+    private static final Migration MIGRATION_5 = new Migration(5) {
+        @Override
+        void migrate(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX " + INDEX_PRICE_GENERAL + " ON " + PriceEntry.TABLE_NAME +
+                    " (" + PriceEntry.COLUMN_DATE + ", " + PriceEntry.COLUMN_PRICE_GENERAL +
+                    ", " + PriceEntry.COLUMN_AVG_GENERAL +
+                    ", " + PriceEntry.COLUMN_INCREASE_GENERAL + ");");
+            db.execSQL("CREATE INDEX " + INDEX_PRICE_NIGHT + " ON " + PriceEntry.TABLE_NAME +
+                    " (" + PriceEntry.COLUMN_DATE + ", " + PriceEntry.COLUMN_PRICE_NIGHT +
+                    ", " + PriceEntry.COLUMN_AVG_NIGHT +
+                    ", " + PriceEntry.COLUMN_INCREASE_NIGHT + ");");
+            db.execSQL("CREATE INDEX " + INDEX_PRICE_VEHICLE + " ON " + PriceEntry.TABLE_NAME +
+                    " (" + PriceEntry.COLUMN_DATE + ", " + PriceEntry.COLUMN_PRICE_VEHICLE +
+                    ", " + PriceEntry.COLUMN_AVG_VEHICLE +
+                    ", " + PriceEntry.COLUMN_INCREASE_VEHICLE + ");");
+        }
+    };
+
+    /**
+     * Version 6 stops storing the averages and increases, computed from the daily stats by the
+     * price view instead. The price table is copied without them; dropping the old one drops its
+     * indexes too, which are created again with only the price. The freed pages are reused by
+     * later writes.
+     */
+    private static final Migration MIGRATION_6 = new Migration(6) {
+        @Override
+        void migrate(SQLiteDatabase db) {
+            final String oldTable = PriceEntry.TABLE_NAME + "_v5";
+            final String columns = PriceEntry.COLUMN_DATE + ", " +
+                    PriceEntry.COLUMN_PRICE_GENERAL + ", " +
+                    PriceEntry.COLUMN_PRICE_NIGHT + ", " +
+                    PriceEntry.COLUMN_PRICE_VEHICLE;
+
+            db.execSQL("ALTER TABLE " + PriceEntry.TABLE_NAME + " RENAME TO " + oldTable);
+            db.execSQL(SQL_CREATE_PRICE_TABLE);
+            db.execSQL("INSERT INTO " + PriceEntry.TABLE_NAME + " (" + columns + ")" +
+                    " SELECT " + columns + " FROM " + oldTable);
+            db.execSQL("DROP TABLE " + oldTable);
+
+            db.execSQL(SQL_CREATE_PRICE_GENERAL_INDEX);
+            db.execSQL(SQL_CREATE_PRICE_NIGHT_INDEX);
+            db.execSQL(SQL_CREATE_PRICE_VEHICLE_INDEX);
+            db.execSQL(SQL_CREATE_PRICE_VIEW);
+        }
+    };
+
+    /**
+     * Version 7 adds the bitmap of the hours with a price to the daily stats, and computes every
+     * day again to fill it.
+     */
+    private static final Migration MIGRATION_7 = new Migration(7) {
+        @Override
+        void migrate(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE " + DailyStatsEntry.TABLE_NAME + " ADD COLUMN " +
+                    DailyStatsEntry.COLUMN_HOUR_MASK + " INTEGER NOT NULL DEFAULT 0");
+            DailyStatsUpdater.rebuild(db);
+        }
+    };
+
+    /**
+     * Version 8 adds the sync metrics table.
+     */
+    private static final Migration MIGRATION_8 = new Migration(8) {
+        @Override
+        void migrate(SQLiteDatabase db) {
+            db.execSQL(SQL_CREATE_SYNC_METRICS_TABLE);
+        }
+    };
+
+    /**
+     * Every migration, sorted by version. Upgrading to a new version only needs its migration
+     * to be appended here.
+     */
+    private static final Migration[] MIGRATIONS = {
+            MIGRATION_3,
+            MIGRATION_4,
+            MIGRATION_5,
+            MIGRATION_6,
+            MIGRATION_7,
+            MIGRATION_8
+    };
 }
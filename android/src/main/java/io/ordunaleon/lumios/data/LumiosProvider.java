@@ -19,15 +19,33 @@ package io.ordunaleon.lumios.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.ordunaleon.lumios.data.LumiosContract.CheapestEntry;
+import io.ordunaleon.lumios.data.LumiosContract.CoverageEntry;
+import io.ordunaleon.lumios.data.LumiosContract.DailyStatsEntry;
 import io.ordunaleon.lumios.data.LumiosContract.PriceEntry;
+import io.ordunaleon.lumios.data.LumiosContract.SyncMetricsEntry;
+import io.ordunaleon.lumios.utils.DateCodec;
+import io.ordunaleon.lumios.utils.DateUtils;
 import io.ordunaleon.lumios.utils.LogUtils;
 
 public class LumiosProvider extends ContentProvider {
@@ -38,8 +56,17 @@ public class LumiosProvider extends ContentProvider {
 
     private LumiosDbHelper mOpenHelper;
 
+    // Prices of today and tomorrow, which most queries ask for.
+    private final PriceWindowCache mWindowCache = new PriceWindowCache();
+
     static final int PRICE = 100;
     static final int PRICE_WITH_INDICATOR_ID = 101;
+    static final int PRICE_WITH_FARE = 102;
+    static final int DAILY_STATS = 200;
+    static final int COVERAGE = 300;
+    static final int SYNC_METRICS = 400;
+    static final int CHEAPEST_WINDOW = 500;
+    static final int CHEAPEST_HOURS = 501;
 
     private static UriMatcher buildUriMatcher() {
         final UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
@@ -47,62 +74,659 @@ public class LumiosProvider extends ContentProvider {
 
         matcher.addURI(authority, LumiosContract.PATH_PRICE, PRICE);
         matcher.addURI(authority, LumiosContract.PATH_PRICE + "/*", PRICE_WITH_INDICATOR_ID);
+        matcher.addURI(authority, LumiosContract.PATH_PRICE + "/" + LumiosContract.PATH_FARE
+                + "/*", PRICE_WITH_FARE);
+        matcher.addURI(authority, LumiosContract.PATH_DAILY_STATS, DAILY_STATS);
+        matcher.addURI(authority, LumiosContract.PATH_COVERAGE, COVERAGE);
+        matcher.addURI(authority, LumiosContract.PATH_SYNC_METRICS, SYNC_METRICS);
+        matcher.addURI(authority, LumiosContract.PATH_CHEAPEST + "/" + LumiosContract.PATH_WINDOW
+                + "/*", CHEAPEST_WINDOW);
+        matcher.addURI(authority, LumiosContract.PATH_CHEAPEST + "/" + LumiosContract.PATH_HOURS
+                + "/*", CHEAPEST_HOURS);
 
         return matcher;
     }
 
-    // date >= ?
-    private static final String sStartDateSelection = PriceEntry.COLUMN_DATE + " >= ? ";
+    // Columns of the price table, in the order they are bound in sPriceInsertOrReplace.
+    private static final String[] sPriceInsertColumns = {
+            PriceEntry.COLUMN_DATE,
+            PriceEntry.COLUMN_PRICE_GENERAL,
+            PriceEntry.COLUMN_PRICE_NIGHT,
+            PriceEntry.COLUMN_PRICE_VEHICLE
+    };
+
+    // Columns of the price uri which are computed when read, not stored, see LumiosDbHelper.
+    private static final String[] sPriceDerivedColumns = {
+            PriceEntry.COLUMN_AVG_GENERAL,
+            PriceEntry.COLUMN_INCREASE_GENERAL,
+            PriceEntry.COLUMN_AVG_NIGHT,
+            PriceEntry.COLUMN_INCREASE_NIGHT,
+            PriceEntry.COLUMN_AVG_VEHICLE,
+            PriceEntry.COLUMN_INCREASE_VEHICLE
+    };
+
+    /**
+     * Return the given values without the columns that are not stored, so writes that still
+     * carry them keep working.
+     */
+    private static ContentValues getStoredValues(ContentValues values) {
+        ContentValues storedValues = new ContentValues(values);
+        for (String column : sPriceDerivedColumns) {
+            storedValues.remove(column);
+        }
+        return storedValues;
+    }
+
+    // INSERT OR REPLACE INTO price (date, ...) VALUES (?, ...)
+    private static final String sPriceInsertOrReplace =
+            buildInsertOrReplace(PriceEntry.TABLE_NAME, sPriceInsertColumns);
+
+    private static String buildInsertOrReplace(String table, String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ", " : "").append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ", ?" : "?");
+        }
+        return sql.append(")").toString();
+    }
+
+    // UPDATE price SET price_general = ?, ... WHERE date = ?
+    private static final String sPriceUpdate =
+            buildUpdate(PriceEntry.TABLE_NAME, sPriceInsertColumns);
+
+    /**
+     * Build an update of every column but the first by the value of the first one. The values
+     * are bound in the same order as the columns, with the first one at the end.
+     */
+    private static String buildUpdate(String table, String[] columns) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        for (int i = 1; i < columns.length; i++) {
+            sql.append(i > 1 ? ", " : "").append(columns[i]).append(" = ?");
+        }
+        return sql.append(" WHERE ").append(columns[0]).append(" = ?").toString();
+    }
+
+    private static void bindValue(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    // The date is the key of the price table, so it is also exposed as its _id.
+    private static final HashMap<String, String> sPriceProjectionMap = new HashMap<>();
+
+    static {
+        sPriceProjectionMap.put(PriceEntry._ID, PriceEntry.COLUMN_DATE + " AS " + PriceEntry._ID);
+        for (String column : sPriceInsertColumns) {
+            sPriceProjectionMap.put(column, column);
+        }
+        for (String column : sPriceDerivedColumns) {
+            sPriceProjectionMap.put(column, column);
+        }
+    }
+
+    // Columns of each fare, renamed to the names shared by every fare.
+    private static final HashMap<String, HashMap<String, String>> sFareProjectionMaps =
+            new HashMap<>();
+
+    static {
+        sFareProjectionMaps.put(LumiosContract.FARE_GENERAL, buildFareProjectionMap(
+                PriceEntry.COLUMN_PRICE_GENERAL, PriceEntry.COLUMN_AVG_GENERAL,
+                PriceEntry.COLUMN_INCREASE_GENERAL));
+        sFareProjectionMaps.put(LumiosContract.FARE_NIGHT, buildFareProjectionMap(
+                PriceEntry.COLUMN_PRICE_NIGHT, PriceEntry.COLUMN_AVG_NIGHT,
+                PriceEntry.COLUMN_INCREASE_NIGHT));
+        sFareProjectionMaps.put(LumiosContract.FARE_VEHICLE, buildFareProjectionMap(
+                PriceEntry.COLUMN_PRICE_VEHICLE, PriceEntry.COLUMN_AVG_VEHICLE,
+                PriceEntry.COLUMN_INCREASE_VEHICLE));
+    }
+
+    private static HashMap<String, String> buildFareProjectionMap(String price, String avg,
+                                                                  String increase) {
+        HashMap<String, String> projectionMap = new HashMap<>();
+        projectionMap.put(PriceEntry._ID, PriceEntry.COLUMN_DATE + " AS " + PriceEntry._ID);
+        projectionMap.put(PriceEntry.COLUMN_DATE, PriceEntry.COLUMN_DATE);
+        projectionMap.put(PriceEntry.COLUMN_FARE_PRICE,
+                price + " AS " + PriceEntry.COLUMN_FARE_PRICE);
+        projectionMap.put(PriceEntry.COLUMN_FARE_AVG, avg + " AS " + PriceEntry.COLUMN_FARE_AVG);
+        projectionMap.put(PriceEntry.COLUMN_FARE_INCREASE,
+                increase + " AS " + PriceEntry.COLUMN_FARE_INCREASE);
+        return projectionMap;
+    }
+
+    // Column of the price table behind each column of the price uri, for PriceWindowCache.
+    private static final HashMap<String, String> sPriceColumnSources = new HashMap<>();
+
+    // The same for each fare uri.
+    private static final HashMap<String, HashMap<String, String>> sFareColumnSources =
+            new HashMap<>();
+
+    static {
+        sPriceColumnSources.put(PriceEntry._ID, PriceEntry.COLUMN_DATE);
+        for (String column : sPriceInsertColumns) {
+            sPriceColumnSources.put(column, column);
+        }
+        for (String column : sPriceDerivedColumns) {
+            sPriceColumnSources.put(column, column);
+        }
+
+        sFareColumnSources.put(LumiosContract.FARE_GENERAL, buildFareColumnSources(
+                PriceEntry.COLUMN_PRICE_GENERAL, PriceEntry.COLUMN_AVG_GENERAL,
+                PriceEntry.COLUMN_INCREASE_GENERAL));
+        sFareColumnSources.put(LumiosContract.FARE_NIGHT, buildFareColumnSources(
+                PriceEntry.COLUMN_PRICE_NIGHT, PriceEntry.COLUMN_AVG_NIGHT,
+                PriceEntry.COLUMN_INCREASE_NIGHT));
+        sFareColumnSources.put(LumiosContract.FARE_VEHICLE, buildFareColumnSources(
+                PriceEntry.COLUMN_PRICE_VEHICLE, PriceEntry.COLUMN_AVG_VEHICLE,
+                PriceEntry.COLUMN_INCREASE_VEHICLE));
+    }
+
+    private static HashMap<String, String> buildFareColumnSources(String price, String avg,
+                                                                  String increase) {
+        HashMap<String, String> columnSources = new HashMap<>();
+        columnSources.put(PriceEntry._ID, PriceEntry.COLUMN_DATE);
+        columnSources.put(PriceEntry.COLUMN_DATE, PriceEntry.COLUMN_DATE);
+        columnSources.put(PriceEntry.COLUMN_FARE_PRICE, price);
+        columnSources.put(PriceEntry.COLUMN_FARE_AVG, avg);
+        columnSources.put(PriceEntry.COLUMN_FARE_INCREASE, increase);
+        return columnSources;
+    }
 
-    // date <= ?
-    private static final String sEndDatetSelection = PriceEntry.COLUMN_DATE + " <= ? ";
+    // Bucketed queries only return the date and the prices, see PriceEntry.buildUriWithBucket.
+    private static final HashMap<String, String> sPriceBucketProjectionMap =
+            new HashMap<>(sPriceProjectionMap);
 
-    // date = ?
-    private static final String sDatetSelection = PriceEntry.COLUMN_DATE + " = ? ";
+    private static final HashMap<String, HashMap<String, String>> sFareBucketProjectionMaps =
+            new HashMap<>();
 
-    // date >= ? AND date <= ?
-    private static final String sStartDateAndEndDateSelection =
-            PriceEntry.COLUMN_DATE + " >= ? AND " + PriceEntry.COLUMN_DATE + " <= ? ";
+    static {
+        for (String column : sPriceDerivedColumns) {
+            sPriceBucketProjectionMap.remove(column);
+        }
+
+        for (Map.Entry<String, HashMap<String, String>> entry : sFareProjectionMaps.entrySet()) {
+            HashMap<String, String> projectionMap = new HashMap<>(entry.getValue());
+            projectionMap.remove(PriceEntry.COLUMN_FARE_AVG);
+            projectionMap.remove(PriceEntry.COLUMN_FARE_INCREASE);
+            sFareBucketProjectionMaps.put(entry.getKey(), projectionMap);
+        }
+    }
+
+    /**
+     * Return the expression of the day in Spain of the prices, aliased as p, from the first to
+     * the last given date, as days since epoch. Adding the offset of Spain to a date gives its
+     * local time, so only the offset changes along the range: it is picked by a CASE over the
+     * transitions within the range, usually a handful, with no lookup per row.
+     *
+     * @param firstDate First date of the prices, in milliseconds since epoch.
+     * @param lastDate  Last date of the prices, in milliseconds since epoch.
+     */
+    private static String getDayExpression(long firstDate, long lastDate) {
+        StringBuilder sql = new StringBuilder("((p.").append(PriceEntry.COLUMN_DATE)
+                .append(" + ");
+        long transition = DateCodec.getNextSpainTransition(firstDate);
+        if (transition == -1 || transition > lastDate) {
+            sql.append(DateCodec.getSpainOffset(firstDate));
+        } else {
+            // CASE WHEN p.date < ? THEN ? ... ELSE ? END
+            long from = firstDate;
+            sql.append("CASE");
+            while (transition != -1 && transition <= lastDate) {
+                sql.append(" WHEN p.").append(PriceEntry.COLUMN_DATE).append(" < ")
+                        .append(transition).append(" THEN ")
+                        .append(DateCodec.getSpainOffset(from));
+                from = transition;
+                transition = DateCodec.getNextSpainTransition(transition);
+            }
+            sql.append(" ELSE ").append(DateCodec.getSpainOffset(from)).append(" END");
+        }
+        return sql.append(") / ").append(DateCodec.MILLIS_PER_DAY).append(")").toString();
+    }
+
+    /**
+     * Return the expression grouping the prices, aliased as p, into the given bucket.
+     *
+     * @param dayExpression Expression of the day of the prices, see {@link #getDayExpression}.
+     */
+    private static String getBucketExpression(String bucket, String dayExpression) {
+        switch (bucket) {
+            case PriceEntry.BUCKET_DAY:
+                return dayExpression;
+            case PriceEntry.BUCKET_WEEK:
+                // Shifted so weeks start on Monday: 1970-01-01 was a Thursday.
+                return "((" + dayExpression + " + 3) / 7)";
+            case PriceEntry.BUCKET_MONTH:
+                return "strftime('%Y%m', " + dayExpression + " * "
+                        + DateCodec.MILLIS_PER_DAY / 1000 + ", 'unixepoch')";
+            default:
+                throw new IllegalArgumentException("Unknown bucket: " + bucket);
+        }
+    }
+
+    // The same goes for the day of the daily stats table.
+    private static final HashMap<String, String> sDailyStatsProjectionMap = new HashMap<>();
+
+    static {
+        sDailyStatsProjectionMap.put(DailyStatsEntry._ID,
+                DailyStatsEntry.COLUMN_DAY + " AS " + DailyStatsEntry._ID);
+        for (String column : new String[]{
+                DailyStatsEntry.COLUMN_DAY,
+                DailyStatsEntry.COLUMN_HOURS,
+                DailyStatsEntry.COLUMN_HOUR_MASK,
+                DailyStatsEntry.COLUMN_MIN_GENERAL,
+                DailyStatsEntry.COLUMN_MAX_GENERAL,
+                DailyStatsEntry.COLUMN_MEAN_GENERAL,
+                DailyStatsEntry.COLUMN_CHEAPEST_HOUR_GENERAL,
+                DailyStatsEntry.COLUMN_PRICIEST_HOUR_GENERAL,
+                DailyStatsEntry.COLUMN_MIN_NIGHT,
+                DailyStatsEntry.COLUMN_MAX_NIGHT,
+                DailyStatsEntry.COLUMN_MEAN_NIGHT,
+                DailyStatsEntry.COLUMN_CHEAPEST_HOUR_NIGHT,
+                DailyStatsEntry.COLUMN_PRICIEST_HOUR_NIGHT,
+                DailyStatsEntry.COLUMN_MIN_VEHICLE,
+                DailyStatsEntry.COLUMN_MAX_VEHICLE,
+                DailyStatsEntry.COLUMN_MEAN_VEHICLE,
+                DailyStatsEntry.COLUMN_CHEAPEST_HOUR_VEHICLE,
+                DailyStatsEntry.COLUMN_PRICIEST_HOUR_VEHICLE}) {
+            sDailyStatsProjectionMap.put(column, column);
+        }
+    }
 
     private Cursor getPrice(Uri uri, String[] projection, String sortOrder) {
+        if (isBucketed(uri)) {
+            return getPriceBuckets(uri, sPriceInsertColumns, sPriceBucketProjectionMap,
+                    projection, sortOrder);
+        }
+
+        Cursor cursor = mWindowCache.query(mOpenHelper.getReadableDatabase(), uri, projection,
+                sPriceColumnSources, sortOrder);
+        if (cursor != null) {
+            return cursor;
+        }
+
+        long start = System.nanoTime();
+        cursor = queryByDate(uri, PriceEntry.VIEW_NAME, PriceEntry.COLUMN_DATE,
+                sPriceProjectionMap, projection, sortOrder);
+        // Run the query now, so the time recorded is comparable with the cache.
+        cursor.getCount();
+        mWindowCache.recordBypass(System.nanoTime() - start);
+        return cursor;
+    }
+
+    /**
+     * Query the prices of the fare of the given uri. Only the price of the fare is read from
+     * the price table, so SQLite walks the narrow index of the fare instead of the full rows.
+     */
+    private Cursor getPriceByFare(Uri uri, String[] projection, String sortOrder) {
+        String fare = PriceEntry.getFareFromUri(uri);
+        HashMap<String, String> projectionMap = sFareProjectionMaps.get(fare);
+        if (projectionMap == null) {
+            throw new UnsupportedOperationException("Unknown fare: " + fare);
+        }
+
+        if (isBucketed(uri)) {
+            String price = sFareColumnSources.get(fare).get(PriceEntry.COLUMN_FARE_PRICE);
+            return getPriceBuckets(uri, new String[]{PriceEntry.COLUMN_DATE, price},
+                    sFareBucketProjectionMaps.get(fare), projection, sortOrder);
+        }
+
+        Cursor cursor = mWindowCache.query(mOpenHelper.getReadableDatabase(), uri, projection,
+                sFareColumnSources.get(fare), sortOrder);
+        if (cursor != null) {
+            return cursor;
+        }
+
+        long start = System.nanoTime();
+        cursor = queryByDate(uri, PriceEntry.VIEW_NAME, PriceEntry.COLUMN_DATE, projectionMap,
+                projection, sortOrder);
+        cursor.getCount();
+        mWindowCache.recordBypass(System.nanoTime() - start);
+        return cursor;
+    }
+
+    private static boolean isBucketed(Uri uri) {
+        String bucket = PriceEntry.getBucketFromUri(uri);
+        return bucket != null && !PriceEntry.BUCKET_HOUR.equals(bucket);
+    }
+
+    /**
+     * Query the prices of the given uri grouped by its bucket, so long ranges return a row per
+     * bucket instead of a row per hour. The grouping runs in SQLite, over the prices of the
+     * range only.
+     *
+     * @param columns       Columns of the price table to read: the date followed by the prices
+     *                      to aggregate.
+     * @param projectionMap Projection map of the aggregated columns, under their own names.
+     */
+    private Cursor getPriceBuckets(Uri uri, String[] columns, Map<String, String> projectionMap,
+                                   String[] projection, String sortOrder) {
+        String bucket = PriceEntry.getBucketFromUri(uri);
+        String aggregate = PriceEntry.getAggregateFromUri(uri);
+        if (aggregate == null) {
+            throw new IllegalArgumentException("Bucket without aggregation: " + uri);
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        List<String> selectionArgs = new ArrayList<>();
+        String selection = buildDateSelection(uri, "p." + PriceEntry.COLUMN_DATE, selectionArgs);
+        String[] selectionArgsArray = selectionArgs.toArray(new String[selectionArgs.size()]);
+
+        // The first and last stored dates of the range, read from the primary key.
+        long firstDate = 0;
+        long lastDate = 0;
+        Cursor rangeCursor = db.rawQuery("SELECT MIN(p." + PriceEntry.COLUMN_DATE + "), MAX(p."
+                + PriceEntry.COLUMN_DATE + ") FROM " + PriceEntry.TABLE_NAME + " AS p"
+                + (selection != null ? " WHERE " + selection : ""), selectionArgsArray);
+        try {
+            if (rangeCursor.moveToFirst() && !rangeCursor.isNull(0)) {
+                firstDate = rangeCursor.getLong(0);
+                lastDate = rangeCursor.getLong(1);
+            }
+        } finally {
+            rangeCursor.close();
+        }
+        String bucketExpression = getBucketExpression(bucket,
+                getDayExpression(firstDate, lastDate));
+
+        // The date of a bucket is its first hour with a price.
+        StringBuilder sql = new StringBuilder("SELECT MIN(p.").append(PriceEntry.COLUMN_DATE)
+                .append(") AS ").append(PriceEntry.COLUMN_DATE);
+        switch (aggregate) {
+            case PriceEntry.AGGREGATE_AVG:
+            case PriceEntry.AGGREGATE_MIN:
+            case PriceEntry.AGGREGATE_MAX:
+                // AVG(p.price_general) AS price_general, ...
+                for (int i = 1; i < columns.length; i++) {
+                    sql.append(", ").append(aggregate).append("(p.").append(columns[i])
+                            .append(") AS ").append(columns[i]);
+                }
+                appendBucketGroup(sql, selection, bucketExpression);
+                break;
+            case PriceEntry.AGGREGATE_FIRST:
+            case PriceEntry.AGGREGATE_LAST:
+                // Group the dates of the hours to pick, then join them back with their prices.
+                sql.append(", ").append(PriceEntry.AGGREGATE_FIRST.equals(aggregate)
+                        ? "MIN" : "MAX").append("(p.").append(PriceEntry.COLUMN_DATE)
+                        .append(") AS pick");
+                appendBucketGroup(sql, selection, bucketExpression);
+
+                StringBuilder pickSql = new StringBuilder("SELECT b.")
+                        .append(PriceEntry.COLUMN_DATE).append(" AS ")
+                        .append(PriceEntry.COLUMN_DATE);
+                for (int i = 1; i < columns.length; i++) {
+                    pickSql.append(", q.").append(columns[i]).append(" AS ").append(columns[i]);
+                }
+                pickSql.append(" FROM (").append(sql).append(") AS b")
+                        .append(" JOIN ").append(PriceEntry.TABLE_NAME).append(" AS q")
+                        .append(" ON q.").append(PriceEntry.COLUMN_DATE).append(" = b.pick");
+                sql = pickSql;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown aggregation: " + aggregate);
+        }
+
+        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+        queryBuilder.setTables("(" + sql + ")");
+        queryBuilder.setProjectionMap(projectionMap);
+
+        // The arguments of the dates are bound to the query of the buckets.
+        return queryBuilder.query(db,
+                projection,
+                null,
+                selectionArgsArray,
+                null,
+                null,
+                sortOrder != null ? sortOrder : PriceEntry.COLUMN_DATE + " ASC"
+        );
+    }
+
+    private static void appendBucketGroup(StringBuilder sql, String selection,
+                                          String bucketExpression) {
+        sql.append(" FROM ").append(PriceEntry.TABLE_NAME).append(" AS p");
+        if (selection != null) {
+            sql.append(" WHERE ").append(selection);
+        }
+        sql.append(" GROUP BY ").append(bucketExpression);
+    }
+
+    private Cursor getDailyStats(Uri uri, String[] projection, String sortOrder) {
+        return queryByDate(uri, DailyStatsEntry.TABLE_NAME, DailyStatsEntry.COLUMN_DAY,
+                sDailyStatsProjectionMap, projection, sortOrder);
+    }
+
+    // Columns of the coverage uri, in the order they are returned when no projection is given.
+    private static final String[] sCoverageColumns = {
+            CoverageEntry._ID,
+            CoverageEntry.COLUMN_DAY,
+            CoverageEntry.COLUMN_EXPECTED_HOURS,
+            CoverageEntry.COLUMN_HOUR_MASK,
+            CoverageEntry.COLUMN_MISSING_MASK
+    };
+
+    /**
+     * Build the coverage of every day between the start and end date parameters of the given
+     * uri, out of the hour bitmaps of the daily stats. Days without stats have no price at all,
+     * so they are returned as well, with every hour missing.
+     */
+    private Cursor getCoverage(Uri uri, String[] projection) {
+        String startDate = PriceEntry.getStartDateFromUri(uri);
+        String endDate = PriceEntry.getEndDateFromUri(uri);
+        if (startDate == null || endDate == null) {
+            throw new IllegalArgumentException("Coverage needs a start and an end date: " + uri);
+        }
+
+        long startDay = DateUtils.getDayStart(Long.parseLong(startDate));
+        long endDay = DateUtils.getDayStart(Long.parseLong(endDate));
+
+        String[] columns = projection != null ? projection : sCoverageColumns;
+        int[] columnIndexes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            columnIndexes[i] = Arrays.asList(sCoverageColumns).indexOf(columns[i]);
+            if (columnIndexes[i] == -1) {
+                throw new IllegalArgumentException("Invalid column " + columns[i]);
+            }
+        }
+
+        Cursor stats = mOpenHelper.getReadableDatabase().query(DailyStatsEntry.TABLE_NAME,
+                new String[]{DailyStatsEntry.COLUMN_DAY, DailyStatsEntry.COLUMN_HOUR_MASK},
+                DailyStatsEntry.COLUMN_DAY + " >= ? AND " + DailyStatsEntry.COLUMN_DAY + " <= ? ",
+                new String[]{String.valueOf(startDay), String.valueOf(endDay)},
+                null, null, DailyStatsEntry.COLUMN_DAY + " ASC");
+        try {
+            MatrixCursor cursor = new MatrixCursor(columns);
+            Object[] values = new Object[sCoverageColumns.length];
+            Object[] row = new Object[columns.length];
+            boolean hasStats = stats.moveToNext();
+            for (long day = startDay; day <= endDay; day = DateUtils.getNextDayStart(day)) {
+                int hourMask = 0;
+                if (hasStats && stats.getLong(0) == day) {
+                    hourMask = stats.getInt(1);
+                    hasStats = stats.moveToNext();
+                }
+                int expectedHours = (int) ((DateUtils.getNextDayStart(day) - day)
+                        / DateCodec.MILLIS_PER_HOUR);
+
+                values[0] = day;
+                values[1] = day;
+                values[2] = expectedHours;
+                values[3] = hourMask;
+                values[4] = ~hourMask & ((1 << expectedHours) - 1);
+                for (int i = 0; i < columns.length; i++) {
+                    row[i] = values[columnIndexes[i]];
+                }
+                cursor.addRow(row);
+            }
+            return cursor;
+        } finally {
+            stats.close();
+        }
+    }
+
+    // Columns of the cheapest uris, in the order they are returned when no projection is given.
+    private static final String[] sCheapestColumns = {
+            CheapestEntry._ID,
+            CheapestEntry.COLUMN_DATE,
+            CheapestEntry.COLUMN_PRICE
+    };
+
+    /**
+     * Find the cheapest hours of the fare of the given uri between its start and end dates,
+     * with {@link CheapestFinder}. Only the date and the price of the fare are read, from the
+     * index of the fare.
+     *
+     * @param window Whether the hours must be consecutive.
+     */
+    private Cursor getCheapest(Uri uri, String[] projection, boolean window) {
+        String fare = CheapestEntry.getFareFromUri(uri);
+        HashMap<String, String> columnSources = sFareColumnSources.get(fare);
+        if (columnSources == null) {
+            throw new UnsupportedOperationException("Unknown fare: " + fare);
+        }
+
+        String startDate = PriceEntry.getStartDateFromUri(uri);
+        String endDate = PriceEntry.getEndDateFromUri(uri);
+        String hoursStr = CheapestEntry.getHoursFromUri(uri);
+        if (startDate == null || endDate == null || hoursStr == null) {
+            throw new IllegalArgumentException(
+                    "Cheapest hours need a start date, an end date and a number of hours: " + uri);
+        }
+
+        int hours;
+        try {
+            hours = Integer.parseInt(hoursStr);
+        } catch (NumberFormatException e) {
+            hours = 0;
+        }
+        if (hours <= 0) {
+            throw new IllegalArgumentException(
+                    "The number of hours must be a positive integer: " + uri);
+        }
+
+        String[] columns = projection != null ? projection : sCheapestColumns;
+        int[] columnIndexes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            columnIndexes[i] = Arrays.asList(sCheapestColumns).indexOf(columns[i]);
+            if (columnIndexes[i] == -1) {
+                throw new IllegalArgumentException("Invalid column " + columns[i]);
+            }
+        }
+
+        long[] dates;
+        double[] prices;
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(PriceEntry.TABLE_NAME,
+                new String[]{PriceEntry.COLUMN_DATE,
+                        columnSources.get(PriceEntry.COLUMN_FARE_PRICE)},
+                PriceEntry.COLUMN_DATE + " >= ? AND " + PriceEntry.COLUMN_DATE + " <= ? ",
+                new String[]{startDate, endDate},
+                null, null, PriceEntry.COLUMN_DATE + " ASC");
+        try {
+            dates = new long[cursor.getCount()];
+            prices = new double[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                dates[i] = cursor.getLong(0);
+                prices[i] = cursor.getDouble(1);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int[] positions;
+        if (window) {
+            int start = CheapestFinder.findCheapestWindow(dates, prices, dates.length, hours);
+            positions = new int[start != -1 ? hours : 0];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = start + i;
+            }
+        } else {
+            positions = CheapestFinder.findCheapestHours(prices, prices.length, hours);
+        }
+
+        MatrixCursor cheapest = new MatrixCursor(columns, positions.length);
+        Object[] values = new Object[sCheapestColumns.length];
+        Object[] row = new Object[columns.length];
+        for (int position : positions) {
+            values[0] = dates[position];
+            values[1] = dates[position];
+            values[2] = prices[position];
+            for (int i = 0; i < columns.length; i++) {
+                row[i] = values[columnIndexes[i]];
+            }
+            cheapest.addRow(row);
+        }
+        return cheapest;
+    }
+
+    /**
+     * Query the given table filtering by the date, start date and end date parameters of the
+     * given uri.
+     */
+    private Cursor queryByDate(Uri uri, String table, String dateColumn,
+                               Map<String, String> projectionMap, String[] projection,
+                               String sortOrder) {
         final SQLiteDatabase db = mOpenHelper.getReadableDatabase();
 
+        List<String> selectionArgs = new ArrayList<>();
+        String selection = buildDateSelection(uri, dateColumn, selectionArgs);
+
+        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+        queryBuilder.setTables(table);
+        queryBuilder.setProjectionMap(projectionMap);
+
+        return queryBuilder.query(db,
+                projection,
+                selection,
+                selectionArgs.toArray(new String[selectionArgs.size()]),
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    /**
+     * Build the selection on the given date column matching the date parameters of the given
+     * uri.
+     *
+     * @param selectionArgs List where the arguments of the selection are appended.
+     * @return The selection, or null if the uri has no date parameter.
+     */
+    private String buildDateSelection(Uri uri, String dateColumn, List<String> selectionArgs) {
         String date = PriceEntry.getDateFromUri(uri);
         String startDate = PriceEntry.getStartDateFromUri(uri);
         String endDate = PriceEntry.getEndDateFromUri(uri);
 
         String selection = null;
-        String[] selectionArgs = null;
 
         if (date != null && (startDate != null || endDate != null)) {
             LogUtils.LOGE(LOG_TAG, "Incorrect SQL query statement: ((date >= ? OR date <= ?) AND date = ?)");
         } else if (startDate != null && endDate != null) {
             // date >= ? AND date <= ?
-            selection = sStartDateAndEndDateSelection;
-            selectionArgs = new String[]{startDate, endDate};
+            selection = dateColumn + " >= ? AND " + dateColumn + " <= ? ";
+            selectionArgs.add(startDate);
+            selectionArgs.add(endDate);
         } else if (date != null) {
             // date = ?
-            selection = sDatetSelection;
-            selectionArgs = new String[]{date};
+            selection = dateColumn + " = ? ";
+            selectionArgs.add(date);
         } else if (startDate != null) {
             // date >= ?
-            selection = sStartDateSelection;
-            selectionArgs = new String[]{startDate};
+            selection = dateColumn + " >= ? ";
+            selectionArgs.add(startDate);
         } else if (endDate != null) {
             // date <= ?
-            selection = sEndDatetSelection;
-            selectionArgs = new String[]{endDate};
+            selection = dateColumn + " <= ? ";
+            selectionArgs.add(endDate);
         }
 
-        return db.query(
-                PriceEntry.TABLE_NAME,
-                projection,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                sortOrder
-        );
+        return selection;
     }
 
     @Override
@@ -118,7 +742,17 @@ public class LumiosProvider extends ContentProvider {
 
         switch (match) {
             case PRICE:
+            case PRICE_WITH_FARE:
                 return PriceEntry.CONTENT_TYPE;
+            case DAILY_STATS:
+                return DailyStatsEntry.CONTENT_TYPE;
+            case COVERAGE:
+                return CoverageEntry.CONTENT_TYPE;
+            case SYNC_METRICS:
+                return SyncMetricsEntry.CONTENT_TYPE;
+            case CHEAPEST_WINDOW:
+            case CHEAPEST_HOURS:
+                return CheapestEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -131,16 +765,41 @@ public class LumiosProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
 
         Cursor retCursor;
+        Uri notificationUri;
 
         switch (match) {
             case PRICE:
                 retCursor = getPrice(uri, projection, sortOrder);
+                notificationUri = PriceEntry.getNotificationUri(uri);
+                break;
+            case PRICE_WITH_FARE:
+                retCursor = getPriceByFare(uri, projection, sortOrder);
+                notificationUri = PriceEntry.getNotificationUri(uri);
+                break;
+            case DAILY_STATS:
+                retCursor = getDailyStats(uri, projection, sortOrder);
+                notificationUri = DailyStatsEntry.getNotificationUri(uri);
+                break;
+            case COVERAGE:
+                retCursor = getCoverage(uri, projection);
+                notificationUri = CoverageEntry.getNotificationUri(uri);
+                break;
+            case SYNC_METRICS:
+                retCursor = mOpenHelper.getReadableDatabase().query(SyncMetricsEntry.TABLE_NAME,
+                        projection, selection, selectionArgs, null, null, sortOrder);
+                notificationUri = SyncMetricsEntry.CONTENT_URI;
+                break;
+            case CHEAPEST_WINDOW:
+            case CHEAPEST_HOURS:
+                retCursor = getCheapest(uri, projection, match == CHEAPEST_WINDOW);
+                notificationUri = CheapestEntry.getNotificationUri(uri);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown query uri: " + uri);
         }
 
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // Only wake up when the dates of the query change.
+        retCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
 
         return retCursor;
     }
@@ -152,20 +811,42 @@ public class LumiosProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
 
         Uri returnUri;
+        DailyStatsUpdater statsUpdater = new DailyStatsUpdater();
 
         switch (match) {
             case PRICE:
-                long _id = db.insertOrThrow(PriceEntry.TABLE_NAME, null, values);
-                if (_id > 0)
-                    returnUri = PriceEntry.buildUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                db.beginTransaction();
+                try {
+                    long _id = db.insertOrThrow(PriceEntry.TABLE_NAME, null,
+                            getStoredValues(values));
+                    if (_id > 0)
+                        returnUri = PriceEntry.buildUri(_id);
+                    else
+                        throw new SQLException("Failed to insert row into " + uri);
+
+                    // The _id of a price is its date.
+                    statsUpdater.addDate(_id);
+                    statsUpdater.apply(db);
+
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
+            case SYNC_METRICS: {
+                long _id = db.insertOrThrow(SyncMetricsEntry.TABLE_NAME, null, values);
+                // Keep only the last cycles.
+                db.delete(SyncMetricsEntry.TABLE_NAME, SyncMetricsEntry._ID + " <= ?",
+                        new String[]{String.valueOf(_id - SyncMetricsEntry.MAX_ROWS)});
+                getContext().getContentResolver().notifyChange(SyncMetricsEntry.CONTENT_URI,
+                        null);
+                return ContentUris.withAppendedId(SyncMetricsEntry.CONTENT_URI, _id);
+            }
             default:
                 throw new UnsupportedOperationException("Unknown insert uri: " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyPriceChange(statsUpdater);
 
         return returnUri;
     }
@@ -177,17 +858,32 @@ public class LumiosProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
 
         int rowsUpdated;
+        DailyStatsUpdater statsUpdater = new DailyStatsUpdater();
 
         switch (match) {
             case PRICE:
-                rowsUpdated = db.update(PriceEntry.TABLE_NAME, values, selection, selectionArgs);
+                db.beginTransaction();
+                try {
+                    // Both the days the rows come from and the day they are moved to change.
+                    statsUpdater.addDates(db, selection, selectionArgs);
+                    rowsUpdated = db.update(PriceEntry.TABLE_NAME, getStoredValues(values),
+                            selection, selectionArgs);
+                    if (values.containsKey(PriceEntry.COLUMN_DATE)) {
+                        statsUpdater.addDate(values.getAsLong(PriceEntry.COLUMN_DATE));
+                    }
+                    statsUpdater.apply(db);
+
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown update uri: " + uri);
         }
 
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyPriceChange(statsUpdater);
         }
 
         return rowsUpdated;
@@ -199,10 +895,20 @@ public class LumiosProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
 
         int rowsDeleted;
+        DailyStatsUpdater statsUpdater = new DailyStatsUpdater();
 
         switch (match) {
             case PRICE: {
-                rowsDeleted = db.delete(PriceEntry.TABLE_NAME, selection, selectionArgs);
+                db.beginTransaction();
+                try {
+                    statsUpdater.addDates(db, selection, selectionArgs);
+                    rowsDeleted = db.delete(PriceEntry.TABLE_NAME, selection, selectionArgs);
+                    statsUpdater.apply(db);
+
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             }
             default:
@@ -210,7 +916,7 @@ public class LumiosProvider extends ContentProvider {
         }
 
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyPriceChange(statsUpdater);
         }
 
         return rowsDeleted;
@@ -225,24 +931,190 @@ public class LumiosProvider extends ContentProvider {
             case PRICE:
                 db.beginTransaction();
                 int returnCount = 0;
+                DailyStatsUpdater statsUpdater = new DailyStatsUpdater();
+                // Compile the statement once and only bind the values of each row.
+                SQLiteStatement statement = db.compileStatement(sPriceInsertOrReplace);
                 try {
                     for (ContentValues value : values) {
-                        long _id = db.insert(PriceEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
+                        for (int i = 0; i < sPriceInsertColumns.length; i++) {
+                            bindValue(statement, i + 1, value.get(sPriceInsertColumns[i]));
+                        }
+
+                        try {
+                            long _id = statement.executeInsert();
+                            if (_id != -1) {
+                                statsUpdater.addDate(_id);
+                                returnCount++;
+                            }
+                        } catch (SQLException e) {
+                            // Same as SQLiteDatabase.insert, skip the row and go on.
+                            LogUtils.LOGE(LOG_TAG, "Error inserting " + value, e);
                         }
                     }
+                    statsUpdater.apply(db);
                     db.setTransactionSuccessful();
                 } finally {
+                    statement.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyPriceChange(statsUpdater);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        switch (method) {
+            case PriceEntry.METHOD_MERGE_BATCH:
+                return merge(PriceBatch.fromBundle(extras));
+            case PriceEntry.METHOD_GET_CACHE_STATS: {
+                Bundle result = new Bundle();
+                result.putLong(PriceEntry.EXTRA_CACHE_HIT_COUNT, mWindowCache.getHitCount());
+                result.putLong(PriceEntry.EXTRA_CACHE_MISS_COUNT, mWindowCache.getMissCount());
+                result.putLong(PriceEntry.EXTRA_CACHE_BYPASS_COUNT,
+                        mWindowCache.getBypassCount());
+                result.putLong(PriceEntry.EXTRA_CACHE_HIT_NANOS, mWindowCache.getHitNanos());
+                result.putLong(PriceEntry.EXTRA_CACHE_MISS_NANOS, mWindowCache.getMissNanos());
+                result.putLong(PriceEntry.EXTRA_CACHE_BYPASS_NANOS,
+                        mWindowCache.getBypassNanos());
+                return result;
+            }
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    /**
+     * Merge the given batch into the stored prices, reading the stored window once and writing
+     * only the hours that are new or whose prices changed. Unlike a replace, an update keeps the
+     * row and its index entries in place. The daily stats are only updated, and the change only
+     * notified, for the days actually written.
+     *
+     * @param batch Prices to merge.
+     * @return Bundle holding the number of inserted, updated and unchanged rows, see
+     * {@link PriceEntry#METHOD_MERGE_BATCH}.
+     */
+    private Bundle merge(PriceBatch batch) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        db.beginTransaction();
+        int insertedCount = 0;
+        int updatedCount = 0;
+        int unchangedCount = 0;
+        DailyStatsUpdater statsUpdater = new DailyStatsUpdater();
+        SQLiteStatement insertStatement = db.compileStatement(sPriceInsertOrReplace);
+        SQLiteStatement updateStatement = db.compileStatement(sPriceUpdate);
+        try {
+            PriceBatch storedPrices = getStoredPrices(db, batch);
+            for (int i = 0; i < batch.size(); i++) {
+                long date = batch.getDate(i);
+                int stored = storedPrices.indexOfDate(date);
+                if (stored < 0) {
+                    // Bind in the same order as sPriceInsertColumns.
+                    insertStatement.bindLong(1, date);
+                    insertStatement.bindDouble(2, batch.getPriceGeneral(i));
+                    insertStatement.bindDouble(3, batch.getPriceNight(i));
+                    insertStatement.bindDouble(4, batch.getPriceVehicle(i));
+                    if (insertStatement.executeInsert() != -1) {
+                        statsUpdater.addDate(date);
+                        insertedCount++;
+                    }
+                } else if (Double.compare(batch.getPriceGeneral(i),
+                        storedPrices.getPriceGeneral(stored)) != 0
+                        || Double.compare(batch.getPriceNight(i),
+                        storedPrices.getPriceNight(stored)) != 0
+                        || Double.compare(batch.getPriceVehicle(i),
+                        storedPrices.getPriceVehicle(stored)) != 0) {
+                    // Bind in the same order as sPriceUpdate, with the date at the end.
+                    updateStatement.bindDouble(1, batch.getPriceGeneral(i));
+                    updateStatement.bindDouble(2, batch.getPriceNight(i));
+                    updateStatement.bindDouble(3, batch.getPriceVehicle(i));
+                    updateStatement.bindLong(4, date);
+                    if (updateStatement.executeUpdateDelete() > 0) {
+                        statsUpdater.addDate(date);
+                        updatedCount++;
+                    }
+                } else {
+                    unchangedCount++;
+                }
+            }
+            statsUpdater.apply(db);
+            db.setTransactionSuccessful();
+        } finally {
+            insertStatement.close();
+            updateStatement.close();
+            db.endTransaction();
+        }
+
+        // Nothing is notified if every row was unchanged.
+        notifyPriceChange(statsUpdater);
+
+        Bundle result = new Bundle();
+        result.putInt(PriceEntry.EXTRA_INSERTED_COUNT, insertedCount);
+        result.putInt(PriceEntry.EXTRA_UPDATED_COUNT, updatedCount);
+        result.putInt(PriceEntry.EXTRA_UNCHANGED_COUNT, unchangedCount);
+        return result;
+    }
+
+    /**
+     * @return Prices already stored between the first and the last date of the batch, in
+     * ascending order of date.
+     */
+    private static PriceBatch getStoredPrices(SQLiteDatabase db, PriceBatch batch) {
+        if (batch.size() == 0) {
+            return new PriceBatch(0);
+        }
+
+        long minDate = Long.MAX_VALUE;
+        long maxDate = Long.MIN_VALUE;
+        for (int i = 0; i < batch.size(); i++) {
+            minDate = Math.min(minDate, batch.getDate(i));
+            maxDate = Math.max(maxDate, batch.getDate(i));
+        }
+
+        Cursor cursor = db.query(PriceEntry.TABLE_NAME, sPriceInsertColumns,
+                PriceEntry.COLUMN_DATE + " >= ? AND " + PriceEntry.COLUMN_DATE + " <= ? ",
+                new String[]{String.valueOf(minDate), String.valueOf(maxDate)},
+                null, null, PriceEntry.COLUMN_DATE + " ASC");
+        try {
+            PriceBatch storedPrices = new PriceBatch(cursor.getCount());
+            while (cursor.moveToNext()) {
+                // Read in the same order as sPriceInsertColumns.
+                storedPrices.add(cursor.getLong(0), cursor.getDouble(1), cursor.getDouble(2),
+                        cursor.getDouble(3));
+            }
+            return storedPrices;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Notify a change of the prices of the days written, which is also a change of the daily
+     * stats derived from them, and drop them from the window cache. A single notification is
+     * sent, on the narrowest uri holding every changed day, so observers of other dates are not
+     * woken up.
+     *
+     * @param statsUpdater Updater holding the days written.
+     */
+    private void notifyPriceChange(DailyStatsUpdater statsUpdater) {
+        if (statsUpdater.isEmpty()) {
+            return;
+        }
+
+        long firstDay = statsUpdater.getFirstDay();
+        long lastDay = statsUpdater.getLastDay();
+        mWindowCache.invalidate(firstDay, lastDay);
+
+        getContext().getContentResolver().notifyChange(
+                PriceEntry.buildNotificationUri(firstDay, lastDay), null);
+        getContext().getContentResolver().notifyChange(
+                DailyStatsEntry.buildNotificationUri(firstDay, lastDay), null);
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
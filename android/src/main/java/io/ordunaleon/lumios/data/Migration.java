@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * One step of the upgrade of the database schema, which takes the database from the previous
+ * version to {@link #getVersion()} keeping its data.
+ */
+abstract class Migration {
+
+    private final int mVersion;
+
+    /**
+     * Creates a Migration.
+     *
+     * @param version Version of the database once the migration has been applied.
+     */
+    Migration(int version) {
+        mVersion = version;
+    }
+
+    int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Apply the migration. It runs inside the transaction of the whole upgrade, so it must not
+     * begin or end transactions of its own.
+     *
+     * @param db The database, at the previous version.
+     */
+    abstract void migrate(SQLiteDatabase db);
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.data;
+
+import android.os.Bundle;
+
+import java.util.Arrays;
+
+import io.ordunaleon.lumios.data.LumiosContract.PriceEntry;
+
+/**
+ * Batch of hourly prices stored column by column in primitive arrays, so a whole download can go
+ * from the parser to the database without a map or a boxed value per row.
+ */
+public class PriceBatch {
+
+    private static final String KEY_SIZE = "size";
+
+    private int mSize;
+
+    private long[] mDates;
+    private double[] mPriceGeneral;
+    private double[] mPriceNight;
+    private double[] mPriceVehicle;
+
+    /**
+     * Creates an empty PriceBatch.
+     *
+     * @param capacity Number of prices the batch can hold before growing.
+     */
+    public PriceBatch(int capacity) {
+        mDates = new long[capacity];
+        mPriceGeneral = new double[capacity];
+        mPriceNight = new double[capacity];
+        mPriceVehicle = new double[capacity];
+    }
+
+    private PriceBatch() {
+    }
+
+    /**
+     * Append the prices of one hour to the batch.
+     *
+     * @param date    Start of the hour, in milliseconds since epoch.
+     * @param general Price of the general fare.
+     * @param night   Price of the night fare.
+     * @param vehicle Price of the vehicles fare.
+     */
+    public void add(long date, double general, double night, double vehicle) {
+        if (mSize == mDates.length) {
+            grow();
+        }
+
+        mDates[mSize] = date;
+        mPriceGeneral[mSize] = general;
+        mPriceNight[mSize] = night;
+        mPriceVehicle[mSize] = vehicle;
+        mSize++;
+    }
+
+    /**
+     * Append every price of another batch to this one.
+     *
+     * @param batch Batch whose prices are appended.
+     */
+    public void addAll(PriceBatch batch) {
+        for (int i = 0; i < batch.mSize; i++) {
+            add(batch.mDates[i], batch.mPriceGeneral[i], batch.mPriceNight[i],
+                    batch.mPriceVehicle[i]);
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getDate(int i) {
+        return mDates[i];
+    }
+
+    public double getPriceGeneral(int i) {
+        return mPriceGeneral[i];
+    }
+
+    public double getPriceNight(int i) {
+        return mPriceNight[i];
+    }
+
+    public double getPriceVehicle(int i) {
+        return mPriceVehicle[i];
+    }
+
+    /**
+     * Find the position of a date in the batch. Only valid when the dates of the batch are in
+     * ascending order, like those read from the database ordered by date.
+     *
+     * @param date Date to look for, in milliseconds since epoch.
+     * @return Position of the date, or a negative value if it is not in the batch.
+     */
+    public int indexOfDate(long date) {
+        return Arrays.binarySearch(mDates, 0, mSize, date);
+    }
+
+    /**
+     * Pack the batch into a Bundle, one primitive array per column, so it can be handed to
+     * {@link LumiosProvider} through {@link android.content.ContentResolver#call}.
+     *
+     * @return Bundle holding the batch.
+     */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putInt(KEY_SIZE, mSize);
+        bundle.putLongArray(PriceEntry.COLUMN_DATE, mDates);
+        bundle.putDoubleArray(PriceEntry.COLUMN_PRICE_GENERAL, mPriceGeneral);
+        bundle.putDoubleArray(PriceEntry.COLUMN_PRICE_NIGHT, mPriceNight);
+        bundle.putDoubleArray(PriceEntry.COLUMN_PRICE_VEHICLE, mPriceVehicle);
+        return bundle;
+    }
+
+    /**
+     * Unpack a batch packed with {@link #toBundle()}. The arrays are used as they are, not
+     * copied.
+     *
+     * @param bundle Bundle holding the batch.
+     * @return The unpacked batch.
+     */
+    public static PriceBatch fromBundle(Bundle bundle) {
+        PriceBatch batch = new PriceBatch();
+        batch.mSize = bundle.getInt(KEY_SIZE);
+        batch.mDates = bundle.getLongArray(PriceEntry.COLUMN_DATE);
+        batch.mPriceGeneral = bundle.getDoubleArray(PriceEntry.COLUMN_PRICE_GENERAL);
+        batch.mPriceNight = bundle.getDoubleArray(PriceEntry.COLUMN_PRICE_NIGHT);
+        batch.mPriceVehicle = bundle.getDoubleArray(PriceEntry.COLUMN_PRICE_VEHICLE);
+        return batch;
+    }
+
+    private void grow() {
+        int capacity = Math.max(mDates.length * 2, 1);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mPriceGeneral = Arrays.copyOf(mPriceGeneral, capacity);
+        mPriceNight = Arrays.copyOf(mPriceNight, capacity);
+        mPriceVehicle = Arrays.copyOf(mPriceVehicle, capacity);
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.ordunaleon.lumios.data.LumiosContract.PriceEntry;
+import io.ordunaleon.lumios.utils.DateUtils;
+
+/**
+ * Copy in memory of the prices of today and tomorrow in Spain, the days almost every query asks
+ * for. It is loaded from the price table on the first query after a change, into one primitive
+ * array per column, and queries within it are answered with a {@link PriceWindowCursor} without
+ * touching SQLite.
+ * <p/>
+ * Writes to the price table must call {@link #invalidate} once committed. Loads that race with a
+ * write are thrown away, so a query never sees prices older than the last committed write.
+ */
+final class PriceWindowCache {
+
+    /**
+     * Columns of the price view held by the value arrays, in the order of the arrays.
+     */
+    static final String[] VALUE_COLUMNS = {
+            PriceEntry.COLUMN_PRICE_GENERAL,
+            PriceEntry.COLUMN_AVG_GENERAL,
+            PriceEntry.COLUMN_INCREASE_GENERAL,
+            PriceEntry.COLUMN_PRICE_NIGHT,
+            PriceEntry.COLUMN_AVG_NIGHT,
+            PriceEntry.COLUMN_INCREASE_NIGHT,
+            PriceEntry.COLUMN_PRICE_VEHICLE,
+            PriceEntry.COLUMN_AVG_VEHICLE,
+            PriceEntry.COLUMN_INCREASE_VEHICLE
+    };
+
+    private static final String SORT_ORDER_ASC = PriceEntry.COLUMN_DATE + " ASC";
+
+    private static final String[] LOAD_PROJECTION = new String[VALUE_COLUMNS.length + 1];
+
+    static {
+        LOAD_PROJECTION[0] = PriceEntry.COLUMN_DATE;
+        System.arraycopy(VALUE_COLUMNS, 0, LOAD_PROJECTION, 1, VALUE_COLUMNS.length);
+    }
+
+    // date >= ? AND date < ?
+    private static final String sWindowSelection =
+            PriceEntry.COLUMN_DATE + " >= ? AND " + PriceEntry.COLUMN_DATE + " < ? ";
+
+    // date >= ?
+    private static final String sAfterWindowSelection = PriceEntry.COLUMN_DATE + " >= ? ";
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mBypassCount = new AtomicLong();
+    private final AtomicLong mHitNanos = new AtomicLong();
+    private final AtomicLong mMissNanos = new AtomicLong();
+    private final AtomicLong mBypassNanos = new AtomicLong();
+
+    /**
+     * Loaded window, replaced as a whole on every load so queries can keep using the old one.
+     */
+    private Window mWindow;
+
+    /**
+     * Incremented on every invalidation, so a load that started before can tell it is stale.
+     */
+    private long mGeneration;
+
+    /**
+     * Answer a query of the price table from the cache, loading it first if needed.
+     *
+     * @param db            Database to load the cache from.
+     * @param uri           Uri of the query, holding its date parameters.
+     * @param projection    Columns to return, or null for every column of columnSources.
+     * @param columnSources Column of the price table behind each column that can be returned.
+     * @param sortOrder     Sort order of the query.
+     * @return Cursor with the result, or null if the query is not within the cache. Then it is
+     * up to the caller to query the database and report the time with {@link #recordBypass}.
+     */
+    Cursor query(SQLiteDatabase db, Uri uri, String[] projection,
+                 Map<String, String> columnSources, String sortOrder) {
+        long start = System.nanoTime();
+
+        if (sortOrder != null && !SORT_ORDER_ASC.equalsIgnoreCase(sortOrder.trim())) {
+            return null;
+        }
+
+        String[] columnNames = projection != null
+                ? projection : columnSources.keySet().toArray(new String[columnSources.size()]);
+        int[] sources = getSources(columnNames, columnSources);
+        if (sources == null) {
+            return null;
+        }
+
+        long startDate;
+        long endDate;
+        try {
+            String date = PriceEntry.getDateFromUri(uri);
+            String startDateStr = PriceEntry.getStartDateFromUri(uri);
+            String endDateStr = PriceEntry.getEndDateFromUri(uri);
+            if (date != null) {
+                if (startDateStr != null || endDateStr != null) {
+                    return null;
+                }
+                startDate = Long.parseLong(date);
+                endDate = startDate;
+            } else if (startDateStr != null) {
+                startDate = Long.parseLong(startDateStr);
+                endDate = endDateStr != null ? Long.parseLong(endDateStr) : Long.MAX_VALUE;
+            } else {
+                // Every date before the window would be needed.
+                return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        if (startDate < DateUtils.getDayStart(System.currentTimeMillis())) {
+            // Not worth loading the window for a query which starts before it.
+            return null;
+        }
+
+        boolean loaded = false;
+        Window window = getWindow();
+        if (window == null) {
+            window = load(db);
+            loaded = true;
+        }
+        if (!window.covers(startDate, endDate)) {
+            return null;
+        }
+
+        int from = window.lowerBound(startDate);
+        int to = Math.max(from, window.upperBound(endDate));
+        Cursor cursor = new PriceWindowCursor(columnNames, sources, window.dates, window.values,
+                from, to);
+
+        long nanos = System.nanoTime() - start;
+        if (loaded) {
+            mMissCount.incrementAndGet();
+            mMissNanos.addAndGet(nanos);
+        } else {
+            mHitCount.incrementAndGet();
+            mHitNanos.addAndGet(nanos);
+        }
+        return cursor;
+    }
+
+    /**
+     * Record a query that could not be answered from the cache.
+     *
+     * @param nanos Time the query took.
+     */
+    void recordBypass(long nanos) {
+        mBypassCount.incrementAndGet();
+        mBypassNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Drop the cache if the given days overlap it. Must be called after the write is committed.
+     *
+     * @param firstDay Start of the first day written, in milliseconds since epoch.
+     * @param lastDay  Start of the last day written, in milliseconds since epoch.
+     */
+    synchronized void invalidate(long firstDay, long lastDay) {
+        mGeneration++;
+        // Days after the window matter too: the cache tells whether there is any of them.
+        if (mWindow != null && lastDay >= mWindow.start) {
+            mWindow = null;
+        }
+    }
+
+    /**
+     * Queries answered from a loaded cache.
+     */
+    long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * Queries answered from the cache after loading it.
+     */
+    long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Queries out of the cache, answered by the database.
+     */
+    long getBypassCount() {
+        return mBypassCount.get();
+    }
+
+    long getHitNanos() {
+        return mHitNanos.get();
+    }
+
+    long getMissNanos() {
+        return mMissNanos.get();
+    }
+
+    long getBypassNanos() {
+        return mBypassNanos.get();
+    }
+
+    /**
+     * @return The loaded window, or null if there is none or it no longer starts today.
+     */
+    private synchronized Window getWindow() {
+        if (mWindow != null
+                && mWindow.start != DateUtils.getDayStart(System.currentTimeMillis())) {
+            mWindow = null;
+        }
+        return mWindow;
+    }
+
+    private Window load(SQLiteDatabase db) {
+        long generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+
+        long windowStart = DateUtils.getDayStart(System.currentTimeMillis());
+        long windowEnd = DateUtils.getNextDayStart(DateUtils.getNextDayStart(windowStart));
+
+        Window window;
+        Cursor cursor = db.query(PriceEntry.VIEW_NAME, LOAD_PROJECTION, sWindowSelection,
+                new String[]{String.valueOf(windowStart), String.valueOf(windowEnd)},
+                null, null, SORT_ORDER_ASC);
+        try {
+            int count = cursor.getCount();
+            long[] dates = new long[count];
+            double[][] values = new double[VALUE_COLUMNS.length][count];
+            for (int row = 0; cursor.moveToNext(); row++) {
+                dates[row] = cursor.getLong(0);
+                for (int i = 0; i < VALUE_COLUMNS.length; i++) {
+                    // NaN stands for NULL, see PriceWindowCursor.
+                    values[i][row] = cursor.isNull(i + 1) ? Double.NaN : cursor.getDouble(i + 1);
+                }
+            }
+            window = new Window(windowStart, windowEnd, dates, values, hasRowsFrom(db, windowEnd));
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (this) {
+            // Keep it only if no write has been committed since the load started.
+            if (generation == mGeneration) {
+                mWindow = window;
+            }
+        }
+        return window;
+    }
+
+    private static boolean hasRowsFrom(SQLiteDatabase db, long date) {
+        Cursor cursor = db.query(PriceEntry.TABLE_NAME, new String[]{PriceEntry.COLUMN_DATE},
+                sAfterWindowSelection, new String[]{String.valueOf(date)}, null, null, null, "1");
+        try {
+            return cursor.getCount() > 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return For each of the given columns, the index of its value array or
+     * {@link PriceWindowCursor#SOURCE_DATE}, or null if any of them is not held by the cache.
+     */
+    private static int[] getSources(String[] columnNames, Map<String, String> columnSources) {
+        int[] sources = new int[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            String source = columnSources.get(columnNames[i]);
+            if (source == null) {
+                return null;
+            }
+            if (source.equals(PriceEntry.COLUMN_DATE)) {
+                sources[i] = PriceWindowCursor.SOURCE_DATE;
+            } else {
+                sources[i] = Arrays.asList(VALUE_COLUMNS).indexOf(source);
+                if (sources[i] == -1) {
+                    return null;
+                }
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Prices from start (included) to end (excluded), sorted by date.
+     */
+    private static final class Window {
+        final long start;
+        final long end;
+        final long[] dates;
+        final double[][] values;
+        final boolean hasRowsAfter;
+
+        Window(long start, long end, long[] dates, double[][] values, boolean hasRowsAfter) {
+            this.start = start;
+            this.end = end;
+            this.dates = dates;
+            this.values = values;
+            this.hasRowsAfter = hasRowsAfter;
+        }
+
+        /**
+         * @return True if every row from startDate to endDate, both included, is in the window.
+         */
+        boolean covers(long startDate, long endDate) {
+            return startDate >= start && (endDate < end || !hasRowsAfter);
+        }
+
+        /**
+         * @return Index of the first row whose date is not before the given one.
+         */
+        int lowerBound(long date) {
+            int i = Arrays.binarySearch(dates, date);
+            return i >= 0 ? i : -i - 1;
+        }
+
+        /**
+         * @return Index of the first row whose date is after the given one.
+         */
+        int upperBound(long date) {
+            int i = Arrays.binarySearch(dates, date);
+            return i >= 0 ? i + 1 : -i - 1;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.data;
+
+import android.database.AbstractCursor;
+
+/**
+ * Read-only cursor over a range of the primitive arrays of {@link PriceWindowCache}. Unlike a
+ * MatrixCursor, values are read straight from the arrays, with no row copied or boxed. The arrays
+ * are never modified once loaded, so the cursor stays valid after the cache moves on.
+ * <p/>
+ * A NULL value, such as the average of an hour whose day has no stats yet, is held as NaN in the
+ * arrays. SQLite never stores NaN, so there is no real value to mistake for it. As with a
+ * SQLiteCursor, a NULL reads as 0 from the numeric getters and as null from getString.
+ */
+final class PriceWindowCursor extends AbstractCursor {
+
+    /**
+     * Source of a column meaning the date array instead of one of the value arrays.
+     */
+    static final int SOURCE_DATE = -1;
+
+    private final String[] mColumnNames;
+    private final int[] mSources;
+    private final long[] mDates;
+    private final double[][] mValues;
+    private final int mFrom;
+    private final int mCount;
+
+    /**
+     * Creates a PriceWindowCursor.
+     *
+     * @param columnNames Names of the columns.
+     * @param sources     For each column, the index of its array in values, or
+     *                    {@link #SOURCE_DATE}.
+     * @param dates       Dates of the rows.
+     * @param values      Value arrays, parallel to dates.
+     * @param from        First row of the arrays in the cursor.
+     * @param to          Row of the arrays after the last one in the cursor.
+     */
+    PriceWindowCursor(String[] columnNames, int[] sources, long[] dates, double[][] values,
+                      int from, int to) {
+        mColumnNames = columnNames;
+        mSources = sources;
+        mDates = dates;
+        mValues = values;
+        mFrom = from;
+        mCount = to - from;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public int getType(int column) {
+        if (mSources[column] == SOURCE_DATE) {
+            return FIELD_TYPE_INTEGER;
+        }
+        return isNull(column) ? FIELD_TYPE_NULL : FIELD_TYPE_FLOAT;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        int source = mSources[column];
+        return source != SOURCE_DATE && Double.isNaN(mValues[source][mFrom + getPosition()]);
+    }
+
+    @Override
+    public long getLong(int column) {
+        int source = mSources[column];
+        return source == SOURCE_DATE ? mDates[mFrom + getPosition()] : (long) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        int source = mSources[column];
+        int row = mFrom + getPosition();
+        if (source == SOURCE_DATE) {
+            return mDates[row];
+        }
+        double value = mValues[source][row];
+        return Double.isNaN(value) ? 0 : value;
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public String getString(int column) {
+        if (mSources[column] == SOURCE_DATE) {
+            return String.valueOf(getLong(column));
+        }
+        return isNull(column) ? null : String.valueOf(getDouble(column));
+    }
+}
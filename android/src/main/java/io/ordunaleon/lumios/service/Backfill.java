@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.service;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import io.ordunaleon.lumios.utils.DateCodec;
+import io.ordunaleon.lumios.utils.PrefUtils;
+
+import static io.ordunaleon.lumios.data.LumiosContract.CoverageEntry;
+
+/**
+ * Plans the download of the prices of the past days missing in the database, so a fresh install
+ * shows the history and not only the days pushed since it was installed.
+ * <p/>
+ * The backfill walks back from today one calendar month at a time. Each month is a chunk: its
+ * missing days are downloaded together and stored in a single transaction, which notifies a
+ * single month of the price tree. The progress is written to the preferences after every chunk,
+ * so the backfill resumes where it stopped after the death of the process.
+ * <p/>
+ * A chunk with any day failed is downloaded again, but only {@link #MAX_CHUNK_ATTEMPTS} times:
+ * the archive may never serve a day, and the backfill would not get past it. The attempts are
+ * kept in the preferences too, so they add up across restarts.
+ * <p/>
+ * It is not thread safe: {@link LumiosDownloadService} uses it from its worker thread only.
+ */
+final class Backfill {
+
+    static final int DEFAULT_YEARS = 5;
+
+    // Attempts of a chunk with failed days before its missing days are given up.
+    static final int MAX_CHUNK_ATTEMPTS = 3;
+
+    // Esios archive with the prices of a whole day, by date in the form yyyy-MM-dd.
+    private static final String ARCHIVE_URL =
+            "https://api.esios.ree.es/archives/70/download_json?locale=es&date=%04d-%02d-%02d";
+
+    // First day with PVPC prices: 2014-04-01.
+    private static final long FIRST_DAY = DateCodec.daysFromCivil(2014, 4, 1);
+
+    private final Context mContext;
+
+    // First day of the chunk returned by nextChunk(), until it is finished.
+    private long mChunkStartDay = -1;
+
+    Backfill(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Plan the backfill of the given number of years, counting back from today, unless there is
+     * one in progress already.
+     *
+     * @return False if the backfill has already been completed.
+     */
+    boolean begin(int years) {
+        if (PrefUtils.isBackfillDone(mContext)) {
+            return false;
+        }
+
+        if (PrefUtils.getBackfillStartDay(mContext) == -1
+                || PrefUtils.getBackfillEndDay(mContext) == -1) {
+            long today = DateCodec.getSpainDays(System.currentTimeMillis());
+            int civil = DateCodec.civilFromDays(today);
+            long startDay = Math.max(FIRST_DAY, DateCodec.daysFromCivil(civil / 10000 - years,
+                    civil / 100 % 100, 1));
+            PrefUtils.setBackfillRange(mContext, startDay, today + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Find the next chunk with missing days. Chunks without any are skipped, and the backfill is
+     * marked as completed once there are no more chunks.
+     *
+     * @return Archive URL of every missing day of the chunk, or null if the backfill is done.
+     */
+    String[] nextChunk() {
+        long startDay = PrefUtils.getBackfillStartDay(mContext);
+        long endDay = PrefUtils.getBackfillEndDay(mContext);
+        if (startDay == -1 || endDay == -1) {
+            return null;
+        }
+
+        while (endDay > startDay) {
+            int civil = DateCodec.civilFromDays(endDay - 1);
+            long chunkStartDay = Math.max(startDay,
+                    DateCodec.daysFromCivil(civil / 10000, civil / 100 % 100, 1));
+
+            String[] urlStrArray = getMissingDayUrls(chunkStartDay, endDay);
+            if (urlStrArray.length > 0) {
+                mChunkStartDay = chunkStartDay;
+                return urlStrArray;
+            }
+
+            endDay = chunkStartDay;
+            PrefUtils.setBackfillRange(mContext, startDay, endDay);
+        }
+
+        PrefUtils.setBackfillDone(mContext);
+        return null;
+    }
+
+    /**
+     * Record that every day of the chunk returned by the last call to {@link #nextChunk()} has
+     * been downloaded and stored, so the backfill moves on to the previous chunk. It must not be
+     * called when any day of the chunk failed: the next call to {@link #nextChunk()} returns the
+     * days of that chunk still missing instead, so the backfill is never marked as completed
+     * while they are, unless {@link #failChunk()} gives them up.
+     */
+    void finishChunk() {
+        if (mChunkStartDay != -1) {
+            PrefUtils.setBackfillRange(mContext, PrefUtils.getBackfillStartDay(mContext),
+                    mChunkStartDay);
+            mChunkStartDay = -1;
+        }
+    }
+
+    /**
+     * Record that some day of the chunk returned by the last call to {@link #nextChunk()} has
+     * failed. Once the chunk has failed {@link #MAX_CHUNK_ATTEMPTS} times, its missing days are
+     * given up and the backfill moves on to the previous chunk as if it had been finished.
+     *
+     * @return True if the missing days of the chunk have been given up.
+     */
+    boolean failChunk() {
+        if (mChunkStartDay == -1) {
+            return false;
+        }
+
+        int attempts = PrefUtils.getBackfillChunkAttempts(mContext) + 1;
+        if (attempts < MAX_CHUNK_ATTEMPTS) {
+            PrefUtils.setBackfillChunkAttempts(mContext, attempts);
+            mChunkStartDay = -1;
+            return false;
+        }
+
+        finishChunk();
+        return true;
+    }
+
+    /**
+     * @return Archive URL of every day from startDay (included) to endDay (excluded) with any
+     * hour missing, as told by the coverage of the data layer.
+     */
+    private String[] getMissingDayUrls(long startDay, long endDay) {
+        List<String> urlStrList = new ArrayList<>();
+
+        Cursor cursor = mContext.getContentResolver().query(
+                CoverageEntry.buildUriWithStartDayAndEndDay(
+                        DateCodec.getSpainMidnight(startDay),
+                        DateCodec.getSpainMidnight(endDay - 1)),
+                new String[]{CoverageEntry.COLUMN_DAY, CoverageEntry.COLUMN_MISSING_MASK},
+                null, null, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    if (cursor.getInt(1) != 0) {
+                        int civil = DateCodec.civilFromDays(
+                                DateCodec.getSpainDays(cursor.getLong(0)));
+                        urlStrList.add(String.format(Locale.US, ARCHIVE_URL,
+                                civil / 10000, civil / 100 % 100, civil % 100));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        return urlStrList.toArray(new String[urlStrList.size()]);
+    }
+}
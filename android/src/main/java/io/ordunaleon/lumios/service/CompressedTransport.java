@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Negotiates a compressed transfer of an HTTP response and decompresses it while it is read.
+ * <p/>
+ * Asking explicitly for gzip or deflate turns off the transparent decompression of
+ * {@link HttpURLConnection}, so the response has to be decoded here. In exchange, both the bytes
+ * received from the network and the bytes once decoded can be counted.
+ */
+public class CompressedTransport {
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_DEFLATE = "deflate";
+
+    /**
+     * Process-wide counters of bytes received from the network and bytes once decoded.
+     */
+    private static final AtomicLong sTotalWireBytes = new AtomicLong();
+    private static final AtomicLong sTotalDecodedBytes = new AtomicLong();
+
+    private CountingInputStream mWireStream;
+    private CountingInputStream mDecodedStream;
+
+    private CompressedTransport() {
+    }
+
+    /**
+     * Ask the server for a compressed response. Must be called before the connection is
+     * connected.
+     *
+     * @param urlConnection Connection which is going to request the URL.
+     * @return Transport to be used to open the body of the response.
+     */
+    public static CompressedTransport negotiate(HttpURLConnection urlConnection) {
+        urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING,
+                ENCODING_GZIP + ", " + ENCODING_DEFLATE);
+        return new CompressedTransport();
+    }
+
+    public static long getTotalWireBytes() {
+        return sTotalWireBytes.get();
+    }
+
+    public static long getTotalDecodedBytes() {
+        return sTotalDecodedBytes.get();
+    }
+
+    /**
+     * Wrap the body of the response with the decoder matching its content encoding.
+     *
+     * @param urlConnection Connection already connected.
+     * @param inputStream   Body of the response, as received from the network.
+     * @return Stream of the decoded body.
+     * @throws IOException when the body is not a valid compressed stream.
+     */
+    public InputStream open(HttpURLConnection urlConnection, InputStream inputStream)
+            throws IOException {
+        mWireStream = new CountingInputStream(inputStream, sTotalWireBytes);
+
+        InputStream decoded;
+        String encoding = urlConnection.getContentEncoding();
+        if (ENCODING_GZIP.equalsIgnoreCase(encoding)) {
+            decoded = new GZIPInputStream(mWireStream);
+        } else if (ENCODING_DEFLATE.equalsIgnoreCase(encoding)) {
+            decoded = new InflaterInputStream(mWireStream);
+        } else {
+            decoded = mWireStream;
+        }
+
+        mDecodedStream = new CountingInputStream(decoded, sTotalDecodedBytes);
+        return mDecodedStream;
+    }
+
+    /**
+     * @return Number of bytes of the body read from the network so far.
+     */
+    public long getWireBytes() {
+        return mWireStream != null ? mWireStream.getCount() : 0;
+    }
+
+    /**
+     * @return Number of bytes of the body decoded so far.
+     */
+    public long getDecodedBytes() {
+        return mDecodedStream != null ? mDecodedStream.getCount() : 0;
+    }
+
+    /**
+     * Stream that counts the bytes read from it, adding them to a shared total as well.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private final AtomicLong mTotal;
+        private long mCount;
+
+        CountingInputStream(InputStream in, AtomicLong total) {
+            super(in);
+            mTotal = total;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int n = super.read(buffer, offset, count);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void count(long n) {
+            mCount += n;
+            mTotal.addAndGet(n);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import io.ordunaleon.lumios.utils.LogUtils;
+
+import static io.ordunaleon.lumios.utils.LogUtils.LOGW;
+
+/**
+ * Runs a task over an array of URLs using a bounded number of threads. Every URL is retried with
+ * exponential backoff when it fails with an {@link IOException}, and the results are returned in
+ * the same order as the URLs were given, whatever the order they finished in.
+ */
+public class DownloadEngine {
+
+    private final String LOG_TAG = LogUtils.makeLogTag(this.getClass());
+
+    private final int mMaxConcurrency;
+    private final int mMaxAttempts;
+    private final long mInitialBackoffMillis;
+
+    /**
+     * Work to be done for each URL, typically download and parse its content.
+     *
+     * @param <T> Type of the value produced for each URL.
+     */
+    public interface Task<T> {
+        T run(String url) throws Exception;
+    }
+
+    /**
+     * Outcome of the task for a single URL.
+     *
+     * @param <T> Type of the value produced for each URL.
+     */
+    public static class Result<T> {
+        private final String url;
+        private final T value;
+        private final Exception error;
+        private final int attempts;
+
+        Result(String url, T value, Exception error, int attempts) {
+            this.url = url;
+            this.value = value;
+            this.error = error;
+            this.attempts = attempts;
+        }
+
+        public boolean isSuccessful() {
+            return error == null;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+
+    /**
+     * Creates a DownloadEngine.
+     *
+     * @param maxConcurrency       Maximum number of URLs processed at the same time.
+     * @param maxAttempts          Maximum number of times a URL is tried before giving up.
+     * @param initialBackoffMillis Time to wait before the first retry, doubled on every retry.
+     */
+    public DownloadEngine(int maxConcurrency, int maxAttempts, long initialBackoffMillis) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException(maxConcurrency + " is not a valid concurrency");
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException(maxAttempts + " is not a valid number of attempts");
+        }
+
+        mMaxConcurrency = maxConcurrency;
+        mMaxAttempts = maxAttempts;
+        mInitialBackoffMillis = initialBackoffMillis;
+    }
+
+    /**
+     * Run the given task over every URL and wait until all of them are done.
+     *
+     * @param urls URLs to process.
+     * @param task Work to be done for each URL.
+     * @param <T>  Type of the value produced for each URL.
+     * @return One result per URL, in the same order as the given URLs.
+     */
+    public <T> List<Result<T>> execute(String[] urls, final Task<T> task) {
+        List<Result<T>> results = new ArrayList<>(urls.length);
+        if (urls.length == 0) {
+            return results;
+        }
+
+        ExecutorService executor =
+                Executors.newFixedThreadPool(Math.min(mMaxConcurrency, urls.length));
+        try {
+            List<Future<Result<T>>> futures = new ArrayList<>(urls.length);
+            for (final String url : urls) {
+                futures.add(executor.submit(new Callable<Result<T>>() {
+                    @Override
+                    public Result<T> call() throws Exception {
+                        return runWithRetries(url, task);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < urls.length; i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(new Result<T>(urls[i], null, e, 0));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    results.add(new Result<T>(urls[i], null, e, 0));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return results;
+    }
+
+    private <T> Result<T> runWithRetries(String url, Task<T> task) {
+        long backoff = mInitialBackoffMillis;
+        int attempt = 0;
+
+        while (true) {
+            attempt++;
+            try {
+                return new Result<>(url, task.run(url), null, attempt);
+            } catch (IOException e) {
+                // Network errors are worth a retry, unless we are out of attempts.
+                if (attempt >= mMaxAttempts) {
+                    return new Result<>(url, null, e, attempt);
+                }
+                LOGW(LOG_TAG, "Attempt " + attempt + " failed for " + url + ", retrying in "
+                        + backoff + " ms", e);
+            } catch (Exception e) {
+                // Any other error would happen again, so give up right away.
+                return new Result<>(url, null, e, attempt);
+            }
+
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new Result<>(url, null, e, attempt);
+            }
+            backoff *= 2;
+        }
+    }
+}
@@ -17,313 +17,579 @@
 
 package io.ordunaleon.lumios.service;
 
-import android.app.IntentService;
-import android.content.ContentValues;
+import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
 
-import com.google.gson.Gson;
-import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.text.ParseException;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
+import io.ordunaleon.lumios.data.PriceBatch;
 import io.ordunaleon.lumios.utils.DateUtils;
 import io.ordunaleon.lumios.utils.LogUtils;
+import io.ordunaleon.lumios.utils.PrefUtils;
 
 import static io.ordunaleon.lumios.data.LumiosContract.PriceEntry;
+import static io.ordunaleon.lumios.data.LumiosContract.SyncMetricsEntry;
 import static io.ordunaleon.lumios.utils.LogUtils.LOGE;
+import static io.ordunaleon.lumios.utils.LogUtils.LOGI;
 import static io.ordunaleon.lumios.utils.LogUtils.LOGV;
-
-public class LumiosDownloadService extends IntentService {
+import static io.ordunaleon.lumios.utils.LogUtils.LOGW;
+
+/**
+ * Downloads and stores prices, working through a queue on a single background thread.
+ * <p/>
+ * Requests are coalesced while they wait: a URL requested several times is downloaded once, and
+ * every pending URL is downloaded and stored together, in a single transaction. URLs pushed for
+ * today and tomorrow always go first; the history backfill only runs a chunk when no other URL
+ * is pending, and pauses between chunks.
+ */
+public class LumiosDownloadService extends Service {
 
     private final String LOG_TAG = LogUtils.makeLogTag(this.getClass());
 
     protected final static String EXTRA_URL_KEY = "url";
     protected final static String EXTRA_URL_ARRAY_KEY = "url_array";
 
-    /**
-     * Creates a LumiosDownloadService. Invoked by your subclass's constructor.
-     */
-    public LumiosDownloadService() {
-        super("LumiosDownloadService");
-    }
+    protected final static String EXTRA_MAX_CONCURRENCY_KEY = "max_concurrency";
 
-    /**
-     * Creates a LumiosDownloadService. Invoked by your subclass's constructor.
-     *
-     * @param name Used to name the worker thread, important only for debugging.
-     */
-    public LumiosDownloadService(String name) {
-        super(name);
-    }
+    private static final String ACTION_BACKFILL = "io.ordunaleon.lumios.action.BACKFILL";
+    private static final String EXTRA_YEARS_KEY = "years";
 
-    @Override
-    protected void onHandleIntent(Intent intent) {
-        String[] urlStrArray = intent.getStringArrayExtra(EXTRA_URL_ARRAY_KEY);
+    // Key of the array holding the hourly prices in the Esios response.
+    private static final String JSON_PVPC_ARRAY = "PVPC";
 
-        if (urlStrArray == null) {
-            urlStrArray = new String[]{intent.getStringExtra(EXTRA_URL_KEY)};
-        }
+    // Keys of each price object in the Esios response.
+    private static final String JSON_DAY = "Dia";
+    private static final String JSON_HOUR = "Hora";
+    private static final String JSON_GENERAL = "GEN";
+    private static final String JSON_NIGHT = "NOC";
+    private static final String JSON_VEHICLE = "VHC";
 
-        HttpURLConnection urlConnection;
-        BufferedReader reader;
-        String rawData;
+    // Esios serves its JSON documents encoded in UTF-8.
+    private static final Charset CHARSET_UTF_8 = Charset.forName("UTF-8");
 
-        // For each URL, download, parse and store data.
-        for (String urlStr : urlStrArray) {
-            urlConnection = null;
-            reader = null;
-            rawData = null;
+    private static final int HOURS_PER_DAY = 24;
 
-            try {
-                URL url = new URL(urlStr);
+    // Download settings: parallel downloads and retries of a failed download.
+    private static final int DEFAULT_MAX_CONCURRENCY = 4;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
 
-                urlConnection = (HttpURLConnection) url.openConnection();
-                urlConnection.setRequestMethod("GET");
-                urlConnection.connect();
+    // Backfill settings: fewer parallel downloads than a sync, and a pause between chunks.
+    private static final int BACKFILL_MAX_CONCURRENCY = 2;
+    private static final long BACKFILL_CHUNK_DELAY_MILLIS = 2000;
 
-                InputStream inputStream = urlConnection.getInputStream();
-                StringBuilder buffer = new StringBuilder();
-                if (inputStream == null) {
-                    return;
-                }
-                reader = new BufferedReader(new InputStreamReader(inputStream));
+    private static final int MSG_DRAIN = 1;
 
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    buffer.append(line).append("\n");
-                }
+    private ResponseCache mResponseCache;
 
-                if (buffer.length() == 0) {
-                    // Stream was empty. No point in parsing.
-                    return;
-                }
+    private HandlerThread mWorkerThread;
+    private Handler mWorkerHandler;
 
-                rawData = buffer.toString();
-            } catch (IOException e) {
-                LOGE(LOG_TAG, "Error ", e);
-                return;
-            } finally {
-                if (urlConnection != null) {
-                    urlConnection.disconnect();
+    // Only used on the worker thread.
+    private Backfill mBackfill;
+    private long mNextBackfillUptime;
+
+    // Pending requests, guarded by mLock. Each URL is held once however many times it is asked.
+    private final Object mLock = new Object();
+    private final Set<String> mPendingUrls = new LinkedHashSet<>();
+    // Highest concurrency asked by the pending requests, or 0 if none of them asked for one.
+    private int mPendingMaxConcurrency;
+    private int mBackfillYears;
+    private boolean mBackfillRequested;
+    private int mLastStartId;
+
+    /**
+     * Start the backfill of the price history, or resume the one in progress, unless it has
+     * already been completed.
+     *
+     * @param context The context.
+     */
+    public static void startBackfillIfNeeded(Context context) {
+        if (!PrefUtils.isBackfillDone(context)) {
+            Intent intent = new Intent(context, LumiosDownloadService.class);
+            intent.setAction(ACTION_BACKFILL);
+            intent.putExtra(EXTRA_YEARS_KEY, Backfill.DEFAULT_YEARS);
+            context.startService(intent);
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mResponseCache = new ResponseCache(this);
+        mBackfill = new Backfill(this);
+
+        // Keep the downloads from competing with the UI thread.
+        mWorkerThread = new HandlerThread("LumiosDownloadService",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        mWorkerThread.start();
+        mWorkerHandler = new Handler(mWorkerThread.getLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                drain();
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        synchronized (mLock) {
+            mLastStartId = startId;
+            if (intent != null && ACTION_BACKFILL.equals(intent.getAction())) {
+                mBackfillRequested = true;
+                mBackfillYears = intent.getIntExtra(EXTRA_YEARS_KEY, Backfill.DEFAULT_YEARS);
+            } else if (intent != null) {
+                String[] urlStrArray = intent.getStringArrayExtra(EXTRA_URL_ARRAY_KEY);
+                if (urlStrArray == null) {
+                    urlStrArray = new String[]{intent.getStringExtra(EXTRA_URL_KEY)};
                 }
-                if (reader != null) {
-                    try {
-                        reader.close();
-                    } catch (final IOException e) {
-                        LOGE(LOG_TAG, "Error closing stream", e);
+                for (String urlStr : urlStrArray) {
+                    if (urlStr != null) {
+                        mPendingUrls.add(urlStr);
                     }
                 }
-            }
-
-            try {
-                // Parse and store data.
-                processRawData(rawData);
-            } catch (JSONException | ParseException e) {
-                e.printStackTrace();
+                mPendingMaxConcurrency = Math.max(mPendingMaxConcurrency,
+                        intent.getIntExtra(EXTRA_MAX_CONCURRENCY_KEY, 0));
             }
         }
-    }
 
-    private void processRawData(String rawData) throws JSONException, ParseException {
-        Gson gson = new Gson();
+        // Wake the worker up now, even if it was waiting to run the next backfill chunk.
+        mWorkerHandler.removeMessages(MSG_DRAIN);
+        mWorkerHandler.sendEmptyMessage(MSG_DRAIN);
 
-        // Get JSONArray from rawData.
-        JSONObject rawDataJson = new JSONObject(rawData);
-        JSONArray pricesJsonArray = rawDataJson.getJSONArray("PVPC");
-
-        // Deserialize JSONArray into priceArray.
-        Price[] priceArray = gson.fromJson(pricesJsonArray.toString(), Price[].class);
+        // Requests not handled yet are delivered again if the process dies.
+        return START_REDELIVER_INTENT;
+    }
 
-        Vector<ContentValues> cVVector = new Vector<>(priceArray.length);
+    @Override
+    public void onDestroy() {
+        mWorkerThread.quit();
+        super.onDestroy();
+    }
 
-        // Normalize data and calculate the average of these. Every time we do this is with
-        // information of one day, so the average corresponds to the period of a day.
-        double sumGeneral = 0;
-        double sumNight = 0;
-        double sumVehicle = 0;
-        for (Price price : priceArray) {
-            price.normalize();
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
 
-            sumGeneral += price.getPriceGeneral();
-            sumNight += price.getPriceNight();
-            sumVehicle += price.getPriceVehicle();
+    /**
+     * Handle the pending requests, on the worker thread: first every pending URL, as a single
+     * batch, then one backfill chunk at a time. The service stops once there is nothing left.
+     */
+    private void drain() {
+        String[] urlStrArray;
+        int maxConcurrency;
+        boolean backfillRequested;
+        int backfillYears;
+        int startId;
+        synchronized (mLock) {
+            urlStrArray = mPendingUrls.toArray(new String[mPendingUrls.size()]);
+            mPendingUrls.clear();
+            maxConcurrency = mPendingMaxConcurrency > 0
+                    ? mPendingMaxConcurrency : DEFAULT_MAX_CONCURRENCY;
+            mPendingMaxConcurrency = 0;
+            backfillRequested = mBackfillRequested;
+            backfillYears = mBackfillYears;
+            startId = mLastStartId;
         }
 
-        double avgGeneral = sumGeneral / priceArray.length;
-        double avgNight = sumNight / priceArray.length;
-        double avgVehicle = sumVehicle / priceArray.length;
-        for (Price price : priceArray) {
-            price.setAvgGeneral(avgGeneral);
-            price.setIncreaseGeneral((price.getPriceGeneral() / avgGeneral) * 100);
-
-            price.setAvgNight(avgNight);
-            price.setIncreaseNight((price.getPriceNight() / avgNight) * 100);
-
-            price.setAvgVehicle(avgVehicle);
-            price.setIncreaseVehicle((price.getPriceVehicle() / avgVehicle) * 100);
-
-            cVVector.add(price.toContentValues());
+        if (urlStrArray.length > 0) {
+            sync(urlStrArray, maxConcurrency);
+            // Check again, there may be more requests by now.
+            mWorkerHandler.sendEmptyMessage(MSG_DRAIN);
+            return;
         }
 
-        LOGV(LOG_TAG, "Sync complete: " + priceArray.length + " new prices have been downloaded.");
-
-        // Store values in database
-        if (cVVector.size() > 0) {
-            ContentValues[] cvArray = new ContentValues[cVVector.size()];
-            cVVector.toArray(cvArray);
+        if (backfillRequested) {
+            long delay = mNextBackfillUptime - SystemClock.uptimeMillis();
+            if (delay > 0) {
+                mWorkerHandler.sendEmptyMessageDelayed(MSG_DRAIN, delay);
+                return;
+            }
+            if (backfillChunk(backfillYears)) {
+                mNextBackfillUptime = SystemClock.uptimeMillis() + BACKFILL_CHUNK_DELAY_MILLIS;
+                mWorkerHandler.sendEmptyMessageDelayed(MSG_DRAIN, BACKFILL_CHUNK_DELAY_MILLIS);
+                return;
+            }
+        }
 
-            int result = getContentResolver().bulkInsert(PriceEntry.CONTENT_URI, cvArray);
-            LOGV(LOG_TAG, "Store complete: " + result + " new prices have been stored in db.");
+        synchronized (mLock) {
+            if (startId != mLastStartId) {
+                // A request came in meanwhile and has already woken the worker up again.
+                return;
+            }
+            mBackfillRequested = false;
         }
+        stopSelf(startId);
     }
 
-    public static class Price {
-
-        // Attributes for deserialization.
-        @SerializedName("Dia")
-        private final String day;
-        @SerializedName("Hora")
-        private final String hour;
-        @SerializedName("GEN")
-        private final String general;
-        @SerializedName("NOC")
-        private final String night;
-        @SerializedName("VHC")
-        private final String vehicle;
-
-        // Standardized attributes for storage.
-        private String isoDateUTC;
-        private double priceGeneral;
-        private double avgGeneral;
-        private double increaseGeneral;
-        private double priceNight;
-        private double avgNight;
-        private double increaseNight;
-        private double priceVehicle;
-        private double avgVehicle;
-        private double increaseVehicle;
-
-        public Price(String day, String hour, String general, String night, String vehicle) {
-            this.day = day;
-            this.hour = hour;
-            this.general = general;
-            this.night = night;
-            this.vehicle = vehicle;
+    /**
+     * Download every given URL and store all of their prices in a single transaction.
+     */
+    private void sync(String[] urlStrArray, int maxConcurrency) {
+        SyncMetrics metrics = new SyncMetrics(SyncMetricsEntry.KIND_SYNC);
+        List<ResponseCache.Editor> cacheEditors =
+                Collections.synchronizedList(new ArrayList<ResponseCache.Editor>());
+        List<DownloadEngine.Result<PriceBatch>> results = downloadAll(urlStrArray,
+                maxConcurrency, cacheEditors, metrics);
+        int failedCount = storeAll(results, metrics);
+        int syncedCount = 0;
+        if (failedCount >= 0) {
+            syncedCount = results.size() - failedCount;
+            // Only now may the next download of these URLs be skipped.
+            for (ResponseCache.Editor cacheEditor : cacheEditors) {
+                cacheEditor.commit();
+            }
         }
+        recordMetrics(metrics);
 
-        @Override
-        public String toString() {
-            return "Price{" +
-                    "isoDateUTC='" + isoDateUTC + '\'' +
-                    ", priceGeneral=" + priceGeneral +
-                    ", avgGeneral=" + avgGeneral +
-                    ", priceNight=" + priceNight +
-                    ", avgNight=" + avgNight +
-                    ", priceVehicle=" + priceVehicle +
-                    ", avgVehicle=" + avgVehicle +
-                    '}';
-        }
+        LOGI(LOG_TAG, "Sync finished: " + syncedCount + " of "
+                + results.size() + " URLs have been synced. Response cache hits: "
+                + ResponseCache.getHitCount() + ", misses: " + ResponseCache.getMissCount()
+                + ". Bytes transferred: " + CompressedTransport.getTotalWireBytes() + " ("
+                + CompressedTransport.getTotalDecodedBytes() + " bytes decoded).");
+    }
 
-        public ContentValues toContentValues() {
-            ContentValues cv = new ContentValues();
-
-            cv.put(PriceEntry.COLUMN_DATE, isoDateUTC);
-            cv.put(PriceEntry.COLUMN_PRICE_GENERAL, priceGeneral);
-            cv.put(PriceEntry.COLUMN_AVG_GENERAL, avgGeneral);
-            cv.put(PriceEntry.COLUMN_INCREASE_GENERAL, increaseGeneral);
-            cv.put(PriceEntry.COLUMN_PRICE_NIGHT, priceNight);
-            cv.put(PriceEntry.COLUMN_AVG_NIGHT, avgNight);
-            cv.put(PriceEntry.COLUMN_INCREASE_NIGHT, increaseNight);
-            cv.put(PriceEntry.COLUMN_PRICE_VEHICLE, priceVehicle);
-            cv.put(PriceEntry.COLUMN_AVG_VEHICLE, avgVehicle);
-            cv.put(PriceEntry.COLUMN_INCREASE_VEHICLE, increaseVehicle);
-
-            return cv;
+    /**
+     * Download and store the next chunk of the backfill. Past days are downloaded only once, so
+     * their responses are not kept in the {@link ResponseCache}.
+     *
+     * @return True if there may be more chunks, false if the backfill is done or has to stop.
+     */
+    private boolean backfillChunk(int years) {
+        if (!mBackfill.begin(years)) {
+            return false;
         }
 
-        public void normalize() throws ParseException {
-            // Store ISO date as new attribute.
-            isoDateUTC = DateUtils.getUtcIsoFromEsiosDate(day, hour);
-
-            // Normalize prices.
-            priceGeneral = Double.parseDouble(general.replace(",", "."));
-            priceNight = Double.parseDouble(night.replace(",", "."));
-            priceVehicle = Double.parseDouble(vehicle.replace(",", "."));
+        String[] urlStrArray = mBackfill.nextChunk();
+        if (urlStrArray == null) {
+            LOGI(LOG_TAG, "Backfill finished.");
+            return false;
         }
 
-        public String getIsoDateUTC() {
-            return isoDateUTC;
+        SyncMetrics metrics = new SyncMetrics(SyncMetricsEntry.KIND_BACKFILL);
+        List<DownloadEngine.Result<PriceBatch>> results = downloadAll(urlStrArray,
+                BACKFILL_MAX_CONCURRENCY, null, metrics);
+        int failedCount = storeAll(results, metrics);
+        recordMetrics(metrics);
+        if (failedCount < 0 || failedCount == results.size()) {
+            // Most likely there is no connection. Keep the progress for the next start.
+            LOGE(LOG_TAG, "Backfill stopped: every download of the chunk failed.");
+            return false;
         }
 
-        public double getPriceGeneral() {
-            return priceGeneral;
+        if (failedCount == 0) {
+            mBackfill.finishChunk();
+        } else if (mBackfill.failChunk()) {
+            LOGW(LOG_TAG, "Backfill gave up " + failedCount + " days after "
+                    + Backfill.MAX_CHUNK_ATTEMPTS + " attempts of their chunk.");
         }
+        LOGV(LOG_TAG, "Backfill chunk complete: " + (results.size() - failedCount) + " of "
+                + results.size() + " days downloaded.");
+        return true;
+    }
 
-        public double getPriceNight() {
-            return priceNight;
+    /**
+     * Store the prices of every successful result in a single transaction.
+     *
+     * @return Number of failed results, or -1 if the prices could not be stored.
+     */
+    private int storeAll(List<DownloadEngine.Result<PriceBatch>> results, SyncMetrics metrics) {
+        PriceBatch batch = new PriceBatch(results.size() * HOURS_PER_DAY);
+        int failedCount = 0;
+        for (DownloadEngine.Result<PriceBatch> result : results) {
+            if (!result.isSuccessful()) {
+                failedCount++;
+            } else if (result.getValue() != null) {
+                batch.addAll(result.getValue());
+            }
         }
 
-        public double getPriceVehicle() {
-            return priceVehicle;
-        }
+        return storePrices(batch, metrics) ? failedCount : -1;
+    }
 
-        public double getAvgGeneral() {
-            return avgGeneral;
-        }
+    /**
+     * Append the metrics of a finished cycle to the sync metrics table.
+     */
+    private void recordMetrics(SyncMetrics metrics) {
+        getContentResolver().insert(SyncMetricsEntry.CONTENT_URI, metrics.toContentValues());
+    }
 
-        public void setAvgGeneral(double avgGeneral) {
-            this.avgGeneral = avgGeneral;
+    /**
+     * Download and parse every given URL in parallel, logging the outcome of each one.
+     *
+     * @param urlStrArray    URLs to download.
+     * @param maxConcurrency Maximum number of parallel downloads.
+     * @param cacheEditors   List where the response cache entries of the downloads are added,
+     *                       to be committed once their prices are stored, or null to make
+     *                       unconditional downloads without using the response cache.
+     * @param metrics        Metrics of the cycle the downloads belong to.
+     * @return Result of every URL, in the same order as the URLs were given. The value of a
+     * successful result is null when the content of its URL has not been modified.
+     */
+    private List<DownloadEngine.Result<PriceBatch>> downloadAll(
+            String[] urlStrArray, int maxConcurrency,
+            final List<ResponseCache.Editor> cacheEditors, final SyncMetrics metrics) {
+        DownloadEngine engine =
+                new DownloadEngine(maxConcurrency, MAX_ATTEMPTS, RETRY_BACKOFF_MILLIS);
+        List<DownloadEngine.Result<PriceBatch>> results = engine.execute(urlStrArray,
+                new DownloadEngine.Task<PriceBatch>() {
+                    @Override
+                    public PriceBatch run(String urlStr) throws IOException, ParseException {
+                        return download(urlStr, cacheEditors, metrics);
+                    }
+                });
+
+        for (DownloadEngine.Result<PriceBatch> result : results) {
+            metrics.addUrl(result.getError());
+            if (!result.isSuccessful()) {
+                LOGE(LOG_TAG, "Download failed after " + result.getAttempts() + " attempts: "
+                        + result.getUrl(), result.getError());
+            } else if (result.getValue() == null) {
+                // Nothing changed since the last download, so there is nothing to store.
+                LOGV(LOG_TAG, "Not modified: " + result.getUrl());
+            } else {
+                LOGV(LOG_TAG, "Download succeeded: " + result.getUrl());
+            }
         }
 
-        public double getAvgNight() {
-            return avgNight;
-        }
+        return results;
+    }
 
-        public void setAvgNight(double avgNight) {
-            this.avgNight = avgNight;
-        }
+    /**
+     * Download the given URL and decode the prices it contains.
+     *
+     * @param urlStr       URL to download.
+     * @param cacheEditors List where the response cache entry of a successful download is added,
+     *                     or null to make an unconditional download.
+     * @param metrics      Metrics where the time of each stage of the download is added.
+     * @return Batch of the decoded prices, or null if the content of the URL has not been
+     * modified since the last time it was downloaded.
+     * @throws IOException    when the download fails or the response is not well formed.
+     * @throws ParseException when a date of the response is not in the correct form.
+     */
+    private PriceBatch download(String urlStr, List<ResponseCache.Editor> cacheEditors,
+                                SyncMetrics metrics) throws IOException, ParseException {
+        HttpURLConnection urlConnection = null;
+        InputStream inputStream = null;
+        boolean useCache = cacheEditors != null;
+
+        try {
+            URL url = new URL(urlStr);
+
+            long connectStart = System.nanoTime();
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setRequestMethod("GET");
+            if (useCache) {
+                mResponseCache.addValidators(urlStr, urlConnection);
+            }
+            CompressedTransport transport = CompressedTransport.negotiate(urlConnection);
+            urlConnection.connect();
+            metrics.addConnect(System.nanoTime() - connectStart);
+
+            if (useCache) {
+                boolean notModified = mResponseCache.isNotModified(urlConnection);
+                metrics.addCacheResult(notModified);
+                if (notModified) {
+                    return null;
+                }
+            }
 
-        public double getAvgVehicle() {
-            return avgVehicle;
-        }
+            inputStream = urlConnection.getInputStream();
+            if (inputStream == null) {
+                return new PriceBatch(0);
+            }
+            SyncMetrics.TimedInputStream timedStream = metrics.timeReads(inputStream);
+            inputStream = transport.open(urlConnection, timedStream);
+
+            // Parse data straight from the response stream.
+            long readStartNanos = timedStream.getNanos();
+            long start = System.nanoTime();
+            PriceBatch batch = readPrices(inputStream, metrics);
+            long decodeNanos = System.nanoTime() - start
+                    - (timedStream.getNanos() - readStartNanos);
+            metrics.addDecode(decodeNanos);
+            metrics.addBytes(transport.getWireBytes(), transport.getDecodedBytes());
+            LOGV(LOG_TAG, "Parse complete: " + batch.size() + " prices decoded in "
+                    + decodeNanos / 1000000 + " ms from "
+                    + transport.getWireBytes() + " bytes (" + transport.getDecodedBytes()
+                    + " bytes decoded).");
+
+            // Keep the validators of the response, so the next download can be a conditional one.
+            if (useCache) {
+                ResponseCache.Editor cacheEditor = mResponseCache.edit(urlStr, urlConnection);
+                if (cacheEditor != null) {
+                    cacheEditors.add(cacheEditor);
+                }
+            }
 
-        public void setAvgVehicle(double avgVehicle) {
-            this.avgVehicle = avgVehicle;
+            return batch;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (final IOException e) {
+                    LOGE(LOG_TAG, "Error closing stream", e);
+                }
+            }
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
         }
+    }
 
-        public double getIncreaseGeneral() {
-            return increaseGeneral;
+    /**
+     * Decode the prices contained in the "PVPC" array of the given stream. Prices are pulled one
+     * by one from the stream and normalized straight into the batch, so the response is never
+     * held in memory as a whole.
+     *
+     * @param inputStream Stream containing the JSON document served by Esios.
+     * @param metrics     Metrics where the time spent normalizing the prices is added.
+     * @return Batch of the decoded prices, in the same order as they were served.
+     * @throws IOException    when the stream can not be read or it is not well formed.
+     * @throws ParseException when a date of the stream is not in the correct form.
+     */
+    private PriceBatch readPrices(InputStream inputStream, SyncMetrics metrics)
+            throws IOException, ParseException {
+        PriceBatch batch = new PriceBatch(HOURS_PER_DAY);
+        long normalizeNanos = 0;
+
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, CHARSET_UTF_8));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(JSON_PVPC_ARRAY)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    normalizeNanos += readPrice(reader, batch);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
         }
+        reader.endObject();
 
-        public void setIncreaseGeneral(double increaseGeneral) {
-            this.increaseGeneral = increaseGeneral;
-        }
+        metrics.addNormalize(normalizeNanos);
+        return batch;
+    }
 
-        public double getIncreaseNight() {
-            return increaseNight;
+    /**
+     * Decode the price object at the current position of the reader, normalize it and append it
+     * to the given batch.
+     *
+     * @param reader Reader positioned at the beginning of a price object.
+     * @param batch  Batch where the price is appended.
+     * @return Time spent normalizing the price, in nanoseconds.
+     * @throws IOException    when the object is not well formed.
+     * @throws ParseException when the date of the object is not in the correct form.
+     */
+    private static long readPrice(JsonReader reader, PriceBatch batch)
+            throws IOException, ParseException {
+        String day = null;
+        String hour = null;
+        String general = null;
+        String night = null;
+        String vehicle = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case JSON_DAY:
+                    day = reader.nextString();
+                    break;
+                case JSON_HOUR:
+                    hour = reader.nextString();
+                    break;
+                case JSON_GENERAL:
+                    general = reader.nextString();
+                    break;
+                case JSON_NIGHT:
+                    night = reader.nextString();
+                    break;
+                case JSON_VEHICLE:
+                    vehicle = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
         }
+        reader.endObject();
 
-        public void setIncreaseNight(double increaseNight) {
-            this.increaseNight = increaseNight;
+        if (day == null || hour == null || general == null || night == null || vehicle == null) {
+            throw new ParseException("Incomplete price object: " + day + " " + hour, 0);
         }
 
-        public double getIncreaseVehicle() {
-            return increaseVehicle;
+        long start = System.nanoTime();
+        batch.add(DateUtils.getUtcMillisFromEsiosDate(day, hour),
+                parsePrice(general), parsePrice(night), parsePrice(vehicle));
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Esios uses a comma as decimal separator.
+     */
+    private static double parsePrice(String price) {
+        return Double.parseDouble(price.replace(',', '.'));
+    }
+
+    /**
+     * Merge the given batch into the database, in a single transaction.
+     *
+     * @param batch   Batch of prices to store.
+     * @param metrics Metrics where the time and rows of the store are set.
+     * @return True if the batch has been stored, false if the provider could not be reached.
+     */
+    private boolean storePrices(PriceBatch batch, SyncMetrics metrics) {
+        if (batch.size() == 0) {
+            // Stream did not contain any price. No point in storing.
+            return true;
         }
 
-        public void setIncreaseVehicle(double increaseVehicle) {
-            this.increaseVehicle = increaseVehicle;
+        LOGV(LOG_TAG, "Sync complete: " + batch.size() + " new prices have been downloaded.");
+
+        // Merge values into the database, so re-delivered hours which did not change are not
+        // written again.
+        long start = System.nanoTime();
+        Bundle result = getContentResolver().call(PriceEntry.CONTENT_URI,
+                PriceEntry.METHOD_MERGE_BATCH, null, batch.toBundle());
+        int insertedCount = result != null ? result.getInt(PriceEntry.EXTRA_INSERTED_COUNT) : 0;
+        int updatedCount = result != null ? result.getInt(PriceEntry.EXTRA_UPDATED_COUNT) : 0;
+        int unchangedCount = result != null ? result.getInt(PriceEntry.EXTRA_UNCHANGED_COUNT) : 0;
+        metrics.setStore(System.nanoTime() - start, insertedCount, updatedCount, unchangedCount);
+        if (result == null) {
+            String error = "Store failed: the prices provider could not be reached.";
+            LOGE(LOG_TAG, error);
+            metrics.addStoreFailure(error);
+            return false;
         }
+
+        LOGV(LOG_TAG, "Store complete: " + insertedCount + " prices inserted, " + updatedCount
+                + " updated and " + unchangedCount + " unchanged in db.");
+        return true;
     }
 }
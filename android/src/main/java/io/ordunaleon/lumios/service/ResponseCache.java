@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.service;
+
+import android.content.Context;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.ordunaleon.lumios.utils.LogUtils;
+
+import static io.ordunaleon.lumios.utils.LogUtils.LOGE;
+
+/**
+ * On-disk cache of HTTP responses keyed by URL. For every URL it keeps the validators sent by the
+ * server (ETag and Last-Modified), so the next download of the same URL can be made conditional
+ * and skipped altogether when the server answers 304 Not Modified. The body itself is not kept:
+ * its prices are already in the database, and the validators of a response are only stored once
+ * its prices have been stored too.
+ */
+public class ResponseCache {
+
+    private static final String LOG_TAG = LogUtils.makeLogTag(ResponseCache.class);
+
+    private static final String CACHE_DIR_NAME = "responses";
+    private static final String META_SUFFIX = ".meta";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String META_URL = "url";
+    private static final String META_ETAG = "etag";
+    private static final String META_LAST_MODIFIED = "last_modified";
+
+    /**
+     * Process-wide counters of conditional requests answered with 304 (hits) and of requests
+     * that had to be downloaded in full (misses).
+     */
+    private static final AtomicLong sHitCount = new AtomicLong();
+    private static final AtomicLong sMissCount = new AtomicLong();
+
+    private final File mDirectory;
+
+    public ResponseCache(Context context) {
+        mDirectory = new File(context.getCacheDir(), CACHE_DIR_NAME);
+    }
+
+    public static long getHitCount() {
+        return sHitCount.get();
+    }
+
+    public static long getMissCount() {
+        return sMissCount.get();
+    }
+
+    /**
+     * Add the stored validators of the given URL, if any, to the request headers of the given
+     * connection. Must be called before the connection is connected.
+     *
+     * @param urlStr        URL being requested.
+     * @param urlConnection Connection which is going to request the URL.
+     */
+    public void addValidators(String urlStr, HttpURLConnection urlConnection) {
+        Properties meta = readMeta(urlStr);
+        if (meta == null) {
+            return;
+        }
+
+        String etag = meta.getProperty(META_ETAG);
+        if (etag != null) {
+            urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+        }
+
+        String lastModified = meta.getProperty(META_LAST_MODIFIED);
+        if (lastModified != null) {
+            urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+    }
+
+    /**
+     * Check whether the response of the given connection says the cached copy is still valid,
+     * counting the result as a hit or a miss.
+     *
+     * @param urlConnection Connection already connected.
+     * @return True if the server answered 304 Not Modified.
+     * @throws IOException when the response code can not be read.
+     */
+    public boolean isNotModified(HttpURLConnection urlConnection) throws IOException {
+        if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            sHitCount.incrementAndGet();
+            return true;
+        }
+
+        sMissCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Start storing the validators of the response of the given connection. Nothing is written
+     * until {@link Editor#commit()} is called, which must only happen once the content of the
+     * response has been stored; otherwise the next download would be skipped while the content
+     * is missing.
+     *
+     * @param urlStr        URL being requested.
+     * @param urlConnection Connection already connected.
+     * @return Editor to commit, or null if the response can not be cached.
+     */
+    public Editor edit(String urlStr, HttpURLConnection urlConnection) {
+        String etag = urlConnection.getHeaderField(HEADER_ETAG);
+        String lastModified = urlConnection.getHeaderField(HEADER_LAST_MODIFIED);
+        if (etag == null && lastModified == null) {
+            // Without validators there is no way to make the next request conditional.
+            return null;
+        }
+
+        Properties meta = new Properties();
+        meta.setProperty(META_URL, urlStr);
+        if (etag != null) {
+            meta.setProperty(META_ETAG, etag);
+        }
+        if (lastModified != null) {
+            meta.setProperty(META_LAST_MODIFIED, lastModified);
+        }
+
+        return new Editor(urlStr, meta);
+    }
+
+    private Properties readMeta(String urlStr) {
+        File metaFile = getMetaFile(urlStr);
+        if (!metaFile.exists()) {
+            return null;
+        }
+
+        InputStream in = null;
+        try {
+            in = new FileInputStream(metaFile);
+            Properties meta = new Properties();
+            meta.load(in);
+
+            // Guard against the unlikely case of two URLs sharing the same key.
+            return urlStr.equals(meta.getProperty(META_URL)) ? meta : null;
+        } catch (IOException e) {
+            LOGE(LOG_TAG, "Error reading cache entry for " + urlStr, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private File getMetaFile(String urlStr) {
+        return new File(mDirectory, getKey(urlStr) + META_SUFFIX);
+    }
+
+    private static String getKey(String urlStr) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(urlStr.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16));
+                key.append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Both SHA-1 and UTF-8 are guaranteed to be available.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Cache entry waiting to be written. It only replaces the previous entry (if any) when
+     * {@link #commit()} is called; an editor which is never committed leaves it untouched.
+     */
+    public class Editor {
+
+        private final String mUrlStr;
+        private final Properties mMeta;
+
+        private Editor(String urlStr, Properties meta) {
+            mUrlStr = urlStr;
+            mMeta = meta;
+        }
+
+        /**
+         * Replace the cached entry with the validators of the response. The entry is written to
+         * a temporary file first, so a reader never sees it half written.
+         */
+        public void commit() {
+            File tempFile = null;
+            OutputStream metaOut = null;
+            try {
+                if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                    throw new IOException("Unable to create " + mDirectory);
+                }
+
+                tempFile = File.createTempFile(getKey(mUrlStr), null, mDirectory);
+                metaOut = new FileOutputStream(tempFile);
+                mMeta.store(metaOut, null);
+                metaOut.close();
+                metaOut = null;
+
+                if (!tempFile.renameTo(getMetaFile(mUrlStr))) {
+                    throw new IOException("Unable to rename " + tempFile);
+                }
+            } catch (IOException e) {
+                LOGE(LOG_TAG, "Error committing cache entry for " + mUrlStr, e);
+                if (tempFile != null && tempFile.exists() && !tempFile.delete()) {
+                    LOGE(LOG_TAG, "Unable to delete " + tempFile);
+                }
+            } finally {
+                closeQuietly(metaOut);
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.service;
+
+import android.content.ContentValues;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.ordunaleon.lumios.data.LumiosContract.SyncMetricsEntry;
+
+/**
+ * Metrics of a single download and store cycle of {@link LumiosDownloadService}. URLs are
+ * downloaded in parallel, so every counter can be updated from several threads at once, and the
+ * time of each stage is the sum over every URL.
+ */
+final class SyncMetrics {
+
+    private final int mKind;
+    private final long mStartNanos = System.nanoTime();
+
+    private final AtomicInteger mUrlCount = new AtomicInteger();
+    private final AtomicInteger mFailureCount = new AtomicInteger();
+    private final AtomicLong mConnectNanos = new AtomicLong();
+    private final AtomicLong mReadNanos = new AtomicLong();
+    private final AtomicLong mDecodeNanos = new AtomicLong();
+    private final AtomicLong mNormalizeNanos = new AtomicLong();
+    private final AtomicLong mWireBytes = new AtomicLong();
+    private final AtomicLong mDecodedBytes = new AtomicLong();
+    private final AtomicInteger mCacheHitCount = new AtomicInteger();
+    private final AtomicInteger mCacheMissCount = new AtomicInteger();
+
+    // Written once the downloads are done, on the thread of the cycle.
+    private long mStoreNanos;
+    private int mRowsInserted;
+    private int mRowsUpdated;
+    private int mRowsUnchanged;
+    private volatile String mLastError;
+
+    /**
+     * Creates a SyncMetrics and starts timing the cycle.
+     *
+     * @param kind Kind of cycle, see {@link SyncMetricsEntry#KIND_SYNC}.
+     */
+    SyncMetrics(int kind) {
+        mKind = kind;
+    }
+
+    void addConnect(long nanos) {
+        mConnectNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Add the time spent decoding a response, parsing and normalizing it, without the time its
+     * reads were blocked.
+     */
+    void addDecode(long nanos) {
+        mDecodeNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Add the time spent normalizing decoded prices. It is part of the decode time too.
+     */
+    void addNormalize(long nanos) {
+        mNormalizeNanos.addAndGet(nanos);
+    }
+
+    void addBytes(long wireBytes, long decodedBytes) {
+        mWireBytes.addAndGet(wireBytes);
+        mDecodedBytes.addAndGet(decodedBytes);
+    }
+
+    /**
+     * Record the answer to a download made through the {@link ResponseCache}.
+     *
+     * @param hit True if the server answered 304 Not Modified.
+     */
+    void addCacheResult(boolean hit) {
+        (hit ? mCacheHitCount : mCacheMissCount).incrementAndGet();
+    }
+
+    /**
+     * Record the outcome of a URL.
+     *
+     * @param error Error of the URL, or null if it succeeded.
+     */
+    void addUrl(Exception error) {
+        mUrlCount.incrementAndGet();
+        if (error != null) {
+            mFailureCount.incrementAndGet();
+            mLastError = error.toString();
+        }
+    }
+
+    void setStore(long nanos, int rowsInserted, int rowsUpdated, int rowsUnchanged) {
+        mStoreNanos = nanos;
+        mRowsInserted = rowsInserted;
+        mRowsUpdated = rowsUpdated;
+        mRowsUnchanged = rowsUnchanged;
+    }
+
+    /**
+     * Record that the downloaded prices could not be stored. It counts as a failure of the
+     * cycle, on top of the failed URLs.
+     *
+     * @param error Description of the error.
+     */
+    void addStoreFailure(String error) {
+        mFailureCount.incrementAndGet();
+        mLastError = error;
+    }
+
+    /**
+     * Wrap the given stream so the time its reads are blocked is added to the read stage.
+     */
+    TimedInputStream timeReads(InputStream inputStream) {
+        return new TimedInputStream(inputStream);
+    }
+
+    /**
+     * Finish timing the cycle and pack its metrics as a row of the sync metrics table.
+     */
+    ContentValues toContentValues() {
+        ContentValues values = new ContentValues();
+        values.put(SyncMetricsEntry.COLUMN_TIME, System.currentTimeMillis());
+        values.put(SyncMetricsEntry.COLUMN_KIND, mKind);
+        values.put(SyncMetricsEntry.COLUMN_URLS, mUrlCount.get());
+        values.put(SyncMetricsEntry.COLUMN_FAILURES, mFailureCount.get());
+        values.put(SyncMetricsEntry.COLUMN_WIRE_BYTES, mWireBytes.get());
+        values.put(SyncMetricsEntry.COLUMN_DECODED_BYTES, mDecodedBytes.get());
+        values.put(SyncMetricsEntry.COLUMN_CACHE_HITS, mCacheHitCount.get());
+        values.put(SyncMetricsEntry.COLUMN_CACHE_MISSES, mCacheMissCount.get());
+        values.put(SyncMetricsEntry.COLUMN_CONNECT_NANOS, mConnectNanos.get());
+        values.put(SyncMetricsEntry.COLUMN_READ_NANOS, mReadNanos.get());
+        values.put(SyncMetricsEntry.COLUMN_PARSE_NANOS,
+                mDecodeNanos.get() - mNormalizeNanos.get());
+        values.put(SyncMetricsEntry.COLUMN_NORMALIZE_NANOS, mNormalizeNanos.get());
+        values.put(SyncMetricsEntry.COLUMN_STORE_NANOS, mStoreNanos);
+        values.put(SyncMetricsEntry.COLUMN_TOTAL_NANOS, System.nanoTime() - mStartNanos);
+        values.put(SyncMetricsEntry.COLUMN_ROWS_INSERTED, mRowsInserted);
+        values.put(SyncMetricsEntry.COLUMN_ROWS_UPDATED, mRowsUpdated);
+        values.put(SyncMetricsEntry.COLUMN_ROWS_UNCHANGED, mRowsUnchanged);
+        values.put(SyncMetricsEntry.COLUMN_LAST_ERROR, mLastError);
+        return values;
+    }
+
+    /**
+     * Stream which times its reads, both on its own and into the read stage of the cycle.
+     */
+    final class TimedInputStream extends FilterInputStream {
+
+        private long mNanos;
+
+        private TimedInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        /**
+         * @return Time the reads of this stream have been blocked so far, in nanoseconds.
+         */
+        long getNanos() {
+            return mNanos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read();
+            } finally {
+                addNanos(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read(buffer, offset, count);
+            } finally {
+                addNanos(System.nanoTime() - start);
+            }
+        }
+
+        private void addNanos(long nanos) {
+            mNanos += nanos;
+            mReadNanos.addAndGet(nanos);
+        }
+    }
+}
@@ -17,15 +17,19 @@
 
 package io.ordunaleon.lumios.ui;
 
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.Configuration;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.os.Bundle;
 import android.support.annotation.IdRes;
 import android.support.design.widget.NavigationView;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
+import android.support.v4.net.ConnectivityManagerCompat;
 import android.support.v4.view.GravityCompat;
 import android.support.v4.widget.DrawerLayout;
 import android.support.v7.app.ActionBarDrawerToggle;
@@ -39,7 +43,9 @@ import android.widget.TextView;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 
+import io.ordunaleon.lumios.BuildConfig;
 import io.ordunaleon.lumios.R;
+import io.ordunaleon.lumios.service.LumiosDownloadService;
 import io.ordunaleon.lumios.service.LumiosRegistrationIntentService;
 import io.ordunaleon.lumios.utils.LogUtils;
 import io.ordunaleon.lumios.utils.PrefUtils;
@@ -86,6 +92,10 @@ public class DrawerActivity extends AppCompatActivity implements
         NavigationView navigationView = (NavigationView) findViewById(R.id.navigation_view);
         navigationView.setNavigationItemSelectedListener(this);
 
+        // The sync metrics are only meant for debugging.
+        navigationView.getMenu().findItem(R.id.drawer_item_sync_metrics)
+                .setVisible(BuildConfig.DEBUG);
+
         // Find NavigationView header.
         View headerView = navigationView.getHeaderView(0);
 
@@ -124,6 +134,12 @@ public class DrawerActivity extends AppCompatActivity implements
             startService(intent);
         }
 
+        // Download the history of prices, or resume its download, until it is completed. Years of
+        // prices are too much for a metered connection, so it waits for one that is not.
+        if (isUnmeteredNetworkConnected()) {
+            LumiosDownloadService.startBackfillIfNeeded(this);
+        }
+
         PrefUtils.registerOnSharedPreferenceChangeListener(this, this);
     }
 
@@ -178,13 +194,18 @@ public class DrawerActivity extends AppCompatActivity implements
             case R.id.drawer_item_main:
                 fragment = PriceListFragment.newInstance();
                 break;
+            case R.id.drawer_item_chart:
+                fragment = PriceChartFragment.newInstance();
+                break;
+            case R.id.drawer_item_sync_metrics:
+                fragment = SyncMetricsFragment.newInstance();
+                break;
             case R.id.drawer_item_settings:
                 Intent i = new Intent(this, SettingsActivity.class);
                 startActivity(i);
                 return false;
             default:
-                fragment = DummyFragment.newInstance(menuItem.getTitle());
-                break;
+                return false;
         }
 
         // Insert the fragment by replacing any existing fragment.
@@ -205,6 +226,8 @@ public class DrawerActivity extends AppCompatActivity implements
             Fragment fragment = getSupportFragmentManager().findFragmentById(R.id.frame_layout);
             if (fragment instanceof PriceListFragment) {
                 ((PriceListFragment) fragment).onFareChanged();
+            } else if (fragment instanceof PriceChartFragment) {
+                ((PriceChartFragment) fragment).onFareChanged();
             }
         }
     }
@@ -213,6 +236,17 @@ public class DrawerActivity extends AppCompatActivity implements
         mDrawerHeaderSubhead.setText(PrefUtils.getFareName(this));
     }
 
+    /**
+     * @return True if there is a network connection and it is not metered, such as Wi-Fi.
+     */
+    private boolean isUnmeteredNetworkConnected() {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected()
+                && !ConnectivityManagerCompat.isActiveNetworkMetered(connectivityManager);
+    }
+
     /**
      * Check the device to make sure it has the Google Play Services APK. If
      * it doesn't, display a dialog that allows users to download the APK from
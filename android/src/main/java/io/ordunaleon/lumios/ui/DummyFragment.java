@@ -1,56 +0,0 @@
-/*
- * Copyright (C) 2016 Álvaro Orduna León
- *
- * This program is free software: you can redistribute it and/or modify
- * it under the terms of the GNU General Public License as published by
- * the Free Software Foundation, either version 3 of the License, or
- * (at your option) any later version.
- *
- * This program is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARRANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- * GNU General Public License for more details.
- *
- * You should have received a copy of the GNU General Public License
- * along with this program.  If not, see <http://www.gnu.org/licenses/>.
- */
-
-package io.ordunaleon.lumios.ui;
-
-import android.os.Bundle;
-import android.support.v4.app.Fragment;
-import android.view.LayoutInflater;
-import android.view.View;
-import android.view.ViewGroup;
-import android.widget.TextView;
-
-import io.ordunaleon.lumios.R;
-
-/**
- * Dummy fragment to test Navigation Drawer.
- */
-public class DummyFragment extends Fragment {
-
-    private static final String ARG_TEXT = "arg_text";
-
-    @Override
-    public View onCreateView(LayoutInflater inflater, ViewGroup container,
-                             Bundle savedInstanceState) {
-        // Inflate the layout for this fragment.
-        View rootView = inflater.inflate(R.layout.fragment_dummy, container, false);
-
-        // Set text of the TextView.
-        String text = getArguments().getString(ARG_TEXT);
-        ((TextView) rootView).setText(text);
-
-        return rootView;
-    }
-
-    public static Fragment newInstance(CharSequence text) {
-        DummyFragment fragment = new DummyFragment();
-        Bundle args = new Bundle();
-        args.putString(ARG_TEXT, String.valueOf(text));
-        fragment.setArguments(args);
-        return fragment;
-    }
-}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.ui;
+
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.Loader;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import io.ordunaleon.lumios.R;
+import io.ordunaleon.lumios.utils.DateCodec;
+import io.ordunaleon.lumios.utils.PrefUtils;
+
+import static io.ordunaleon.lumios.data.LumiosContract.PriceEntry;
+
+/**
+ * Chart of every stored price of the selected fare. Only the prices around the dates shown are
+ * loaded, from a span before them to a span after them, so the chart can be moved a bit before
+ * loading again. Wide spans are loaded as the averages of days, weeks or months.
+ */
+public class PriceChartFragment extends Fragment
+        implements LoaderManager.LoaderCallbacks<PriceSeries>,
+        PriceChartView.OnViewportChangeListener {
+
+    private static final int PRICE_CHART_LOADER = 0;
+
+    private static final String ARG_START_DATE = "start_date";
+    private static final String ARG_END_DATE = "end_date";
+
+    // Most prices loaded at once, several times the pixels of a wide screen.
+    private static final int MAX_CHART_POINTS = 5000;
+
+    // Days loaded before the chart is first moved, up to the end of tomorrow.
+    private static final int INITIAL_DAYS = 21;
+
+    private PriceChartView mChartView;
+
+    // Dates and bucket of the prices loaded, or being loaded.
+    private long mLoadedStartDate;
+    private long mLoadedEndDate;
+    private String mLoadedBucket;
+
+    public static PriceChartFragment newInstance() {
+        return new PriceChartFragment();
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+                             Bundle savedInstanceState) {
+        // Inflate the layout for this fragment.
+        View rootView = inflater.inflate(R.layout.fragment_price_chart, container, false);
+        mChartView = (PriceChartView) rootView.findViewById(R.id.price_chart_view);
+        mChartView.setOnViewportChangeListener(this);
+        return rootView;
+    }
+
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        getLoaderManager().initLoader(PRICE_CHART_LOADER, null, this);
+        super.onActivityCreated(savedInstanceState);
+    }
+
+    public void onFareChanged() {
+        restartLoader(mLoadedStartDate, mLoadedEndDate);
+    }
+
+    @Override
+    public void onViewportChange(long startDate, long endDate) {
+        long span = endDate - startDate;
+        String bucket = PriceEntry.getBucketForRange(startDate - span, endDate + span,
+                MAX_CHART_POINTS);
+        if (startDate < mLoadedStartDate || endDate > mLoadedEndDate
+                || !bucket.equals(mLoadedBucket)) {
+            restartLoader(startDate - span, endDate + span);
+        }
+    }
+
+    private void restartLoader(long startDate, long endDate) {
+        Bundle args = new Bundle();
+        args.putLong(ARG_START_DATE, startDate);
+        args.putLong(ARG_END_DATE, endDate);
+        getLoaderManager().restartLoader(PRICE_CHART_LOADER, args, this);
+    }
+
+    @Override
+    public Loader<PriceSeries> onCreateLoader(int id, Bundle args) {
+        long startDate;
+        long endDate;
+        if (args != null) {
+            startDate = args.getLong(ARG_START_DATE);
+            endDate = args.getLong(ARG_END_DATE);
+        } else {
+            long today = DateCodec.getSpainDays(System.currentTimeMillis());
+            endDate = DateCodec.getSpainMidnight(today + 2);
+            startDate = DateCodec.getSpainMidnight(today + 2 - INITIAL_DAYS);
+        }
+
+        mLoadedStartDate = startDate;
+        mLoadedEndDate = endDate;
+        mLoadedBucket = PriceEntry.getBucketForRange(startDate, endDate, MAX_CHART_POINTS);
+
+        // Read only the prices of the selected fare.
+        String fare = PriceEntry.getFare(getActivity(), PrefUtils.getFareName(getActivity()));
+        return new PriceChartLoader(getActivity(), fare, startDate, endDate, mLoadedBucket);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<PriceSeries> loader, PriceSeries data) {
+        // A loader kept across a configuration change was not created by this instance.
+        PriceChartLoader chartLoader = (PriceChartLoader) loader;
+        mLoadedStartDate = chartLoader.getStartDate();
+        mLoadedEndDate = chartLoader.getEndDate();
+        mLoadedBucket = chartLoader.getBucket();
+
+        mChartView.setSeries(data);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<PriceSeries> loader) {
+    }
+}
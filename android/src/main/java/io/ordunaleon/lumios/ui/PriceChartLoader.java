@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.ui;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+
+import io.ordunaleon.lumios.utils.DateCodec;
+import io.ordunaleon.lumios.utils.DateUtils;
+
+import static io.ordunaleon.lumios.data.LumiosContract.DailyStatsEntry;
+import static io.ordunaleon.lumios.data.LumiosContract.PriceEntry;
+
+/**
+ * Loads the prices of a fare between two dates into a {@link PriceSeries} on a background
+ * thread, either hourly or as the average of each bucket of hours, along with the dates of the
+ * first and last stored prices. Like a CursorLoader, it loads again when the prices of those
+ * dates change, though no more than once every {@link #UPDATE_THROTTLE_MILLIS}, so a backfill
+ * writing day after day does not reload the chart with each one.
+ */
+public class PriceChartLoader extends AsyncTaskLoader<PriceSeries> {
+
+    private static final long UPDATE_THROTTLE_MILLIS = 2000;
+
+    private static final String[] PRICE_CHART_COLUMNS = {
+            PriceEntry.COLUMN_DATE,
+            PriceEntry.COLUMN_FARE_PRICE
+    };
+
+    // These indices are tied to PRICE_CHART_COLUMNS.
+    private static final int COL_DATE = 0;
+    private static final int COL_PRICE = 1;
+
+    private static final String[] DAY_COLUMNS = {DailyStatsEntry.COLUMN_DAY};
+
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+
+    private final long mStartDate;
+    private final long mEndDate;
+    private final String mBucket;
+    private final Uri mUri;
+
+    private PriceSeries mSeries;
+
+    private boolean mObserverRegistered;
+
+    /**
+     * Creates a PriceChartLoader.
+     *
+     * @param context   The context.
+     * @param fare      Fare of the prices, see {@link PriceEntry#getFare}.
+     * @param startDate First date to load, in milliseconds since epoch.
+     * @param endDate   Date right after the last one to load, in milliseconds since epoch.
+     * @param bucket    Bucket of the prices, see {@link PriceEntry#getBucketForRange}.
+     */
+    public PriceChartLoader(Context context, String fare, long startDate, long endDate,
+                            String bucket) {
+        super(context);
+        mStartDate = startDate;
+        mEndDate = endDate;
+        mBucket = bucket;
+
+        Uri uri = PriceEntry.buildUriWithFareAndStartDateAndEndDate(fare, startDate,
+                endDate - 1);
+        if (!PriceEntry.BUCKET_HOUR.equals(bucket)) {
+            uri = PriceEntry.buildUriWithBucket(uri, bucket, PriceEntry.AGGREGATE_AVG);
+        }
+        mUri = uri;
+
+        setUpdateThrottle(UPDATE_THROTTLE_MILLIS);
+    }
+
+    public long getStartDate() {
+        return mStartDate;
+    }
+
+    public long getEndDate() {
+        return mEndDate;
+    }
+
+    public String getBucket() {
+        return mBucket;
+    }
+
+    @Override
+    public PriceSeries loadInBackground() {
+        // The days of the first and last stored prices, out of the stats of each day.
+        long firstDate = 0;
+        long endDate = 0;
+        Cursor days = getContext().getContentResolver().query(DailyStatsEntry.CONTENT_URI,
+                DAY_COLUMNS, null, null, DailyStatsEntry.COLUMN_DAY + " ASC");
+        if (days != null) {
+            try {
+                if (days.moveToFirst()) {
+                    firstDate = days.getLong(0);
+                    days.moveToLast();
+                    endDate = DateUtils.getNextDayStart(days.getLong(0));
+                }
+            } finally {
+                days.close();
+            }
+        }
+
+        // Sort by date ascending.
+        Cursor cursor = getContext().getContentResolver().query(mUri, PRICE_CHART_COLUMNS,
+                null, null, PriceEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return new PriceSeries(0, new float[0], new float[0], 0, 1, firstDate, endDate);
+        }
+
+        try {
+            int count = cursor.getCount();
+            float[] hours = new float[count];
+            float[] prices = new float[count];
+            long startDate = 0;
+            for (int i = 0; cursor.moveToNext(); i++) {
+                long date = cursor.getLong(COL_DATE);
+                if (i == 0) {
+                    startDate = date;
+                }
+                hours[i] = (float) (date - startDate) / DateCodec.MILLIS_PER_HOUR;
+                prices[i] = (float) cursor.getDouble(COL_PRICE);
+            }
+            return new PriceSeries(startDate, hours, prices, count, getMaxStep(mBucket),
+                    firstDate, endDate);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return Most hours between the dates of two consecutive buckets with no price missing
+     * between them.
+     */
+    private static float getMaxStep(String bucket) {
+        switch (bucket) {
+            case PriceEntry.BUCKET_DAY:
+                return 25;
+            case PriceEntry.BUCKET_WEEK:
+                return 7 * 24 + 1;
+            case PriceEntry.BUCKET_MONTH:
+                return 31 * 24 + 1;
+            default:
+                return 1;
+        }
+    }
+
+    @Override
+    public void deliverResult(PriceSeries series) {
+        if (isReset()) {
+            return;
+        }
+
+        mSeries = series;
+        if (isStarted()) {
+            super.deliverResult(series);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserverRegistered) {
+            getContext().getContentResolver().registerContentObserver(
+                    PriceEntry.getNotificationUri(mUri), true, mObserver);
+            mObserverRegistered = true;
+        }
+
+        if (mSeries != null) {
+            deliverResult(mSeries);
+        }
+        if (takeContentChanged() || mSeries == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        onStopLoading();
+
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+        mSeries = null;
+    }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.ui;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.v4.content.ContextCompat;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import io.ordunaleon.lumios.R;
+import io.ordunaleon.lumios.utils.DateCodec;
+import io.ordunaleon.lumios.utils.DateUtils;
+
+import static android.text.format.DateUtils.FORMAT_SHOW_DATE;
+import static android.text.format.DateUtils.FORMAT_SHOW_YEAR;
+
+/**
+ * Line chart of a {@link PriceSeries}, which can be panned with a drag and zoomed with a pinch
+ * from a few hours to every stored price. The series may hold only the prices around the dates
+ * shown; moving the chart is reported to an {@link OnViewportChangeListener} to load the rest.
+ * <p/>
+ * Frames are drawn from the float arrays of the series into a buffer of line points allocated
+ * with the view, so drawing allocates nothing but the labels, and only when they change. When
+ * there are more visible hours than pixels, the hours of each pixel column are reduced by a
+ * {@link PriceDecimator} to their first, last, minimum and maximum prices, and only those are
+ * drawn: the peaks are kept and the cost of a frame depends on the width of the view, not on the
+ * number of hours shown.
+ */
+public class PriceChartView extends View {
+
+    // Hours shown when a series is first set: the last week.
+    private static final float DEFAULT_VISIBLE_HOURS = 7 * 24;
+
+    // Fewest hours that can be zoomed into.
+    private static final float MIN_VISIBLE_HOURS = 6;
+
+    // Margin above and below the prices, as a fraction of their range.
+    private static final float PRICE_MARGIN = 0.05f;
+
+    private final Paint mLinePaint;
+    private final Paint mGridPaint;
+    private final Paint mLabelPaint;
+    private final Paint.FontMetrics mLabelMetrics = new Paint.FontMetrics();
+
+    private final ScaleGestureDetector mScaleDetector;
+    private final GestureDetector mGestureDetector;
+
+    private PriceSeries mSeries;
+
+    private OnViewportChangeListener mListener;
+
+    // Visible hours of the series, from start (included) to end (excluded).
+    private float mViewStart;
+    private float mViewEnd;
+
+    // Buffers of a frame, sized with the view: the columns of the hours shown and the segments
+    // drawn.
+    private PriceDecimator mDecimator = new PriceDecimator(0);
+    private float[] mLinePoints = new float[0];
+
+    // Labels of the last frame, formatted again only when their value changes.
+    private float mMinPriceLabelValue = Float.NaN;
+    private float mMaxPriceLabelValue = Float.NaN;
+    private long mStartDayLabelValue = -1;
+    private long mEndDayLabelValue = -1;
+    private String mMinPriceLabel;
+    private String mMaxPriceLabel;
+    private String mStartDayLabel;
+    private String mEndDayLabel;
+
+    public PriceChartView(Context context) {
+        this(context, null);
+    }
+
+    public PriceChartView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public PriceChartView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+
+        Resources res = context.getResources();
+
+        mLinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mLinePaint.setColor(ContextCompat.getColor(context, R.color.colorPrimary));
+        mLinePaint.setStrokeWidth(res.getDimension(R.dimen.chart_line_width));
+        mLinePaint.setStrokeCap(Paint.Cap.ROUND);
+
+        mGridPaint = new Paint();
+        mGridPaint.setColor(ContextCompat.getColor(context, R.color.chart_grid));
+
+        mLabelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mLabelPaint.setColor(ContextCompat.getColor(context, R.color.chart_label));
+        mLabelPaint.setTextSize(res.getDimension(R.dimen.chart_label_text_size));
+
+        mScaleDetector = new ScaleGestureDetector(context, new ScaleListener());
+        mGestureDetector = new GestureDetector(context, new ScrollListener());
+    }
+
+    /**
+     * Set the series to draw. The first series shows the last week of the stored prices; later
+     * ones keep the dates shown, so a reload does not move the chart.
+     */
+    public void setSeries(PriceSeries series) {
+        PriceSeries oldSeries = mSeries;
+        mSeries = series;
+
+        if (oldSeries != null && hasPrices(oldSeries) && hasPrices(series)) {
+            float span = mViewEnd - mViewStart;
+            mViewStart = series.getHourOfDate(oldSeries.getDate(mViewStart));
+            mViewEnd = mViewStart + span;
+            clampViewport();
+        } else if (hasPrices(series)) {
+            mViewEnd = series.getHourOfDate(series.getEndDate());
+            mViewStart = mViewEnd - DEFAULT_VISIBLE_HOURS;
+            clampViewport();
+            notifyViewportChange();
+        }
+
+        invalidate();
+    }
+
+    /**
+     * Set the listener told about the dates shown once they are moved.
+     */
+    public void setOnViewportChangeListener(OnViewportChangeListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+
+        int columns = Math.max(w - getPaddingLeft() - getPaddingRight(), 0);
+        mDecimator = new PriceDecimator(columns);
+        // Two segments per column when decimating, which is also room for a segment per hour
+        // plus the hours just outside the view when not.
+        mLinePoints = new float[(columns + 2) * 8];
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        boolean handled = mScaleDetector.onTouchEvent(event);
+        handled |= mGestureDetector.onTouchEvent(event);
+        return handled || super.onTouchEvent(event);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        int columns = mDecimator.getColumns();
+        if (mSeries == null || mSeries.size() == 0 || columns == 0) {
+            return;
+        }
+
+        // Visible hours, along with the one before and the one after, so the line reaches the
+        // edges of the view.
+        int first = Math.max(mSeries.indexOfHour(mViewStart) - 1, 0);
+        int last = Math.min(mSeries.indexOfHour(mViewEnd), mSeries.size() - 1);
+
+        float minPrice = Float.POSITIVE_INFINITY;
+        float maxPrice = Float.NEGATIVE_INFINITY;
+        for (int i = first; i <= last; i++) {
+            float price = mSeries.getPrice(i);
+            minPrice = Math.min(minPrice, price);
+            maxPrice = Math.max(maxPrice, price);
+        }
+        float margin = Math.max((maxPrice - minPrice) * PRICE_MARGIN, 0.001f);
+        minPrice -= margin;
+        maxPrice += margin;
+
+        float left = getPaddingLeft();
+        float top = getPaddingTop();
+        float bottom = getHeight() - getPaddingBottom();
+        float pixelsPerHour = columns / (mViewEnd - mViewStart);
+        float pixelsPerPrice = (bottom - top) / (maxPrice - minPrice);
+
+        drawGrid(canvas, left, top, bottom, columns, minPrice, maxPrice);
+
+        int count;
+        if (last - first <= columns) {
+            count = fillLinePoints(first, last, left, bottom, pixelsPerHour, pixelsPerPrice,
+                    minPrice);
+        } else {
+            count = fillDecimatedLinePoints(first, last, left, bottom, pixelsPerHour,
+                    pixelsPerPrice, minPrice);
+        }
+
+        canvas.save();
+        canvas.clipRect(left, top, left + columns, bottom);
+        canvas.drawLines(mLinePoints, 0, count, mLinePaint);
+        canvas.restore();
+    }
+
+    /**
+     * Fill the line points with a segment between each pair of consecutive hours. Hours missing
+     * from the series are left as a gap in the line instead of being bridged.
+     *
+     * @return Number of floats of the line points in use.
+     */
+    private int fillLinePoints(int first, int last, float left, float bottom,
+                               float pixelsPerHour, float pixelsPerPrice, float minPrice) {
+        int count = 0;
+        for (int i = first; i < last; i++) {
+            if (mSeries.isGapBefore(i + 1)) {
+                continue;
+            }
+            mLinePoints[count++] = left + (mSeries.getHour(i) - mViewStart) * pixelsPerHour;
+            mLinePoints[count++] = bottom - (mSeries.getPrice(i) - minPrice) * pixelsPerPrice;
+            mLinePoints[count++] = left + (mSeries.getHour(i + 1) - mViewStart) * pixelsPerHour;
+            mLinePoints[count++] = bottom - (mSeries.getPrice(i + 1) - minPrice) * pixelsPerPrice;
+        }
+        return count;
+    }
+
+    /**
+     * Reduce the hours of each pixel column to their first, last, minimum and maximum prices,
+     * and fill the line points with a vertical segment from the minimum to the maximum of each
+     * column, joined to the last price of the previous column unless hours are missing between
+     * both.
+     *
+     * @return Number of floats of the line points in use.
+     */
+    private int fillDecimatedLinePoints(int first, int last, float left, float bottom,
+                                        float pixelsPerHour, float pixelsPerPrice,
+                                        float minPrice) {
+        // The hours just outside the view fall into the edge columns.
+        mDecimator.decimate(mSeries, first, last, mViewStart, pixelsPerHour);
+
+        int columns = mDecimator.getColumns();
+        int count = 0;
+        float previousX = Float.NaN;
+        float previousY = Float.NaN;
+        for (int c = 0; c < columns; c++) {
+            if (mDecimator.isEmpty(c)) {
+                // No hour in this column, the line jumps over it.
+                continue;
+            }
+
+            float x = left + c;
+            if (!Float.isNaN(previousX) && !mDecimator.isGapBefore(c)) {
+                mLinePoints[count++] = previousX;
+                mLinePoints[count++] = previousY;
+                mLinePoints[count++] = x;
+                mLinePoints[count++] = bottom - (mDecimator.getFirst(c) - minPrice)
+                        * pixelsPerPrice;
+            }
+            mLinePoints[count++] = x;
+            mLinePoints[count++] = bottom - (mDecimator.getMin(c) - minPrice) * pixelsPerPrice;
+            mLinePoints[count++] = x;
+            mLinePoints[count++] = bottom - (mDecimator.getMax(c) - minPrice) * pixelsPerPrice;
+
+            previousX = x;
+            previousY = bottom - (mDecimator.getLast(c) - minPrice) * pixelsPerPrice;
+        }
+        return count;
+    }
+
+    /**
+     * Draw the lines of the lowest and highest prices shown, labelled with their values, and
+     * the days of both edges of the view.
+     */
+    private void drawGrid(Canvas canvas, float left, float top, float bottom, int columns,
+                          float minPrice, float maxPrice) {
+        float right = left + columns;
+        canvas.drawLine(left, top, right, top, mGridPaint);
+        canvas.drawLine(left, bottom, right, bottom, mGridPaint);
+
+        if (minPrice != mMinPriceLabelValue) {
+            mMinPriceLabelValue = minPrice;
+            mMinPriceLabel = getContext().getString(R.string.item_price_list_price, minPrice);
+        }
+        if (maxPrice != mMaxPriceLabelValue) {
+            mMaxPriceLabelValue = maxPrice;
+            mMaxPriceLabel = getContext().getString(R.string.item_price_list_price, maxPrice);
+        }
+
+        long startDay = DateCodec.getSpainDays(mSeries.getDate(mViewStart));
+        long endDay = DateCodec.getSpainDays(mSeries.getDate(mViewEnd) - 1);
+        if (startDay != mStartDayLabelValue) {
+            mStartDayLabelValue = startDay;
+            mStartDayLabel = formatDay(startDay);
+        }
+        if (endDay != mEndDayLabelValue) {
+            mEndDayLabelValue = endDay;
+            mEndDayLabel = formatDay(endDay);
+        }
+
+        mLabelPaint.getFontMetrics(mLabelMetrics);
+        canvas.drawText(mMaxPriceLabel, left, top - mLabelMetrics.ascent, mLabelPaint);
+        canvas.drawText(mMinPriceLabel, left, bottom - mLabelMetrics.descent, mLabelPaint);
+
+        // Days go above the lowest price.
+        float dayBaseline = bottom - mLabelMetrics.descent + mLabelMetrics.ascent;
+        mLabelPaint.setTextAlign(Paint.Align.RIGHT);
+        canvas.drawText(mEndDayLabel, right, dayBaseline, mLabelPaint);
+        mLabelPaint.setTextAlign(Paint.Align.LEFT);
+        if (startDay != endDay) {
+            canvas.drawText(mStartDayLabel, left, dayBaseline, mLabelPaint);
+        }
+    }
+
+    private String formatDay(long day) {
+        return DateUtils.formatDate(getContext(), DateCodec.getSpainMidnight(day),
+                FORMAT_SHOW_DATE | FORMAT_SHOW_YEAR);
+    }
+
+    private static boolean hasPrices(PriceSeries series) {
+        return series.getEndDate() > series.getFirstDate();
+    }
+
+    /**
+     * Keep the view inside the stored prices and its span between the closest zoom and every
+     * stored price.
+     */
+    private void clampViewport() {
+        if (mSeries == null || !hasPrices(mSeries)) {
+            return;
+        }
+
+        float firstHour = mSeries.getHourOfDate(mSeries.getFirstDate());
+        float endHour = mSeries.getHourOfDate(mSeries.getEndDate());
+        float span = mViewEnd - mViewStart;
+        span = Math.max(span, MIN_VISIBLE_HOURS);
+        span = Math.min(span, Math.max(endHour - firstHour, MIN_VISIBLE_HOURS));
+
+        mViewStart = Math.max(Math.min(mViewStart, endHour - span), firstHour);
+        mViewEnd = mViewStart + span;
+    }
+
+    private void notifyViewportChange() {
+        if (mListener != null) {
+            mListener.onViewportChange(mSeries.getDate(mViewStart), mSeries.getDate(mViewEnd));
+        }
+    }
+
+    /**
+     * Listener of the dates shown by the chart, to load the prices around them.
+     */
+    public interface OnViewportChangeListener {
+        /**
+         * Called when the chart has been panned or zoomed, and when the first series is set.
+         *
+         * @param startDate Date at the left edge of the chart, in milliseconds since epoch.
+         * @param endDate   Date at the right edge of the chart, in milliseconds since epoch.
+         */
+        void onViewportChange(long startDate, long endDate);
+    }
+
+    private class ScrollListener extends GestureDetector.SimpleOnGestureListener {
+
+        @Override
+        public boolean onDown(MotionEvent e) {
+            return true;
+        }
+
+        @Override
+        public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX,
+                                float distanceY) {
+            int columns = mDecimator.getColumns();
+            if (mSeries == null || columns == 0) {
+                return false;
+            }
+
+            float hours = distanceX * (mViewEnd - mViewStart) / columns;
+            mViewStart += hours;
+            mViewEnd += hours;
+            clampViewport();
+            notifyViewportChange();
+            invalidate();
+            return true;
+        }
+    }
+
+    private class ScaleListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
+
+        @Override
+        public boolean onScale(ScaleGestureDetector detector) {
+            int columns = mDecimator.getColumns();
+            if (mSeries == null || columns == 0) {
+                return false;
+            }
+
+            // Keep the hour under the focus of the pinch in place.
+            float focus = (detector.getFocusX() - getPaddingLeft()) / columns;
+            float focusHour = mViewStart + focus * (mViewEnd - mViewStart);
+            float span = (mViewEnd - mViewStart) / detector.getScaleFactor();
+            mViewStart = focusHour - focus * span;
+            mViewEnd = mViewStart + span;
+            clampViewport();
+            notifyViewportChange();
+            invalidate();
+            return true;
+        }
+    }
+}
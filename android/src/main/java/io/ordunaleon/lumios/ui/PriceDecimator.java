@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.ui;
+
+/**
+ * Reduces the hours of a {@link PriceSeries} falling into each pixel column of a chart to their
+ * first, last, minimum and maximum prices, so the peaks are kept and drawing costs as much as
+ * the width of the chart instead of the number of hours shown. The columns are allocated once,
+ * so reducing allocates nothing.
+ */
+final class PriceDecimator {
+
+    private final float[] mFirst;
+    private final float[] mLast;
+    private final float[] mMin;
+    private final float[] mMax;
+    private final boolean[] mGap;
+
+    /**
+     * Creates a PriceDecimator.
+     *
+     * @param columns Number of pixel columns of the chart.
+     */
+    PriceDecimator(int columns) {
+        mFirst = new float[columns];
+        mLast = new float[columns];
+        mMin = new float[columns];
+        mMax = new float[columns];
+        mGap = new boolean[columns];
+    }
+
+    int getColumns() {
+        return mMin.length;
+    }
+
+    /**
+     * Reduce the given hours of the series into the columns. Hours before the first column or
+     * after the last one fall into the edge columns.
+     *
+     * @param series        The series.
+     * @param first         Position of the first hour to reduce.
+     * @param last          Position of the last hour to reduce, included.
+     * @param viewStart     Hour of the series at the left edge of the first column.
+     * @param pixelsPerHour Width of an hour, in columns.
+     */
+    void decimate(PriceSeries series, int first, int last, float viewStart,
+                  float pixelsPerHour) {
+        int columns = mMin.length;
+        for (int c = 0; c < columns; c++) {
+            mMin[c] = Float.POSITIVE_INFINITY;
+            mMax[c] = Float.NEGATIVE_INFINITY;
+        }
+
+        for (int i = first; i <= last; i++) {
+            int c = (int) ((series.getHour(i) - viewStart) * pixelsPerHour);
+            c = Math.min(Math.max(c, 0), columns - 1);
+
+            float price = series.getPrice(i);
+            if (mMin[c] > mMax[c]) {
+                mFirst[c] = price;
+                mGap[c] = i > first && series.isGapBefore(i);
+            }
+            mLast[c] = price;
+            mMin[c] = Math.min(mMin[c], price);
+            mMax[c] = Math.max(mMax[c], price);
+        }
+    }
+
+    /**
+     * @return True if no hour fell into the given column.
+     */
+    boolean isEmpty(int column) {
+        return mMin[column] > mMax[column];
+    }
+
+    /**
+     * @return True if hours are missing before the first hour of the given column.
+     */
+    boolean isGapBefore(int column) {
+        return mGap[column];
+    }
+
+    float getFirst(int column) {
+        return mFirst[column];
+    }
+
+    float getLast(int column) {
+        return mLast[column];
+    }
+
+    float getMin(int column) {
+        return mMin[column];
+    }
+
+    float getMax(int column) {
+        return mMax[column];
+    }
+}
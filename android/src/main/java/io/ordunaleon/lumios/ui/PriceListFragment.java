@@ -17,42 +17,37 @@
 
 package io.ordunaleon.lumios.ui;
 
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ListView;
 
 import io.ordunaleon.lumios.R;
 import io.ordunaleon.lumios.adapter.PriceListAdapter;
+import io.ordunaleon.lumios.adapter.PriceListDiff;
 import io.ordunaleon.lumios.utils.DateUtils;
 import io.ordunaleon.lumios.utils.PrefUtils;
 
 import static io.ordunaleon.lumios.data.LumiosContract.PriceEntry;
 
-public class PriceListFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
+public class PriceListFragment extends Fragment
+        implements LoaderManager.LoaderCallbacks<PriceListDiff> {
 
     private static final int PRICE_LIST_LOADER = 0;
 
-    public static final int COL_ID = 0;
-    public static final int COL_DATE = 1;
-    public static final int COL_PRICE = 2;
-    public static final int COL_AVG = 3;
-    public static final int COL_INCREASE = 4;
-
     private static final String SELECTED_KEY = "selected_position";
 
     private PriceListAdapter mPriceListAdapter;
 
-    private ListView mListView;
+    private RecyclerView mRecyclerView;
 
-    private int mPosition = ListView.INVALID_POSITION;
+    private int mPosition = RecyclerView.NO_POSITION;
 
     public static PriceListFragment newInstance() {
         return new PriceListFragment();
@@ -63,15 +58,17 @@ public class PriceListFragment extends Fragment implements LoaderManager.LoaderC
                              Bundle savedInstanceState) {
 
         // The PriceListAdapter will take data from a source and
-        // use it to populate the ListView it's attached to.
-        mPriceListAdapter = new PriceListAdapter(getActivity(), null, 0);
+        // use it to populate the RecyclerView it's attached to.
+        mPriceListAdapter = new PriceListAdapter(getActivity());
 
         // Inflate the layout for this fragment.
         View rootView = inflater.inflate(R.layout.fragment_price_list, container, false);
 
-        // Get a reference to the ListView, and attach this adapter to it.
-        mListView = (ListView) rootView.findViewById(R.id.price_list_listview);
-        mListView.setAdapter(mPriceListAdapter);
+        // Get a reference to the RecyclerView, and attach this adapter to it.
+        mRecyclerView = (RecyclerView) rootView.findViewById(R.id.price_list_recyclerview);
+        mRecyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        mRecyclerView.setHasFixedSize(true);
+        mRecyclerView.setAdapter(mPriceListAdapter);
 
         // Restore mPosition, if exists
         if (savedInstanceState != null && savedInstanceState.containsKey(SELECTED_KEY)) {
@@ -90,9 +87,9 @@ public class PriceListFragment extends Fragment implements LoaderManager.LoaderC
     @Override
     public void onSaveInstanceState(Bundle outState) {
         // When device rotate, the currently selected list item needs to be saved.
-        // When no item is selected, mPosition will be set to ListView.INVALID_POSITION,
+        // When no item is selected, mPosition will be set to RecyclerView.NO_POSITION,
         // so check for that before storing.
-        if (mPosition != ListView.INVALID_POSITION) {
+        if (mPosition != RecyclerView.NO_POSITION) {
             outState.putInt(SELECTED_KEY, mPosition);
         }
 
@@ -104,41 +101,36 @@ public class PriceListFragment extends Fragment implements LoaderManager.LoaderC
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
+    public Loader<PriceListDiff> onCreateLoader(int i, Bundle bundle) {
         // This is called when a new Loader needs to be created.  This
         // fragment only uses one loader, so we don't care about checking the id.
 
-        // Only show data for the current and subsequent time.
-        String startDate = DateUtils.getNowIso(DateUtils.TRUNCATE_UNIT_HOUR);
-        Uri uri = PriceEntry.buildUriWithStartDate(startDate);
-
-        // Get the columns based on the selected fare.
-        String[] projection = PriceEntry
-                .getColumns(getActivity(), PrefUtils.getFareName(getActivity()));
+        // Only show data from the current hour to the end of tomorrow, the last day published,
+        // so only changes of those days reload the list.
+        long startDate = DateUtils.getNow(DateUtils.TRUNCATE_UNIT_HOUR);
+        long endDate = DateUtils.getNextDayStart(
+                DateUtils.getNextDayStart(DateUtils.getDayStart(startDate))) - 1;
 
-        // Sort by date ascending.
-        String sortOrder = PriceEntry.COLUMN_DATE + " ASC";
+        // Read only the prices of the selected fare.
+        String fare = PriceEntry.getFare(getActivity(), PrefUtils.getFareName(getActivity()));
+        Uri uri = PriceEntry.buildUriWithFareAndStartDateAndEndDate(fare, startDate, endDate);
 
-        return new CursorLoader(getActivity(),
-                uri,
-                projection,
-                null,
-                null,
-                sortOrder);
+        // Rows are queried and formatted off the main thread.
+        return new PriceListLoader(getActivity(), uri);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mPriceListAdapter.swapCursor(data);
-        if (mPosition != ListView.INVALID_POSITION) {
+    public void onLoadFinished(Loader<PriceListDiff> loader, PriceListDiff data) {
+        mPriceListAdapter.swapItems(data);
+        if (mPosition != RecyclerView.NO_POSITION) {
             // If we don't need to restart the loader, and there's a desired position to restore
             // to, do so now.
-            mListView.smoothScrollToPosition(mPosition);
+            mRecyclerView.smoothScrollToPosition(mPosition);
         }
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        mPriceListAdapter.swapCursor(null);
+    public void onLoaderReset(Loader<PriceListDiff> loader) {
+        mPriceListAdapter.swapItems(null);
     }
 }
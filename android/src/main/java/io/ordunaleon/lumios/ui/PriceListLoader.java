@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.ui;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.ordunaleon.lumios.R;
+import io.ordunaleon.lumios.adapter.PriceListDiff;
+import io.ordunaleon.lumios.adapter.PriceListItem;
+import io.ordunaleon.lumios.utils.DateUtils;
+
+import static android.text.format.DateUtils.FORMAT_SHOW_TIME;
+import static io.ordunaleon.lumios.data.LumiosContract.PriceEntry;
+
+/**
+ * Loads the prices of a fare into {@link PriceListItem}s, doing the query, the date formatting
+ * and the number formatting on a background thread. Like a CursorLoader, it loads again
+ * whenever the prices of its dates change; each load is delivered along with its changes from
+ * the previous one, computed on the same background thread.
+ */
+public class PriceListLoader extends AsyncTaskLoader<PriceListDiff> {
+
+    private static final int COL_DATE = 1;
+    private static final int COL_PRICE = 2;
+    private static final int COL_AVG = 3;
+    private static final int COL_INCREASE = 4;
+
+    /**
+     * Formatted hours shared by every load. The same hours are shown by consecutive loads, so
+     * most of them are found here instead of formatted again. Two months of hours fit in.
+     */
+    private static final LruCache<Long, String> sHourLabels = new LruCache<>(24 * 62);
+
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+
+    private final Uri mUri;
+
+    // Last delivered result, read by the background thread to compute the next diff.
+    private volatile PriceListDiff mDiff;
+
+    private boolean mObserverRegistered;
+
+    /**
+     * Creates a PriceListLoader.
+     *
+     * @param context The context.
+     * @param uri     Uri of the prices of a fare, see {@link PriceEntry#buildUriWithFare}.
+     */
+    public PriceListLoader(Context context, Uri uri) {
+        super(context);
+        mUri = uri;
+    }
+
+    @Override
+    public PriceListDiff loadInBackground() {
+        PriceListDiff lastDiff = mDiff;
+        return PriceListDiff.calculate(lastDiff != null ? lastDiff.getNewItems() : null,
+                loadItems());
+    }
+
+    private List<PriceListItem> loadItems() {
+        Context context = getContext();
+
+        // Sort by date ascending.
+        Cursor cursor = context.getContentResolver().query(mUri, PriceEntry.getFareColumns(),
+                null, null, PriceEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return new ArrayList<>();
+        }
+
+        try {
+            List<PriceListItem> items = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                long date = cursor.getLong(COL_DATE);
+                items.add(new PriceListItem(date,
+                        getHourLabel(context, date),
+                        context.getString(R.string.item_price_list_price,
+                                cursor.getDouble(COL_PRICE)),
+                        context.getString(R.string.item_price_list_avg,
+                                cursor.getDouble(COL_AVG)),
+                        context.getString(R.string.item_price_list_increase,
+                                cursor.getDouble(COL_INCREASE))));
+            }
+            return items;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String getHourLabel(Context context, long date) {
+        String label = sHourLabels.get(date);
+        if (label == null) {
+            label = DateUtils.formatDate(context, date, FORMAT_SHOW_TIME);
+            sHourLabels.put(date, label);
+        }
+        return label;
+    }
+
+    @Override
+    public void deliverResult(PriceListDiff diff) {
+        if (isReset()) {
+            return;
+        }
+
+        mDiff = diff;
+        if (isStarted()) {
+            super.deliverResult(diff);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserverRegistered) {
+            getContext().getContentResolver().registerContentObserver(
+                    PriceEntry.getNotificationUri(mUri), true, mObserver);
+            mObserverRegistered = true;
+        }
+
+        if (mDiff != null) {
+            deliverResult(mDiff);
+        }
+        if (takeContentChanged() || mDiff == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        onStopLoading();
+
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+        mDiff = null;
+    }
+}
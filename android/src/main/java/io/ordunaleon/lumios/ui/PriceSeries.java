@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.ui;
+
+import java.util.Arrays;
+
+import io.ordunaleon.lumios.utils.DateCodec;
+
+/**
+ * Hourly prices of a fare, stored in two parallel float arrays so a series of years can be held
+ * and drawn without an object per hour. Each hour is kept as the number of hours since the first
+ * one, which a float holds exactly for centuries of hours.
+ * <p/>
+ * A series may hold buckets of hours instead, a day or a week each, and only a part of the stored
+ * prices: it also knows the dates of the first and last stored ones, so the chart can be moved
+ * past the prices held and load the rest.
+ */
+public final class PriceSeries {
+
+    private final long mStartDate;
+    private final int mSize;
+    private final float[] mHours;
+    private final float[] mPrices;
+    private final float mMaxStep;
+    private final long mFirstDate;
+    private final long mEndDate;
+
+    /**
+     * Creates a PriceSeries of consecutive hours holding every stored price.
+     *
+     * @param startDate Date of the first hour, in milliseconds since epoch.
+     * @param hours     Hours since the first one, in ascending order.
+     * @param prices    Price of each hour.
+     * @param size      Number of hours of the arrays in use.
+     */
+    public PriceSeries(long startDate, float[] hours, float[] prices, int size) {
+        this(startDate, hours, prices, size, 1, startDate,
+                size > 0 ? startDate + (long) (hours[size - 1] + 1) * DateCodec.MILLIS_PER_HOUR
+                        : startDate);
+    }
+
+    /**
+     * Creates a PriceSeries.
+     *
+     * @param startDate Date of the first hour, in milliseconds since epoch.
+     * @param hours     Hours since the first one, in ascending order.
+     * @param prices    Price of each hour.
+     * @param size      Number of hours of the arrays in use.
+     * @param maxStep   Most hours between two consecutive ones with no price missing between
+     *                  them: 1 for hourly prices, more for buckets.
+     * @param firstDate Date of the first stored price, in milliseconds since epoch.
+     * @param endDate   Date right after the last stored price, in milliseconds since epoch.
+     */
+    public PriceSeries(long startDate, float[] hours, float[] prices, int size, float maxStep,
+                       long firstDate, long endDate) {
+        mStartDate = startDate;
+        mHours = hours;
+        mPrices = prices;
+        mSize = size;
+        mMaxStep = maxStep;
+        mFirstDate = firstDate;
+        mEndDate = endDate;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getStartDate() {
+        return mStartDate;
+    }
+
+    public float getHour(int i) {
+        return mHours[i];
+    }
+
+    public float getPrice(int i) {
+        return mPrices[i];
+    }
+
+    /**
+     * @return True if prices are missing between the given hour and the one before.
+     */
+    public boolean isGapBefore(int i) {
+        return mHours[i] - mHours[i - 1] > mMaxStep;
+    }
+
+    /**
+     * @return Date of the first stored price, which may be before the first hour of the series.
+     */
+    public long getFirstDate() {
+        return mFirstDate;
+    }
+
+    /**
+     * @return Date right after the last stored price, which may be after the last hour of the
+     * series.
+     */
+    public long getEndDate() {
+        return mEndDate;
+    }
+
+    /**
+     * @return Date of the given hour of the series, in milliseconds since epoch.
+     */
+    public long getDate(float hour) {
+        return mStartDate + (long) (hour * DateCodec.MILLIS_PER_HOUR);
+    }
+
+    /**
+     * @return Hour of the series of the given date, in milliseconds since epoch.
+     */
+    public float getHourOfDate(long date) {
+        return (float) (date - mStartDate) / DateCodec.MILLIS_PER_HOUR;
+    }
+
+    /**
+     * Find the position of the first hour at or after the given one.
+     *
+     * @return Position of the hour, or {@link #size()} if every hour is before it.
+     */
+    public int indexOfHour(float hour) {
+        int i = Arrays.binarySearch(mHours, 0, mSize, hour);
+        if (i < 0) {
+            return -i - 1;
+        }
+        // Hours are unique, so this is the only one.
+        return i;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.ui;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import io.ordunaleon.lumios.R;
+import io.ordunaleon.lumios.utils.DateUtils;
+
+import static android.text.format.DateUtils.FORMAT_SHOW_DATE;
+import static android.text.format.DateUtils.FORMAT_SHOW_TIME;
+import static io.ordunaleon.lumios.data.LumiosContract.PriceEntry;
+import static io.ordunaleon.lumios.data.LumiosContract.SyncMetricsEntry;
+
+/**
+ * Debug screen with the metrics of the last download cycles, to find out where the sync time
+ * goes on a real device, along with the counters of the response cache of the downloads and
+ * of the window cache of the provider. Only reachable from the Navigation Drawer of debug
+ * builds.
+ */
+public class SyncMetricsFragment extends Fragment
+        implements LoaderManager.LoaderCallbacks<Cursor> {
+
+    private static final int SYNC_METRICS_LOADER = 0;
+
+    private static final String[] SYNC_METRICS_COLUMNS = {
+            SyncMetricsEntry.COLUMN_TIME,
+            SyncMetricsEntry.COLUMN_KIND,
+            SyncMetricsEntry.COLUMN_URLS,
+            SyncMetricsEntry.COLUMN_FAILURES,
+            SyncMetricsEntry.COLUMN_WIRE_BYTES,
+            SyncMetricsEntry.COLUMN_DECODED_BYTES,
+            SyncMetricsEntry.COLUMN_CACHE_HITS,
+            SyncMetricsEntry.COLUMN_CACHE_MISSES,
+            SyncMetricsEntry.COLUMN_CONNECT_NANOS,
+            SyncMetricsEntry.COLUMN_READ_NANOS,
+            SyncMetricsEntry.COLUMN_PARSE_NANOS,
+            SyncMetricsEntry.COLUMN_NORMALIZE_NANOS,
+            SyncMetricsEntry.COLUMN_STORE_NANOS,
+            SyncMetricsEntry.COLUMN_TOTAL_NANOS,
+            SyncMetricsEntry.COLUMN_ROWS_INSERTED,
+            SyncMetricsEntry.COLUMN_ROWS_UPDATED,
+            SyncMetricsEntry.COLUMN_ROWS_UNCHANGED,
+            SyncMetricsEntry.COLUMN_LAST_ERROR
+    };
+
+    // These indices are tied to SYNC_METRICS_COLUMNS.
+    private static final int COL_TIME = 0;
+    private static final int COL_KIND = 1;
+    private static final int COL_URLS = 2;
+    private static final int COL_FAILURES = 3;
+    private static final int COL_WIRE_BYTES = 4;
+    private static final int COL_DECODED_BYTES = 5;
+    private static final int COL_CACHE_HITS = 6;
+    private static final int COL_CACHE_MISSES = 7;
+    private static final int COL_FIRST_STAGE = 8;
+    private static final int COL_TOTAL = 13;
+    private static final int COL_ROWS_INSERTED = 14;
+    private static final int COL_ROWS_UPDATED = 15;
+    private static final int COL_ROWS_UNCHANGED = 16;
+    private static final int COL_LAST_ERROR = 17;
+
+    // Stages from COL_FIRST_STAGE to COL_TOTAL, named by R.array.sync_metrics_stages.
+    private static final int STAGE_COUNT = COL_TOTAL - COL_FIRST_STAGE + 1;
+
+    private TextView mTextView;
+
+    public static SyncMetricsFragment newInstance() {
+        return new SyncMetricsFragment();
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+                             Bundle savedInstanceState) {
+        // Inflate the layout for this fragment.
+        View rootView = inflater.inflate(R.layout.fragment_sync_metrics, container, false);
+        mTextView = (TextView) rootView.findViewById(R.id.sync_metrics_text);
+        return rootView;
+    }
+
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        getLoaderManager().initLoader(SYNC_METRICS_LOADER, null, this);
+        super.onActivityCreated(savedInstanceState);
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        return new SyncMetricsLoader(getActivity());
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        if (data == null || data.getCount() == 0) {
+            mTextView.setText(R.string.sync_metrics_empty);
+            return;
+        }
+
+        // Totals of every cycle kept, to average the stages over them.
+        long[] stageNanos = new long[STAGE_COUNT];
+        long urls = 0;
+        long failures = 0;
+        long wireBytes = 0;
+        long decodedBytes = 0;
+        long cacheHits = 0;
+        long cacheMisses = 0;
+        long rowsInserted = 0;
+        long rowsUpdated = 0;
+        long rowsUnchanged = 0;
+        String lastError = null;
+
+        StringBuilder cycles = new StringBuilder();
+        data.moveToPosition(-1);
+        while (data.moveToNext()) {
+            for (int i = 0; i < STAGE_COUNT; i++) {
+                stageNanos[i] += data.getLong(COL_FIRST_STAGE + i);
+            }
+            urls += data.getLong(COL_URLS);
+            failures += data.getLong(COL_FAILURES);
+            wireBytes += data.getLong(COL_WIRE_BYTES);
+            decodedBytes += data.getLong(COL_DECODED_BYTES);
+            cacheHits += data.getLong(COL_CACHE_HITS);
+            cacheMisses += data.getLong(COL_CACHE_MISSES);
+            rowsInserted += data.getLong(COL_ROWS_INSERTED);
+            rowsUpdated += data.getLong(COL_ROWS_UPDATED);
+            rowsUnchanged += data.getLong(COL_ROWS_UNCHANGED);
+            if (lastError == null && !data.isNull(COL_LAST_ERROR)) {
+                lastError = data.getString(COL_LAST_ERROR);
+            }
+
+            cycles.append(getString(R.string.sync_metrics_cycle,
+                    DateUtils.formatDate(getActivity(), data.getLong(COL_TIME),
+                            FORMAT_SHOW_DATE | FORMAT_SHOW_TIME),
+                    getString(data.getInt(COL_KIND) == SyncMetricsEntry.KIND_BACKFILL
+                            ? R.string.sync_metrics_kind_backfill
+                            : R.string.sync_metrics_kind_sync),
+                    data.getInt(COL_URLS) - data.getInt(COL_FAILURES), data.getInt(COL_URLS),
+                    data.getLong(COL_TOTAL) / 1e6)).append('\n');
+        }
+
+        int count = data.getCount();
+        String[] stageNames = getResources().getStringArray(R.array.sync_metrics_stages);
+        StringBuilder text = new StringBuilder();
+        text.append(getString(R.string.sync_metrics_summary, count, urls, failures))
+                .append("\n\n");
+        text.append(getString(R.string.sync_metrics_average_time)).append('\n');
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            text.append(getString(R.string.sync_metrics_stage_time, stageNames[i],
+                    stageNanos[i] / 1e6 / count)).append('\n');
+        }
+        text.append('\n')
+                .append(getString(R.string.sync_metrics_bytes, wireBytes, decodedBytes))
+                .append('\n');
+        text.append(getString(R.string.sync_metrics_rows, rowsInserted, rowsUpdated,
+                rowsUnchanged)).append('\n');
+        if (lastError != null) {
+            text.append(getString(R.string.sync_metrics_last_error, lastError)).append('\n');
+        }
+        text.append('\n').append(getString(R.string.sync_metrics_response_cache)).append('\n');
+        text.append(getString(R.string.sync_metrics_cache_count,
+                getString(R.string.sync_metrics_cache_hits), cacheHits)).append('\n');
+        text.append(getString(R.string.sync_metrics_cache_count,
+                getString(R.string.sync_metrics_cache_misses), cacheMisses)).append('\n');
+        appendCacheStats(text, ((SyncMetricsLoader) loader).getCacheStats());
+        text.append('\n').append(cycles);
+
+        mTextView.setText(text);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        mTextView.setText(null);
+    }
+
+    /**
+     * Append the counters of the window cache, loaded along with the metrics.
+     *
+     * @param stats Counters of the cache, or null if they could not be read.
+     */
+    private void appendCacheStats(StringBuilder text, Bundle stats) {
+        if (stats == null) {
+            return;
+        }
+
+        text.append('\n').append(getString(R.string.sync_metrics_price_cache)).append('\n');
+        appendCacheStat(text, R.string.sync_metrics_cache_hits,
+                stats.getLong(PriceEntry.EXTRA_CACHE_HIT_COUNT),
+                stats.getLong(PriceEntry.EXTRA_CACHE_HIT_NANOS));
+        appendCacheStat(text, R.string.sync_metrics_cache_misses,
+                stats.getLong(PriceEntry.EXTRA_CACHE_MISS_COUNT),
+                stats.getLong(PriceEntry.EXTRA_CACHE_MISS_NANOS));
+        appendCacheStat(text, R.string.sync_metrics_cache_bypasses,
+                stats.getLong(PriceEntry.EXTRA_CACHE_BYPASS_COUNT),
+                stats.getLong(PriceEntry.EXTRA_CACHE_BYPASS_NANOS));
+    }
+
+    private void appendCacheStat(StringBuilder text, int nameResId, long count, long nanos) {
+        text.append(getString(R.string.sync_metrics_cache_time, getString(nameResId), count,
+                count > 0 ? nanos / 1e6 / count : 0)).append('\n');
+    }
+
+    /**
+     * Loads the metrics of the last cycles, newest first, and on the same background thread the
+     * counters of the window cache, which are asked to the provider through a call.
+     */
+    private static class SyncMetricsLoader extends CursorLoader {
+
+        private volatile Bundle mCacheStats;
+
+        SyncMetricsLoader(Context context) {
+            super(context, SyncMetricsEntry.CONTENT_URI, SYNC_METRICS_COLUMNS, null, null,
+                    SyncMetricsEntry._ID + " DESC");
+        }
+
+        @Override
+        public Cursor loadInBackground() {
+            Cursor cursor = super.loadInBackground();
+            mCacheStats = getContext().getContentResolver().call(PriceEntry.CONTENT_URI,
+                    PriceEntry.METHOD_GET_CACHE_STATS, null, null);
+            return cursor;
+        }
+
+        /**
+         * @return Counters of the window cache as of the last load, or null.
+         */
+        Bundle getCacheStats() {
+            return mCacheStats;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.utils;
+
+import java.text.ParseException;
+import java.util.TimeZone;
+
+/**
+ * Parses the dates used by the app straight into milliseconds since epoch, with no Calendar,
+ * SimpleDateFormat or any other object allocated on the way. Every method is static and only
+ * reads immutable tables, so it is safe to call from any thread.
+ * <p/>
+ * Dates come from the ESIOS server as a day and an hour ("dd/MM/yyyy" and "HH-HH", in
+ * Europe/Madrid time).
+ * <p/>
+ * Europe/Madrid is UTC+1, and UTC+2 from 01:00 UTC of the last Sunday of March to 01:00 UTC of
+ * the last Sunday of October, the rule of the European Union since 1996. The transitions of
+ * those years are computed once; dates out of them fall back to {@link TimeZone}.
+ */
+public final class DateCodec {
+
+    public static final long MILLIS_PER_MINUTE = 60 * 1000L;
+    public static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+    public static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+    private static final long OFFSET_STANDARD = MILLIS_PER_HOUR;
+    private static final long OFFSET_SUMMER = 2 * MILLIS_PER_HOUR;
+
+    private static final int FIRST_YEAR = 1996;
+    private static final int LAST_YEAR = 2099;
+
+    /**
+     * Start and end of summer time of every year from {@link #FIRST_YEAR} to {@link #LAST_YEAR},
+     * in milliseconds since epoch.
+     */
+    private static final long[] SUMMER_START = new long[LAST_YEAR - FIRST_YEAR + 1];
+    private static final long[] SUMMER_END = new long[LAST_YEAR - FIRST_YEAR + 1];
+
+    private static final long FIRST_MILLIS;
+    private static final long LAST_MILLIS;
+
+    private static final TimeZone TZ_SPAIN = TimeZone.getTimeZone("Europe/Madrid");
+
+    static {
+        for (int year = FIRST_YEAR; year <= LAST_YEAR; year++) {
+            SUMMER_START[year - FIRST_YEAR] = getLastSundayMillis(year, 3) + MILLIS_PER_HOUR;
+            SUMMER_END[year - FIRST_YEAR] = getLastSundayMillis(year, 10) + MILLIS_PER_HOUR;
+        }
+        FIRST_MILLIS = daysFromCivil(FIRST_YEAR, 1, 1) * MILLIS_PER_DAY;
+        LAST_MILLIS = daysFromCivil(LAST_YEAR + 1, 1, 1) * MILLIS_PER_DAY;
+    }
+
+    private DateCodec() {
+    }
+
+    /**
+     * Get the offset of Europe/Madrid from UTC at the given instant.
+     *
+     * @param millis Date in milliseconds since epoch.
+     * @return Offset in milliseconds.
+     */
+    public static long getSpainOffset(long millis) {
+        if (millis < FIRST_MILLIS || millis >= LAST_MILLIS) {
+            return TZ_SPAIN.getOffset(millis);
+        }
+
+        // Transitions happen in spring and autumn, far from new year, so the UTC year is good.
+        int i = yearFromDays(floorDiv(millis, MILLIS_PER_DAY)) - FIRST_YEAR;
+        return millis >= SUMMER_START[i] && millis < SUMMER_END[i]
+                ? OFFSET_SUMMER : OFFSET_STANDARD;
+    }
+
+    /**
+     * Get the next change of the offset of Europe/Madrid from UTC, as computed for the years of
+     * the precomputed transitions only.
+     *
+     * @param millis Date in milliseconds since epoch.
+     * @return First transition after the given date, in milliseconds since epoch, or -1 if there
+     * is none up to the end of {@link #LAST_YEAR}.
+     */
+    public static long getNextSpainTransition(long millis) {
+        if (millis < FIRST_MILLIS) {
+            return SUMMER_START[0];
+        }
+        if (millis >= LAST_MILLIS) {
+            return -1;
+        }
+
+        int i = yearFromDays(floorDiv(millis, MILLIS_PER_DAY)) - FIRST_YEAR;
+        if (millis < SUMMER_START[i]) {
+            return SUMMER_START[i];
+        } else if (millis < SUMMER_END[i]) {
+            return SUMMER_END[i];
+        }
+        return i + 1 < SUMMER_START.length ? SUMMER_START[i + 1] : -1;
+    }
+
+    /**
+     * Get the start of the given day in Spain.
+     *
+     * @param days Days since 1970-01-01.
+     * @return Start of the day, in milliseconds since epoch.
+     */
+    public static long getSpainMidnight(long days) {
+        long local = days * MILLIS_PER_DAY;
+        // Transitions happen at 01:00 UTC, never within two hours of midnight in Spain, so the
+        // offset two hours before midnight local time is the offset at midnight.
+        return local - getSpainOffset(local - 2 * OFFSET_STANDARD);
+    }
+
+    /**
+     * Get the day in Spain containing the given instant.
+     *
+     * @param millis Date in milliseconds since epoch.
+     * @return Days since 1970-01-01.
+     */
+    public static long getSpainDays(long millis) {
+        return floorDiv(millis + getSpainOffset(millis), MILLIS_PER_DAY);
+    }
+
+    /**
+     * Parse a day of the ESIOS server ("dd/MM/yyyy") and an hour ("HH" followed by anything,
+     * usually "HH-HH") into the start of that hour. The hour counts the hours elapsed since
+     * midnight in Spain, so days with a daylight saving time change have 23 or 25 of them.
+     *
+     * @param day  Day, month and year of the date.
+     * @param hour Hour of the date.
+     * @return Date in milliseconds since epoch.
+     * @throws ParseException when the given strings are not in the correct form.
+     */
+    public static long parseEsios(CharSequence day, CharSequence hour) throws ParseException {
+        if (day.length() != 10 || day.charAt(2) != '/' || day.charAt(5) != '/') {
+            throw new ParseException("Unparseable ESIOS day: " + day, 0);
+        }
+        if (hour.length() < 2) {
+            throw new ParseException("Unparseable ESIOS hour: " + hour, 0);
+        }
+
+        int dayOfMonth = parseDigits(day, 0, 2);
+        int month = parseDigits(day, 3, 2);
+        int year = parseDigits(day, 6, 4);
+        checkDate(day, year, month, dayOfMonth);
+
+        return getSpainMidnight(daysFromCivil(year, month, dayOfMonth))
+                + parseDigits(hour, 0, 2) * MILLIS_PER_HOUR;
+    }
+
+    /**
+     * Get the days since 1970-01-01 of the given date of the proleptic Gregorian calendar.
+     *
+     * @param year       Year.
+     * @param month      Month, from 1 to 12.
+     * @param dayOfMonth Day of the month, from 1 to 31.
+     * @return Days since 1970-01-01.
+     */
+    public static long daysFromCivil(int year, int month, int dayOfMonth) {
+        // Count from March, so the leap day is the last day of the year.
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + dayOfMonth - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    /**
+     * Get the date of the proleptic Gregorian calendar of the given days since 1970-01-01,
+     * packed in a single int so no object has to be returned.
+     *
+     * @param days Days since 1970-01-01.
+     * @return The date as year * 10000 + month * 100 + day of month.
+     */
+    public static int civilFromDays(long days) {
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int dayOfMonth = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+        return year * 10000 + month * 100 + dayOfMonth;
+    }
+
+    private static int yearFromDays(long days) {
+        return civilFromDays(days) / 10000;
+    }
+
+    /**
+     * @return Start of the last Sunday of the given month, in milliseconds since epoch (UTC).
+     */
+    private static long getLastSundayMillis(int year, int month) {
+        long lastDay = daysFromCivil(month == 12 ? year + 1 : year, month == 12 ? 1 : month + 1, 1)
+                - 1;
+        // 1970-01-01 was a Thursday, so Sundays are the days congruent to 3 modulo 7.
+        long lastSunday = lastDay - floorMod(lastDay - 3, 7);
+        return lastSunday * MILLIS_PER_DAY;
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    private static int getDaysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static void checkDate(CharSequence source, int year, int month, int dayOfMonth)
+            throws ParseException {
+        if (month < 1 || month > 12 || dayOfMonth < 1
+                || dayOfMonth > getDaysInMonth(year, month)) {
+            throw new ParseException("Invalid date: " + source, 0);
+        }
+    }
+
+    private static int parseDigits(CharSequence source, int start, int count)
+            throws ParseException {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = source.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new ParseException("Unexpected character in " + source, i);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+}
@@ -20,12 +20,8 @@ package io.ordunaleon.lumios.utils;
 import android.content.Context;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.Locale;
-import java.util.TimeZone;
 
 import static android.text.format.DateUtils.formatDateTime;
 
@@ -56,12 +52,6 @@ public class DateUtils {
             Calendar.MINUTE, Calendar.SECOND, Calendar.MILLISECOND
     };
 
-    private static final String DF_ESIOS = "dd/MM/yyyy";
-    private static final String DF_ISO8601 = "yyyy-MM-dd'T'HH:mmZ";
-
-    private static final TimeZone TZ_UTC = TimeZone.getTimeZone("UTC");
-    private static final TimeZone TZ_SPAIN = TimeZone.getTimeZone("Europe/Madrid");
-
     /**
      * Set to zero each field given by fields array in th given calendar
      *
@@ -96,100 +86,70 @@ public class DateUtils {
     }
 
     /**
-     * Get now date string in ISO 8601 format truncated at the given unit.
+     * Get now date in milliseconds since epoch truncated at the given unit.
      *
      * @param truncateUnit Unit from which truncate (not including the given).
-     * @return Now date string in ISO 8601 format truncated at the given unit.
+     * @return Now date in milliseconds since epoch truncated at the given unit.
      */
-    public static String getNowIso(int truncateUnit) {
-        GregorianCalendar gc = (GregorianCalendar) GregorianCalendar.getInstance();
-        SimpleDateFormat sdf = new SimpleDateFormat(DF_ISO8601);
-        sdf.setTimeZone(TZ_UTC);
-
-        gc = (GregorianCalendar) truncate(gc, truncateUnit);
-
-        return sdf.format(gc.getTime());
+    public static long getNow(int truncateUnit) {
+        return truncate(GregorianCalendar.getInstance(), truncateUnit).getTimeInMillis();
     }
 
     /**
-     * Get tomorrow date string in ISO 8601 format truncated at the given unit.
+     * Get tomorrow date in milliseconds since epoch truncated at the given unit.
      *
      * @param truncateUnit Unit from which truncate (not including the given).
-     * @return Tomorrow date string in ISO 8601 format truncated at the given unit.
+     * @return Tomorrow date in milliseconds since epoch truncated at the given unit.
      */
-    public static String getTomorrowIso(int truncateUnit) {
-        GregorianCalendar gc = (GregorianCalendar) GregorianCalendar.getInstance();
-        SimpleDateFormat sdf = new SimpleDateFormat(DF_ISO8601);
-        sdf.setTimeZone(TZ_UTC);
-
-        gc.add(Calendar.DAY_OF_MONTH, 1);
-        gc = (GregorianCalendar) truncate(gc, truncateUnit);
+    public static long getTomorrow(int truncateUnit) {
+        Calendar calendar = GregorianCalendar.getInstance();
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
 
-        return sdf.format(gc.getTime());
+        return truncate(calendar, truncateUnit).getTimeInMillis();
     }
 
     /**
-     * Given a date as a string in UTC ISO 8061 format, return a local date in the given format.
+     * Get the start of the day in Spain that contains the given date.
      *
-     * @param context The context of the preferences where values are stored.
-     * @param date    Date as a string in ISO 8061 format.
-     * @param flags   A bit mask of formatting options. {@link android.text.format.DateUtils}
-     * @return String containing the local date.
-     * @throws ParseException when the given string is not in the correct form.
+     * @param millis Date in milliseconds since epoch.
+     * @return Start of the day in Spain, in milliseconds since epoch.
      */
-    public static String formatDateFromUtcIso(Context context, String date, int flags)
-            throws ParseException {
-        GregorianCalendar gc = (GregorianCalendar) GregorianCalendar.getInstance();
-
-        SimpleDateFormat sdf = new SimpleDateFormat(DF_ISO8601);
-        sdf.setTimeZone(TZ_UTC);
-
-        gc.setTime(sdf.parse(date));
+    public static long getDayStart(long millis) {
+        return DateCodec.getSpainMidnight(DateCodec.getSpainDays(millis));
+    }
 
-        return formatDateTime(context, gc.getTimeInMillis(), flags);
+    /**
+     * Get the start of the day in Spain that follows the given one. Days in Spain last 23, 24 or
+     * 25 hours, depending on daylight saving time.
+     *
+     * @param dayStart Start of a day in Spain, in milliseconds since epoch.
+     * @return Start of the next day in Spain, in milliseconds since epoch.
+     */
+    public static long getNextDayStart(long dayStart) {
+        return DateCodec.getSpainMidnight(DateCodec.getSpainDays(dayStart) + 1);
     }
 
     /**
-     * Given a date as a string in ISO 8061 format, extract one of its fields.
+     * Given a date in milliseconds since epoch, return a local date in the given format.
      *
-     * @param dateStr Date as a string in ISO 8061 format.
-     * @param field   Field to be extracted.
-     * @return String containing the value of the required field.
-     * @throws ParseException when the given string is not in the correct form.
+     * @param context The context of the preferences where values are stored.
+     * @param millis  Date in milliseconds since epoch.
+     * @param flags   A bit mask of formatting options. {@link android.text.format.DateUtils}
+     * @return String containing the local date.
      */
-    public static String getFieldFromIsoDate(String dateStr, int field) throws ParseException {
-        GregorianCalendar gc = (GregorianCalendar) GregorianCalendar.getInstance();
-        SimpleDateFormat sdf = new SimpleDateFormat(DF_ISO8601, Locale.getDefault());
-        Date date = sdf.parse(dateStr);
-        gc.setTime(date);
-        return String.valueOf(gc.get(field));
+    public static String formatDate(Context context, long millis, int flags) {
+        return formatDateTime(context, millis, flags);
     }
 
     /**
-     * Given a date as a string in Esios server format, return date as a string in ISO 8061 format
-     * for UTC time zone.
+     * Given a date as a string in Esios server format, return date in milliseconds since epoch.
      *
-     * @param day  String containing the day, month and year of the date {@link DateUtils#DF_ESIOS}.
+     * @param day  String containing the day, month and year of the date (dd/MM/yyyy).
      * @param hour String containing the hour of the date.
-     * @return Date as a string in ISO 8061 format for UTC time zone.
+     * @return Date in milliseconds since epoch.
      * @throws ParseException when the given string is not in the correct form.
      */
-    public static String getUtcIsoFromEsiosDate(String day, String hour) throws ParseException {
-        GregorianCalendar gc = (GregorianCalendar) GregorianCalendar.getInstance();
-        SimpleDateFormat sdf = new SimpleDateFormat(DF_ESIOS);
-        sdf.setTimeZone(TZ_SPAIN);
-
-        // Set day of the calendar.
-        gc.setTime(sdf.parse(day));
-
-        // Set hour of the calendar.
-        gc.add(Calendar.HOUR_OF_DAY, Integer.parseInt(hour.substring(0, 2)));
-
-        // Change pattern and time zone of the sdf object.
-        sdf.applyPattern(DF_ISO8601);
-        sdf.setTimeZone(TZ_UTC);
-
-        // Get date in ISO format for UTC time zone.
-        return sdf.format(gc.getTime());
+    public static long getUtcMillisFromEsiosDate(String day, String hour) throws ParseException {
+        return DateCodec.parseEsios(day, hour);
     }
 }
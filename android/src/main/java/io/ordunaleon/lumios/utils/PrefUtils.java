@@ -42,6 +42,28 @@ public class PrefUtils {
      */
     public static final int PREF_SENT_TOKEN_KEY = R.string.pref_sent_token_key;
 
+    /**
+     * Long holding the first day of the history backfill in progress, in days since epoch.
+     */
+    public static final int PREF_BACKFILL_START_DAY_KEY = R.string.pref_backfill_start_day_key;
+
+    /**
+     * Long holding the day after the last one still to be backfilled, in days since epoch. The
+     * backfill goes from the newest day to the oldest, so every day from here on is done.
+     */
+    public static final int PREF_BACKFILL_END_DAY_KEY = R.string.pref_backfill_end_day_key;
+
+    /**
+     * Boolean indicating whether the history backfill has been completed.
+     */
+    public static final int PREF_BACKFILL_DONE_KEY = R.string.pref_backfill_done_key;
+
+    /**
+     * Integer holding how many times the newest chunk still to be backfilled has failed.
+     */
+    public static final int PREF_BACKFILL_CHUNK_ATTEMPTS_KEY =
+            R.string.pref_backfill_chunk_attempts_key;
+
     /**
      * Return true if the first app run have already been executed.
      *
@@ -118,6 +140,92 @@ public class PrefUtils {
         return sp.getBoolean(context.getResources().getString(PREF_SENT_TOKEN_KEY), false);
     }
 
+    /**
+     * Return true if the history backfill has been completed.
+     *
+     * @param context Context to be used to lookup the {@link SharedPreferences}.
+     */
+    public static boolean isBackfillDone(final Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getBoolean(context.getResources().getString(PREF_BACKFILL_DONE_KEY), false);
+    }
+
+    /**
+     * Return the first day of the backfill in progress, or -1 if there is none.
+     *
+     * @param context Context to be used to lookup the {@link SharedPreferences}.
+     */
+    public static long getBackfillStartDay(final Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getLong(context.getResources().getString(PREF_BACKFILL_START_DAY_KEY), -1);
+    }
+
+    /**
+     * Return the day after the last one still to be backfilled, or -1 if there is no backfill in
+     * progress.
+     *
+     * @param context Context to be used to lookup the {@link SharedPreferences}.
+     */
+    public static long getBackfillEndDay(final Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getLong(context.getResources().getString(PREF_BACKFILL_END_DAY_KEY), -1);
+    }
+
+    /**
+     * Store the days still to be backfilled, forgetting the failed attempts of the chunk left
+     * behind. The change is written to disk before returning, so the progress survives the death
+     * of the process; it must not be called on the main thread.
+     *
+     * @param context  Context to be used to lookup the {@link SharedPreferences}.
+     * @param startDay First day still to be backfilled, in days since epoch.
+     * @param endDay   Day after the last one still to be backfilled, in days since epoch.
+     */
+    public static void setBackfillRange(final Context context, long startDay, long endDay) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        sp.edit().putLong(context.getResources().getString(PREF_BACKFILL_START_DAY_KEY), startDay)
+                .putLong(context.getResources().getString(PREF_BACKFILL_END_DAY_KEY), endDay)
+                .remove(context.getResources().getString(PREF_BACKFILL_CHUNK_ATTEMPTS_KEY))
+                .commit();
+    }
+
+    /**
+     * Return how many times the newest chunk still to be backfilled has failed.
+     *
+     * @param context Context to be used to lookup the {@link SharedPreferences}.
+     */
+    public static int getBackfillChunkAttempts(final Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getInt(context.getResources().getString(PREF_BACKFILL_CHUNK_ATTEMPTS_KEY), 0);
+    }
+
+    /**
+     * Store how many times the newest chunk still to be backfilled has failed. Like
+     * {@link #setBackfillRange}, it writes to disk before returning.
+     *
+     * @param context  Context to be used to lookup the {@link SharedPreferences}.
+     * @param attempts Number of failed attempts.
+     */
+    public static void setBackfillChunkAttempts(final Context context, int attempts) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        sp.edit().putInt(context.getResources().getString(PREF_BACKFILL_CHUNK_ATTEMPTS_KEY),
+                attempts).commit();
+    }
+
+    /**
+     * Mark the history backfill as completed, forgetting its progress. Like
+     * {@link #setBackfillRange}, it writes to disk before returning.
+     *
+     * @param context Context to be used to lookup the {@link SharedPreferences}.
+     */
+    public static void setBackfillDone(final Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        sp.edit().remove(context.getResources().getString(PREF_BACKFILL_START_DAY_KEY))
+                .remove(context.getResources().getString(PREF_BACKFILL_END_DAY_KEY))
+                .remove(context.getResources().getString(PREF_BACKFILL_CHUNK_ATTEMPTS_KEY))
+                .putBoolean(context.getResources().getString(PREF_BACKFILL_DONE_KEY), true)
+                .commit();
+    }
+
     /**
      * Registers a callback to be invoked when a change happens to a preference.
      *
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import io.ordunaleon.lumios.utils.DateCodec;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures {@link CheapestFinder} over five years of hourly prices, the history a backfill
+ * stores, against summing every run from scratch. Timings are printed, not asserted.
+ */
+public class CheapestFinderBenchmark {
+
+    private static final int WARM_UP_ROUNDS = 20;
+    private static final int ROUNDS = 20;
+
+    private static final int[] RUN_HOURS = {3, 8, 24};
+
+    private long[] mDates;
+    private double[] mPrices;
+
+    @Before
+    public void setUp() {
+        long start = DateCodec.getSpainMidnight(DateCodec.daysFromCivil(2012, 1, 1));
+        long end = DateCodec.getSpainMidnight(DateCodec.daysFromCivil(2017, 1, 1));
+        int size = (int) ((end - start) / DateCodec.MILLIS_PER_HOUR);
+
+        Random random = new Random(20161025);
+        mDates = new long[size];
+        mPrices = new double[size];
+        for (int i = 0; i < size; i++) {
+            mDates[i] = start + i * DateCodec.MILLIS_PER_HOUR;
+            mPrices[i] = 0.08 + random.nextDouble() * 0.06;
+        }
+    }
+
+    @Test
+    public void findCheapestWindow_againstSummingEveryRun() {
+        for (int hours : RUN_HOURS) {
+            int finderStart = -1;
+            int scratchStart = -1;
+            long finderNanos = Long.MAX_VALUE;
+            long scratchNanos = Long.MAX_VALUE;
+            for (int round = 0; round < WARM_UP_ROUNDS + ROUNDS; round++) {
+                long start = System.nanoTime();
+                finderStart = CheapestFinder.findCheapestWindow(mDates, mPrices, mDates.length,
+                        hours);
+                long finderEnd = System.nanoTime();
+                scratchStart = findCheapestWindowFromScratch(hours);
+                long scratchEnd = System.nanoTime();
+
+                if (round >= WARM_UP_ROUNDS) {
+                    finderNanos = Math.min(finderNanos, finderEnd - start);
+                    scratchNanos = Math.min(scratchNanos, scratchEnd - finderEnd);
+                }
+            }
+
+            assertEquals("hours " + hours, scratchStart, finderStart);
+            System.out.println(String.format(Locale.US, "CheapestFinder.findCheapestWindow, "
+                            + "%d hours over %d: %.2f ms, from scratch: %.2f ms", hours,
+                    mDates.length, finderNanos / 1e6, scratchNanos / 1e6));
+        }
+    }
+
+    @Test
+    public void findCheapestHours() {
+        for (int hours : RUN_HOURS) {
+            int[] positions = null;
+            long nanos = Long.MAX_VALUE;
+            for (int round = 0; round < WARM_UP_ROUNDS + ROUNDS; round++) {
+                long start = System.nanoTime();
+                positions = CheapestFinder.findCheapestHours(mPrices, mPrices.length, hours);
+                long end = System.nanoTime();
+
+                if (round >= WARM_UP_ROUNDS) {
+                    nanos = Math.min(nanos, end - start);
+                }
+            }
+
+            assertEquals(hours, positions.length);
+            System.out.println(String.format(Locale.US, "CheapestFinder.findCheapestHours, "
+                    + "%d hours over %d: %.2f ms", hours, mPrices.length, nanos / 1e6));
+        }
+    }
+
+    /**
+     * Sum every run from scratch, which is what the running total saves. The hours of the setup
+     * have no gaps, so every run counts.
+     */
+    private int findCheapestWindowFromScratch(int hours) {
+        int bestStart = -1;
+        double bestTotal = Double.POSITIVE_INFINITY;
+        for (int start = 0; start + hours <= mPrices.length; start++) {
+            double total = 0;
+            for (int i = start; i < start + hours; i++) {
+                total += mPrices[i];
+            }
+            if (total < bestTotal) {
+                bestTotal = total;
+                bestStart = start;
+            }
+        }
+        return bestStart;
+    }
+}
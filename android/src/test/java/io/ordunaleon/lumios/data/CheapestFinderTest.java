@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.data;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import io.ordunaleon.lumios.utils.DateCodec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks {@link CheapestFinder} against plain quadratic searches over random series. Prices are
+ * mostly multiples of a quarter, so every sum is exact and ties are common; long series of real
+ * prices check the running total does not drift away from the sums of the quadratic search.
+ */
+public class CheapestFinderTest {
+
+    private static final int SERIES_COUNT = 2000;
+    private static final int MAX_SIZE = 200;
+
+    private static final int LONG_SERIES_COUNT = 20;
+    private static final int LONG_SIZE = 20000;
+
+    // Relative error allowed between the totals of a run summed in different orders.
+    private static final double TOTAL_TOLERANCE = 1e-12;
+
+    private final Random mRandom = new Random(20161021);
+
+    @Test
+    public void findCheapestWindow_matchesOracle() {
+        for (int n = 0; n < SERIES_COUNT; n++) {
+            int size = mRandom.nextInt(MAX_SIZE + 1);
+            long[] dates = randomDates(size);
+            double[] prices = randomPrices(size);
+            int hours = 1 + mRandom.nextInt(30);
+
+            assertEquals("size " + size + ", hours " + hours,
+                    findCheapestWindowOracle(dates, prices, size, hours),
+                    CheapestFinder.findCheapestWindow(dates, prices, size, hours));
+        }
+    }
+
+    @Test
+    public void findCheapestWindow_withRealPrices_findsTheLowestTotal() {
+        for (int n = 0; n < LONG_SERIES_COUNT; n++) {
+            long[] dates = randomDates(LONG_SIZE);
+            double[] prices = new double[LONG_SIZE];
+            for (int i = 0; i < LONG_SIZE; i++) {
+                prices[i] = 0.03 + mRandom.nextDouble() * 0.2;
+            }
+            int hours = 1 + mRandom.nextInt(48);
+
+            // Runs of real prices hardly ever tie, but both may still pick different runs of
+            // totals equal up to rounding.
+            int expected = findCheapestWindowOracle(dates, prices, LONG_SIZE, hours);
+            int actual = CheapestFinder.findCheapestWindow(dates, prices, LONG_SIZE, hours);
+            double expectedTotal = sum(prices, expected, hours);
+            assertEquals("hours " + hours, expectedTotal, sum(prices, actual, hours),
+                    expectedTotal * TOTAL_TOLERANCE);
+        }
+    }
+
+    @Test
+    public void findCheapestWindow_afterAHugePrice_doesNotDrift() {
+        int size = 1000;
+        long[] dates = new long[size];
+        double[] prices = new double[size];
+        for (int i = 0; i < size; i++) {
+            dates[i] = i * DateCodec.MILLIS_PER_HOUR;
+            prices[i] = 0.1 + (i % 7) * 0.01;
+        }
+        // The cheapest run, two cents below the best run of the weekly pattern.
+        prices[0] = 0.095;
+        prices[1] = 0.095;
+        // A single absurd price, whose runs round away the cents of the hours around it. Carried
+        // over to the following runs, that error made them look cheaper than the first one.
+        prices[10] = 1e15;
+
+        assertEquals(0, CheapestFinder.findCheapestWindow(dates, prices, size, 2));
+    }
+
+    @Test
+    public void findCheapestHours_matchesOracle() {
+        for (int n = 0; n < SERIES_COUNT; n++) {
+            int size = mRandom.nextInt(MAX_SIZE + 1);
+            double[] prices = randomPrices(size);
+            int hours = mRandom.nextInt(size + 10);
+
+            assertArrayEquals("size " + size + ", hours " + hours,
+                    findCheapestHoursOracle(prices, size, hours),
+                    CheapestFinder.findCheapestHours(prices, size, hours));
+        }
+    }
+
+    @Test
+    public void findCheapestWindow_withoutPositiveHours_findsNothing() {
+        long[] dates = randomDates(10);
+        double[] prices = randomPrices(10);
+
+        assertEquals(-1, CheapestFinder.findCheapestWindow(dates, prices, 10, 0));
+        assertEquals(-1, CheapestFinder.findCheapestWindow(dates, prices, 10, -3));
+    }
+
+    @Test
+    public void findCheapestWindow_doesNotSpanGaps() {
+        long hour = DateCodec.MILLIS_PER_HOUR;
+        long[] dates = {0, hour, 5 * hour, 6 * hour, 7 * hour};
+        double[] prices = {1, 1, 3, 3, 3};
+
+        // The two cheapest hours are not followed by a third one.
+        assertEquals(2, CheapestFinder.findCheapestWindow(dates, prices, 5, 3));
+        assertEquals(-1, CheapestFinder.findCheapestWindow(dates, prices, 5, 4));
+    }
+
+    @Test
+    public void findCheapestHours_withTies_picksTheEarliest() {
+        double[] prices = {2, 1, 2, 1, 2, 1};
+
+        assertArrayEquals(new int[]{1, 3}, CheapestFinder.findCheapestHours(prices, 6, 2));
+        assertArrayEquals(new int[]{0, 1, 3, 5}, CheapestFinder.findCheapestHours(prices, 6, 4));
+    }
+
+    /**
+     * @return Ascending hours, one hour apart except for a gap now and then.
+     */
+    private long[] randomDates(int size) {
+        long[] dates = new long[size];
+        long date = mRandom.nextInt(1000) * DateCodec.MILLIS_PER_HOUR;
+        for (int i = 0; i < size; i++) {
+            if (mRandom.nextInt(10) == 0) {
+                date += (1 + mRandom.nextInt(48)) * DateCodec.MILLIS_PER_HOUR;
+            }
+            dates[i] = date;
+            date += DateCodec.MILLIS_PER_HOUR;
+        }
+        return dates;
+    }
+
+    private double[] randomPrices(int size) {
+        double[] prices = new double[size];
+        for (int i = 0; i < size; i++) {
+            prices[i] = mRandom.nextInt(8) / 4.0;
+        }
+        return prices;
+    }
+
+    private static double sum(double[] prices, int start, int hours) {
+        double total = 0;
+        for (int i = start; i < start + hours; i++) {
+            total += prices[i];
+        }
+        return total;
+    }
+
+    /**
+     * Sum every run of consecutive hours from scratch, keeping the earliest of the cheapest.
+     */
+    private static int findCheapestWindowOracle(long[] dates, double[] prices, int size,
+                                                int hours) {
+        int bestStart = -1;
+        double bestTotal = Double.POSITIVE_INFINITY;
+        for (int start = 0; start + hours <= size; start++) {
+            double total = prices[start];
+            boolean consecutive = true;
+            for (int i = start + 1; i < start + hours; i++) {
+                consecutive &= dates[i] - dates[i - 1] == DateCodec.MILLIS_PER_HOUR;
+                total += prices[i];
+            }
+            if (consecutive && total < bestTotal) {
+                bestTotal = total;
+                bestStart = start;
+            }
+        }
+        return bestStart;
+    }
+
+    /**
+     * Pick the cheapest hour left, the earliest among the same price, as many times as asked.
+     */
+    private static int[] findCheapestHoursOracle(double[] prices, int size, int hours) {
+        int count = Math.min(hours, size);
+        boolean[] picked = new boolean[size];
+        for (int n = 0; n < count; n++) {
+            int cheapest = -1;
+            for (int i = 0; i < size; i++) {
+                if (!picked[i] && (cheapest == -1 || prices[i] < prices[cheapest])) {
+                    cheapest = i;
+                }
+            }
+            picked[cheapest] = true;
+        }
+
+        int[] positions = new int[count];
+        for (int i = 0, n = 0; i < size; i++) {
+            if (picked[i]) {
+                positions[n++] = i;
+            }
+        }
+        return positions;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.ui;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import io.ordunaleon.lumios.utils.DateCodec;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures a frame of {@link PriceDecimator} over a day, a month and five years of hours, all
+ * of them shown in the columns of a wide screen, and checks every column against the hours
+ * falling into it. Timings are printed, not asserted.
+ */
+public class PriceDecimatorBenchmark {
+
+    private static final int WARM_UP_ROUNDS = 200;
+    private static final int ROUNDS = 200;
+
+    // Pixel columns of a 1080 pixels wide screen.
+    private static final int COLUMNS = 1080;
+
+    private final Random mRandom = new Random(20161024);
+
+    @Test
+    public void decimate_oneDay() {
+        measure("1 day", 24);
+    }
+
+    @Test
+    public void decimate_oneMonth() {
+        measure("1 month", 30 * 24);
+    }
+
+    @Test
+    public void decimate_fiveYears() {
+        measure("5 years", 5 * 365 * 24);
+    }
+
+    private void measure(String name, int size) {
+        PriceSeries series = createSeries(size);
+        PriceDecimator decimator = new PriceDecimator(COLUMNS);
+        float pixelsPerHour = (float) COLUMNS / size;
+
+        long nanos = Long.MAX_VALUE;
+        for (int round = 0; round < WARM_UP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            decimator.decimate(series, 0, size - 1, 0, pixelsPerHour);
+            long end = System.nanoTime();
+
+            if (round >= WARM_UP_ROUNDS) {
+                nanos = Math.min(nanos, end - start);
+            }
+        }
+
+        checkColumns(series, decimator, pixelsPerHour);
+        System.out.println(String.format(Locale.US, "PriceDecimator, %s: %d hours in %.1f us "
+                + "per frame, %.2f ns per hour", name, size, nanos / 1e3, (double) nanos / size));
+    }
+
+    /**
+     * Reduce every column again from scratch and compare it with the decimator.
+     */
+    private static void checkColumns(PriceSeries series, PriceDecimator decimator,
+                                     float pixelsPerHour) {
+        int used = 0;
+        for (int c = 0; c < COLUMNS; c++) {
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < series.size(); i++) {
+                int column = Math.min((int) (series.getHour(i) * pixelsPerHour), COLUMNS - 1);
+                if (column == c) {
+                    min = Math.min(min, series.getPrice(i));
+                    max = Math.max(max, series.getPrice(i));
+                }
+            }
+
+            assertEquals("column " + c, min > max, decimator.isEmpty(c));
+            if (min <= max) {
+                assertEquals("column " + c, min, decimator.getMin(c), 0);
+                assertEquals("column " + c, max, decimator.getMax(c), 0);
+                used++;
+            }
+        }
+        assertEquals(Math.min(series.size(), COLUMNS), used);
+    }
+
+    private PriceSeries createSeries(int size) {
+        float[] hours = new float[size];
+        float[] prices = new float[size];
+        for (int i = 0; i < size; i++) {
+            hours[i] = i;
+            prices[i] = 0.08f + mRandom.nextFloat() * 0.06f;
+        }
+        return new PriceSeries(DateCodec.getSpainMidnight(DateCodec.daysFromCivil(2012, 1, 1)),
+                hours, prices, size);
+    }
+}
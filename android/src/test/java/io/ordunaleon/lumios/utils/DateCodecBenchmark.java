@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.utils;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures {@link DateCodec#parseEsios} against the SimpleDateFormat it replaced, over every
+ * hour of the days of 24 hours of 2016, and checks it allocates nothing once warm. The
+ * allocated bytes come from the HotSpot extension of {@link ThreadMXBean}; on other JVMs that
+ * check is skipped. Timings are printed, not asserted.
+ */
+public class DateCodecBenchmark {
+
+    private static final int WARM_UP_ROUNDS = 20;
+    private static final int ROUNDS = 20;
+
+    // Slack for the bookkeeping of the measure, far less than a single parse used to take.
+    private static final long MAX_ALLOCATED_BYTES = 1024;
+
+    private String[] mDays;
+    private String[] mHours;
+
+    @Before
+    public void setUp() {
+        long first = DateCodec.daysFromCivil(2016, 1, 1);
+        long last = DateCodec.daysFromCivil(2017, 1, 1);
+
+        // On the days of 23 and 25 hours the hour of ESIOS is not the hour on the clock, which
+        // is all SimpleDateFormat knows of, so they are left out.
+        mDays = new String[(int) (last - first - 2) * 24];
+        mHours = new String[mDays.length];
+        for (long days = first, i = 0; days < last; days++) {
+            if (DateCodec.getSpainMidnight(days + 1) - DateCodec.getSpainMidnight(days)
+                    != DateCodec.MILLIS_PER_DAY) {
+                continue;
+            }
+            int civil = DateCodec.civilFromDays(days);
+            String day = String.format(Locale.US, "%02d/%02d/%04d", civil % 100,
+                    civil / 100 % 100, civil / 10000);
+            for (int hour = 0; hour < 24; hour++, i++) {
+                mDays[(int) i] = day;
+                mHours[(int) i] = String.format(Locale.US, "%02d-%02d", hour, hour + 1);
+            }
+        }
+    }
+
+    @Test
+    public void parseEsios_allocatesNothing() throws ParseException {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(sunBean.isThreadAllocatedMemorySupported());
+        sunBean.setThreadAllocatedMemoryEnabled(true);
+
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            parseAll();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = sunBean.getThreadAllocatedBytes(threadId);
+        long checksum = parseAll();
+        long allocated = sunBean.getThreadAllocatedBytes(threadId) - before;
+
+        System.out.println("DateCodec.parseEsios: " + allocated + " bytes allocated by "
+                + mDays.length + " calls");
+        assertTrue(checksum != 0);
+        assertTrue(allocated + " bytes allocated", allocated <= MAX_ALLOCATED_BYTES);
+    }
+
+    @Test
+    public void parseEsios_againstSimpleDateFormat() throws ParseException {
+        SimpleDateFormat format = new SimpleDateFormat("dd/MM/yyyy HH", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("Europe/Madrid"));
+
+        long codecChecksum = 0;
+        long formatChecksum = 0;
+        long codecNanos = Long.MAX_VALUE;
+        long formatNanos = Long.MAX_VALUE;
+        for (int round = 0; round < WARM_UP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            codecChecksum = parseAll();
+            long codecEnd = System.nanoTime();
+            formatChecksum = parseAll(format);
+            long formatEnd = System.nanoTime();
+
+            if (round >= WARM_UP_ROUNDS) {
+                codecNanos = Math.min(codecNanos, codecEnd - start);
+                formatNanos = Math.min(formatNanos, formatEnd - codecEnd);
+            }
+        }
+
+        assertEquals(formatChecksum, codecChecksum);
+        System.out.println(String.format(Locale.US, "DateCodec.parseEsios: %.1f ns per call, "
+                        + "SimpleDateFormat: %.1f ns per call", (double) codecNanos / mDays.length,
+                (double) formatNanos / mDays.length));
+    }
+
+    private long parseAll() throws ParseException {
+        long checksum = 0;
+        for (int i = 0; i < mDays.length; i++) {
+            checksum += DateCodec.parseEsios(mDays[i], mHours[i]);
+        }
+        return checksum;
+    }
+
+    private long parseAll(SimpleDateFormat format) throws ParseException {
+        long checksum = 0;
+        for (int i = 0; i < mDays.length; i++) {
+            checksum += format.parse(mDays[i] + " " + mHours[i].substring(0, 2)).getTime();
+        }
+        return checksum;
+    }
+}
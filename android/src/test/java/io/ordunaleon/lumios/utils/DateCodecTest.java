@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2016 Álvaro Orduna León
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.ordunaleon.lumios.utils;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks {@link DateCodec} against {@link TimeZone} and {@link GregorianCalendar}, hour by hour
+ * and day by day, from 1994 to 2101. That covers both edges of the precomputed transitions,
+ * 1995/1996 and 2099/2100, where the codec falls back to TimeZone.
+ */
+public class DateCodecTest {
+
+    private static final TimeZone TZ_SPAIN = TimeZone.getTimeZone("Europe/Madrid");
+    private static final TimeZone TZ_UTC = TimeZone.getTimeZone("UTC");
+
+    private static final long FIRST_DAY = DateCodec.daysFromCivil(1994, 1, 1);
+    private static final long LAST_DAY = DateCodec.daysFromCivil(2102, 1, 1);
+
+    @Test
+    public void getSpainOffset_matchesTimeZone() {
+        long end = LAST_DAY * DateCodec.MILLIS_PER_DAY;
+        for (long millis = FIRST_DAY * DateCodec.MILLIS_PER_DAY; millis < end;
+             millis += DateCodec.MILLIS_PER_HOUR) {
+            assertEquals(new Date(millis).toString(), TZ_SPAIN.getOffset(millis),
+                    DateCodec.getSpainOffset(millis));
+            // Around the transition as well, one millisecond before and after the hour.
+            assertEquals(TZ_SPAIN.getOffset(millis - 1), DateCodec.getSpainOffset(millis - 1));
+            assertEquals(TZ_SPAIN.getOffset(millis + 1), DateCodec.getSpainOffset(millis + 1));
+        }
+    }
+
+    @Test
+    public void getNextSpainTransition_matchesTimeZone() {
+        long end = DateCodec.daysFromCivil(2100, 1, 1) * DateCodec.MILLIS_PER_DAY;
+        long millis = DateCodec.daysFromCivil(1996, 1, 1) * DateCodec.MILLIS_PER_DAY;
+        long transition = DateCodec.getNextSpainTransition(millis);
+        for (; millis < end; millis += DateCodec.MILLIS_PER_HOUR) {
+            if (millis == transition) {
+                transition = DateCodec.getNextSpainTransition(millis);
+            }
+            boolean changes = TZ_SPAIN.getOffset(millis) != TZ_SPAIN.getOffset(millis
+                    + DateCodec.MILLIS_PER_HOUR);
+            assertEquals(new Date(millis).toString(), changes,
+                    transition == millis + DateCodec.MILLIS_PER_HOUR);
+            assertEquals(transition, DateCodec.getNextSpainTransition(millis));
+        }
+        assertEquals(-1, transition);
+    }
+
+    @Test
+    public void getSpainMidnight_matchesCalendar() {
+        Calendar utc = newCalendar(TZ_UTC, FIRST_DAY);
+        for (long days = FIRST_DAY; days < LAST_DAY; days++) {
+            assertEquals(formatDay(utc), getMidnight(utc), DateCodec.getSpainMidnight(days));
+            utc.add(Calendar.DAY_OF_MONTH, 1);
+        }
+    }
+
+    @Test
+    public void getSpainDays_matchesCalendar() {
+        Calendar spain = new GregorianCalendar(TZ_SPAIN, Locale.US);
+        long end = LAST_DAY * DateCodec.MILLIS_PER_DAY;
+        for (long millis = FIRST_DAY * DateCodec.MILLIS_PER_DAY; millis < end;
+             millis += DateCodec.MILLIS_PER_HOUR) {
+            spain.setTimeInMillis(millis);
+            assertEquals(spain.getTime().toString(), toCivil(spain),
+                    DateCodec.civilFromDays(DateCodec.getSpainDays(millis)));
+        }
+    }
+
+    @Test
+    public void parseEsios_matchesCalendar() throws ParseException {
+        Calendar utc = newCalendar(TZ_UTC, FIRST_DAY);
+        for (long days = FIRST_DAY; days < LAST_DAY; days++) {
+            String day = String.format(Locale.US, "%02d/%02d/%04d",
+                    utc.get(Calendar.DAY_OF_MONTH), utc.get(Calendar.MONTH) + 1,
+                    utc.get(Calendar.YEAR));
+            long midnight = getMidnight(utc);
+            utc.add(Calendar.DAY_OF_MONTH, 1);
+            int hours = (int) ((getMidnight(utc) - midnight) / DateCodec.MILLIS_PER_HOUR);
+
+            for (int hour = 0; hour < hours; hour++) {
+                String range = String.format(Locale.US, "%02d-%02d", hour, hour + 1);
+                assertEquals(day + " " + range, midnight + hour * DateCodec.MILLIS_PER_HOUR,
+                        DateCodec.parseEsios(day, range));
+            }
+        }
+    }
+
+    @Test
+    public void transitionDays_haveTheirHours() throws ParseException {
+        // 1995 still ended summer time in September; the rule of today starts in 1996.
+        assertDayHours(25, 1995, 9, 24);
+        assertDayHours(23, 1996, 3, 31);
+        assertDayHours(25, 1996, 10, 27);
+        assertDayHours(23, 2016, 3, 27);
+        assertDayHours(25, 2016, 10, 30);
+        assertDayHours(24, 2016, 10, 29);
+        assertDayHours(23, 2099, 3, 29);
+        assertDayHours(25, 2099, 10, 25);
+        assertDayHours(23, 2100, 3, 28);
+        assertDayHours(25, 2100, 10, 31);
+
+        // 02:00 does not exist on the day of 23 hours, so its third hour is already 03:00.
+        assertEquals(DateCodec.parseEsios("27/03/2016", "03-04"),
+                DateCodec.parseEsios("27/03/2016", "02-03") + DateCodec.MILLIS_PER_HOUR);
+        assertEquals(DateCodec.parseEsios("28/03/2016", "00-01"),
+                DateCodec.parseEsios("27/03/2016", "22-23") + DateCodec.MILLIS_PER_HOUR);
+        assertEquals(DateCodec.parseEsios("31/10/2016", "00-01"),
+                DateCodec.parseEsios("30/10/2016", "24-25") + DateCodec.MILLIS_PER_HOUR);
+    }
+
+    @Test
+    public void civilFromDays_matchesProlepticCalendar() {
+        GregorianCalendar utc = new GregorianCalendar(TZ_UTC, Locale.US);
+        utc.setGregorianChange(new Date(Long.MIN_VALUE));
+        utc.clear();
+        utc.set(1, Calendar.JANUARY, 1);
+
+        long last = DateCodec.daysFromCivil(3000, 1, 1);
+        for (long days = DateCodec.daysFromCivil(1, 1, 1); days < last; days++) {
+            int civil = toCivil(utc);
+            assertEquals(civil, DateCodec.civilFromDays(days));
+            assertEquals(days, DateCodec.daysFromCivil(civil / 10000, civil / 100 % 100,
+                    civil % 100));
+            assertEquals(days * DateCodec.MILLIS_PER_DAY, utc.getTimeInMillis());
+            utc.add(Calendar.DAY_OF_MONTH, 1);
+        }
+    }
+
+    @Test
+    public void parseEsios_withInvalidInput_throws() {
+        String[][] invalid = {
+                {"", "00-01"},
+                {"1/1/2016", "00-01"},
+                {"01-01-2016", "00-01"},
+                {"01/01/2O16", "00-01"},
+                {"32/01/2016", "00-01"},
+                {"29/02/2015", "00-01"},
+                {"01/13/2016", "00-01"},
+                {"00/01/2016", "00-01"},
+                {"01/01/2016", "0"},
+                {"01/01/2016", "a0-01"}
+        };
+        for (String[] input : invalid) {
+            try {
+                DateCodec.parseEsios(input[0], input[1]);
+                fail("Parsed " + input[0] + " " + input[1]);
+            } catch (ParseException e) {
+                // Expected.
+            }
+        }
+    }
+
+    private static void assertDayHours(int hours, int year, int month, int dayOfMonth)
+            throws ParseException {
+        long days = DateCodec.daysFromCivil(year, month, dayOfMonth);
+        assertEquals(year + "-" + month + "-" + dayOfMonth, hours * DateCodec.MILLIS_PER_HOUR,
+                DateCodec.getSpainMidnight(days + 1) - DateCodec.getSpainMidnight(days));
+
+        String day = String.format(Locale.US, "%02d/%02d/%04d", dayOfMonth, month, year);
+        assertEquals(DateCodec.getSpainMidnight(days + 1), DateCodec.parseEsios(day,
+                String.format(Locale.US, "%02d-%02d", hours - 1, hours))
+                + DateCodec.MILLIS_PER_HOUR);
+    }
+
+    /**
+     * @return A calendar in the given time zone at the start of the given day in UTC.
+     */
+    private static Calendar newCalendar(TimeZone timeZone, long days) {
+        Calendar calendar = new GregorianCalendar(timeZone, Locale.US);
+        calendar.setTimeInMillis(days * DateCodec.MILLIS_PER_DAY);
+        return calendar;
+    }
+
+    /**
+     * @return Start in Spain of the day the given calendar is at.
+     */
+    private static long getMidnight(Calendar day) {
+        Calendar spain = new GregorianCalendar(TZ_SPAIN, Locale.US);
+        spain.clear();
+        spain.set(day.get(Calendar.YEAR), day.get(Calendar.MONTH), day.get(Calendar.DAY_OF_MONTH));
+        return spain.getTimeInMillis();
+    }
+
+    private static int toCivil(Calendar calendar) {
+        return calendar.get(Calendar.YEAR) * 10000 + (calendar.get(Calendar.MONTH) + 1) * 100
+                + calendar.get(Calendar.DAY_OF_MONTH);
+    }
+
+    private static String formatDay(Calendar calendar) {
+        return String.valueOf(toCivil(calendar));
+    }
+}